@@ -21,15 +21,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -39,6 +35,8 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import com.ryorke.database.DatabaseImporter;
+import com.ryorke.database.ProgressListener;
 import com.ryorke.database.SQLiteDBManager;
 
 import javax.swing.JLabel;
@@ -62,6 +60,7 @@ import javax.swing.JFrame;
 @SuppressWarnings("serial")
 public class InventoryDBManagementFrame extends JDialog {
 	public final static String WINDOW_TITLE = "Database Management";
+	public final static String BINARY_BACKUP_EXTENSION = "invbak";
 	private static File lastDirectoryBrowsed = null;
 	
 	private JTextField fileLocation; 
@@ -70,6 +69,7 @@ public class InventoryDBManagementFrame extends JDialog {
 	private JRadioButton exportDatabase;
 	private JRadioButton importDatabase;
 	private JCheckBox overwriteDatabase;
+	private JCheckBox binaryFormat;
 	private JButton executeAction;
 	private JButton close;
 	
@@ -144,11 +144,15 @@ public class InventoryDBManagementFrame extends JDialog {
 		exportDatabase = new JRadioButton("Export to file");
 		importDatabase = new JRadioButton("Import from file");
 		overwriteDatabase = new JCheckBox("Overwrite/Truncate database on import");
+		binaryFormat = new JCheckBox("Compact binary format");
 		executeAction = new JButton("Export");
 		close = new JButton("Close");
 				
 		exportDatabase.setMnemonic(KeyEvent.VK_E);
 		importDatabase.setMnemonic(KeyEvent.VK_I);
+		binaryFormat.setMnemonic(KeyEvent.VK_M);
+		binaryFormat.setToolTipText("Export a compressed binary backup instead of SQL statements. "
+				+ "Imports detect the format automatically.");
 		optionsPane.setBorder(BorderFactory.createTitledBorder("Options"));
 		overwriteDatabase.setEnabled(false);
 		exportDatabase.setSelected(true);
@@ -166,6 +170,7 @@ public class InventoryDBManagementFrame extends JDialog {
 		optionsPane.add(exportDatabase);
 		optionsPane.add(importDatabase);
 		optionsPane.add(overwriteDatabase);
+		optionsPane.add(binaryFormat);
 		
 		buttonPane.add(executeAction);
 		buttonPane.add(close);
@@ -182,6 +187,7 @@ public class InventoryDBManagementFrame extends JDialog {
 			@Override
 			public void stateChanged(ChangeEvent e) {
 				overwriteDatabase.setEnabled(importDatabase.isSelected());
+				binaryFormat.setEnabled(!importDatabase.isSelected());
 				if (importDatabase.isSelected())
 					executeAction.setText("Import");
 				else
@@ -251,6 +257,7 @@ public class InventoryDBManagementFrame extends JDialog {
 		} else {
 			overwriteDatabase.setEnabled(enabled);
 		}
+		binaryFormat.setEnabled(enabled && exportDatabase.isSelected());
 		executeAction.setEnabled(enabled);
 		close.setEnabled(enabled);
 	}
@@ -289,10 +296,14 @@ public class InventoryDBManagementFrame extends JDialog {
 				File defaultLocation = new File(System.getProperty("user.home"));
 				FileSelector fileSelector = new FileSelector();
 				FileNameExtensionFilter sqlFilter = new FileNameExtensionFilter("SQL Database Files", "sql");
+				FileNameExtensionFilter binaryFilter = new FileNameExtensionFilter("Binary Database Backups", 
+						BINARY_BACKUP_EXTENSION);
 				
 				fileSelector.setFileSelectionMode(JFileChooser.FILES_ONLY);
 				fileSelector.addChoosableFileFilter(sqlFilter);
-				fileSelector.setFileFilter(sqlFilter);
+				fileSelector.addChoosableFileFilter(binaryFilter);
+				fileSelector.setFileFilter((exportDatabase.isSelected() && binaryFormat.isSelected()) 
+						? binaryFilter : sqlFilter);
 				fileSelector.setMultiSelectionEnabled(false);
 				fileSelector.setCurrentDirectory( (lastDirectoryBrowsed != null) ? lastDirectoryBrowsed : defaultLocation );
 				
@@ -331,8 +342,8 @@ public class InventoryDBManagementFrame extends JDialog {
 	}
 	
 	/**
-	 * Performs database export to SQL file
-	 * @param exportFile A file to save the database SQL statements to
+	 * Performs database export to an SQL or binary backup file
+	 * @param exportFile A file to save the database backup to
 	 * @return true if successful, false otherwise
 	 */
 	private void exportDatabase(File exportFile) {
@@ -341,7 +352,7 @@ public class InventoryDBManagementFrame extends JDialog {
 		setEnableControls(false);
 		setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
 		
-		ExportRunner exporter = new ExportRunner(exportFile, progressBar, this);
+		ExportRunner exporter = new ExportRunner(exportFile, binaryFormat.isSelected(), progressBar, this);
 		Thread exportRunner = new Thread(exporter);
 		exportRunner.start();
 		// TODO: REMOVE
@@ -584,8 +595,8 @@ public class InventoryDBManagementFrame extends JDialog {
 	 */
 	@SuppressWarnings("unused")
 	private class ImportRunner implements Runnable {
-		private Integer totalOperations = 0;
-		private Integer currentOperation = 0; 
+		private long totalOperations = 0;	// bytes
+		private long currentOperation = 0; 	// bytes
 		private boolean dropTables; 
 		private File importFile;		
 		private JProgressBar progressBar; 		
@@ -652,21 +663,21 @@ public class InventoryDBManagementFrame extends JDialog {
 		}
 		
 		/**
-		 * The total number of operations required to complete
+		 * The total number of bytes to import within
 		 * this execution. 
-		 * @return The total number of operations to complete execution
+		 * @return The total number of bytes to import
 		 */
-		public Integer getTotalOperations() {
+		public long getTotalOperations() {
 			return totalOperations;
 		}
 		
 		/**
-		 * Returns the current operation number completed
+		 * Returns the number of bytes imported
 		 * so far. 
 		 * 
-		 * @return An Integer representing the current operation completed. 
+		 * @return The number of bytes of the import file consumed. 
 		 */
-		public Integer getCurrentOperation() {
+		public long getCurrentOperation() {
 			return currentOperation;
 		}
 		
@@ -687,82 +698,50 @@ public class InventoryDBManagementFrame extends JDialog {
 				}
 			}
 
-			// Import data
+			// Import data in transactions, reporting progress by bytes read
 			if (!dropTablesFailed) {
-				try (FileReader fileReader = new FileReader(importFile);
-					 BufferedReader dataReader = new BufferedReader(fileReader)) {
-					
-					// Intaialization metadata about import
-					totalOperations = countImportFileLines(importFile) * 2;
-
-					
-					// Read the data and import it into the database
-					// incrementing the number of completed operations between each stage
-					try (Connection dbConnection = SQLiteDBManager.getManager().getConnection(false)) {
-						String sqlStatement = null;
-						try {
-							 sqlStatement = dataReader.readLine();
-						} catch (IOException exception) {
-							importFileReadErrorOccured = true;
-							exceptionCaught = exception;
-						}
-						
-						while (sqlStatement != null) {
-							currentOperation++;
-							updateProgressBar();
-							
-							if (sqlStatement.trim().length() > 0) {
-								SQLiteDBManager.getManager().executeRawStatement(dbConnection, 
-										sqlStatement);
-							}
-							currentOperation++;
+				DatabaseImporter importer = null;
+				try {
+					importer = new DatabaseImporter(SQLiteDBManager.getManager());
+				} catch (IOException exception) {
+					databaseErrorOccured = true;
+					exceptionCaught = exception;
+				}
+				
+				if (importer != null) {
+					importer.setProgressListener(new ProgressListener() {
+						/**
+						 * Updates the progress bar as the import file is consumed
+						 */
+						@Override
+						public void progressUpdated(long completed, long total) {
+							totalOperations = total;
+							currentOperation = completed;
 							updateProgressBar();
-							
-							try {
-								 sqlStatement = dataReader.readLine();
-							} catch (IOException exception) {
-								importFileReadErrorOccured = true;
-								exceptionCaught = exception;
-								break; 
-							}
-						}						
-					} catch (SQLException | IOException exception) {
+						}
+					});
+					
+					try {
+						importer.importFile(importFile);
+					} catch (SQLException exception) {
 						databaseErrorOccured = true;
 						exceptionCaught = exception;
+					} catch (IOException exception) {
+						importFileReadErrorOccured = true;
+						exceptionCaught = exception;
 					}
-				} catch (IOException exception) {
-					importFileReadErrorOccured = true;
-					exceptionCaught = exception;
-				}										
+				}
 			}
 			
 			owner.importCompleted(this);
 		}
 		
-		/**
-		 * Counts the total number of lines within an import file (to be 
-		 * used for the progress bar import progress)
-		 * 
-		 * @param importFile A file containing lines of SQL statements
-		 * @return Total number of lines in a file
-		 * @throws IOException If an error occurs while reading the importFile
-		 */
-		private int countImportFileLines(File importFile) throws IOException {
-			int lineCount = 0;
-			try (FileReader fileReader = new FileReader(importFile);
-				 BufferedReader dataReader = new BufferedReader(fileReader)) {
-				while (dataReader.readLine() != null) lineCount++;			
-			}
-			
-			return lineCount;
-		}
-		
 		/**
 		 * Updates a progress bar including the text to display on it.  
 		 */
 		private void updateProgressBar() {
-			int completed = (int) (((float)currentOperation) / ((float)totalOperations) * 100.0F);
-			String progressStatusMessage = String.format("%d of %d (%d%%) import operations completed", currentOperation / 2, totalOperations / 2, completed);
+			int completed = (totalOperations == 0) ? 100 : (int) (((float)currentOperation) / ((float)totalOperations) * 100.0F);
+			String progressStatusMessage = String.format("%d of %d KB (%d%%) imported", currentOperation / 1024, totalOperations / 1024, completed);
 			progressBar.setValue(completed);
 			progressBar.setString(progressStatusMessage);
 			progressBar.setVisible(true);
@@ -779,9 +758,11 @@ public class InventoryDBManagementFrame extends JDialog {
 	 */
 	@SuppressWarnings("unused")
 	private class ExportRunner implements Runnable {
+		private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
 		private Integer totalOperations = 0;
 		private Integer currentOperation = 0;  
 		private File exportFile;		
+		private boolean binaryFormat;
 		private JProgressBar progressBar; 		 
 		private boolean databaseErrorOccured = false; 
 		private boolean exportFileReadErrorOccured = false; 
@@ -792,11 +773,14 @@ public class InventoryDBManagementFrame extends JDialog {
 		 * Configures a new database export runner
 		 * 
 		 * @param exportFile A File to export SQL statements to
+		 * @param binaryFormat If true a compressed binary backup is written instead of SQL statements
 		 * @param progressBar A progress bar to update with the status
 		 * @param owner An owner with the exportCompleted function
 		 */
-		public ExportRunner(File exportFile, JProgressBar progressBar, InventoryDBManagementFrame owner) {			
+		public ExportRunner(File exportFile, boolean binaryFormat, JProgressBar progressBar, 
+				InventoryDBManagementFrame owner) {			
 			this.exportFile = exportFile;
+			this.binaryFormat = binaryFormat;
 			this.progressBar = progressBar;
 			this.owner = owner;
 		}
@@ -855,27 +839,40 @@ public class InventoryDBManagementFrame extends JDialog {
 		 */
 		@Override
 		public void run() {
-			// Generate SQL import statements for backup
-			ArrayList<String> exportStatements = null;
+			// Stream SQL import statements for backup straight to the file
+			SQLiteDBManager databaseManager = null;
 			try {
-				exportStatements = SQLiteDBManager.getManager().exportDatabase();
-				totalOperations = exportStatements.size() * 2;
-				currentOperation = exportStatements.size();
-				updateProgressBar();
-			} catch (SQLException | IOException exception) { 
+				databaseManager = SQLiteDBManager.getManager();
+			} catch (IOException exception) { 
 				databaseErrorOccured = true; 
 				exceptionCaught = exception;
 			} 
 			
-			// Write data to file
-			if (exportStatements != null) {
-				try (FileWriter fileWriter = new FileWriter(exportFile);
-					 BufferedWriter backupWriter = new BufferedWriter(fileWriter)){
-					for (String sqlStatement : exportStatements) {							
-						backupWriter.write(sqlStatement + "\n");
-						currentOperation++;
-						updateProgressBar();						
+			if (databaseManager != null) {
+				ProgressListener progressListener = new ProgressListener() {
+					/**
+					 * Updates the progress bar as records are written
+					 */
+					@Override
+					public void progressUpdated(long completed, long total) {
+						totalOperations = (int) total;
+						currentOperation = (int) completed;
+						updateProgressBar();
 					}
+				};
+				
+				try {
+					if (binaryFormat) {
+						databaseManager.exportBinaryDatabase(exportFile, true, progressListener);
+					} else {
+						try (FileWriter fileWriter = new FileWriter(exportFile);
+							 BufferedWriter backupWriter = new BufferedWriter(fileWriter, EXPORT_BUFFER_SIZE)) {
+							databaseManager.exportDatabase(backupWriter, progressListener);
+						}
+					}
+				} catch (SQLException exception) { 
+					databaseErrorOccured = true; 
+					exceptionCaught = exception;
 				} catch (IOException exception) {
 					exportFileReadErrorOccured = true; 
 					exceptionCaught = exception;					
@@ -889,8 +886,8 @@ public class InventoryDBManagementFrame extends JDialog {
 		 * Updates a progress bar including the text to display on it. 
 		 */
 		private void updateProgressBar() {
-			int completed = (int) (((float)currentOperation) / ((float)totalOperations) * 100.0F);
-			String progressStatusMessage = String.format("%d of %d (%d%%) export operations completed", currentOperation, totalOperations, completed);
+			int completed = (totalOperations == 0) ? 100 : (int) (((float)currentOperation) / ((float)totalOperations) * 100.0F);
+			String progressStatusMessage = String.format("%d of %d (%d%%) records exported", currentOperation, totalOperations, completed);
 			progressBar.setValue(completed);
 			progressBar.setString(progressStatusMessage);
 			progressBar.setVisible(true);
@@ -33,6 +33,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JFrame;
@@ -44,6 +48,12 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.RowSorterListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableRowSorter;
 import javax.swing.RowFilter;
@@ -51,6 +61,8 @@ import javax.swing.RowFilter;
 import com.ryorke.database.AccessoryEntityManager;
 import com.ryorke.database.ConsoleEntityManager;
 import com.ryorke.database.GameEntityManager;
+import com.ryorke.database.InventoryEntityManager;
+import com.ryorke.database.Page;
 import com.ryorke.entity.Accessory;
 import com.ryorke.entity.Console;
 import com.ryorke.entity.Game;
@@ -74,9 +86,11 @@ import javax.swing.JLabel;
 @SuppressWarnings("serial")
 public class InventoryManagementFrame extends JFrame {
 	public final static String WINDOW_TITLE = "Inventory Manager";
+	// Larger inventories are read in windows as the table scrolls instead of held in memory
+	public final static int PAGED_INVENTORY_THRESHOLD = 100000;
 	private User authenticatedUser = null;
 	private boolean promptOnClose = true; 
-	private InventoryTableModel inventoryTableModel = null; 
+	private InventoryModel inventoryTableModel = null; 
 
 	private JTextField filterInventoryQuery;
 	private JButton filter;
@@ -85,6 +99,7 @@ public class InventoryManagementFrame extends JFrame {
 	private JButton editInventoryItem;
 	private JButton deleteInventoryItem;
 	private JTable inventoryTable; 
+	private JLabel inventoryStatus;
 	
 	/**
 	 * Creates a new inventory management window with a default
@@ -119,7 +134,10 @@ public class InventoryManagementFrame extends JFrame {
 	    contentPane.add(filterControls, BorderLayout.NORTH);
 	    
 	    JPanel inventoryButtons = createInventoryButtons();
-	    contentPane.add(inventoryButtons, BorderLayout.SOUTH);
+	    JPanel statusBar = new JPanel(new BorderLayout());
+	    statusBar.add(inventoryStatus, BorderLayout.WEST);
+	    statusBar.add(inventoryButtons, BorderLayout.CENTER);
+	    contentPane.add(statusBar, BorderLayout.SOUTH);
 	    
 		setSize(new Dimension(800, 600));
 		setLocationRelativeTo(null);
@@ -195,12 +213,14 @@ public class InventoryManagementFrame extends JFrame {
 			public void windowDeactivated(WindowEvent e) {}
 			
 			/**
-			 * Not implemented
+			 * Stops loading the inventory once the window is disposed
 			 * 
 			 * @param e Window event information
 			 */
 			@Override
-			public void windowClosed(WindowEvent e) {}
+			public void windowClosed(WindowEvent e) {
+				inventoryTableModel.stopLoading();
+			}
 			
 			/**
 			 * Not implemented
@@ -224,7 +244,11 @@ public class InventoryManagementFrame extends JFrame {
 			editor.setVisible(true);
 			
 			if (editor.wasSaved()) {
-				inventoryTableModel.addRow(newItem);
+				try {
+					inventoryTableModel.addRow(newItem);
+				} catch (SQLException exception) {
+					showInventoryReadError(exception);
+				}
 			}
 		}
 	}
@@ -237,11 +261,15 @@ public class InventoryManagementFrame extends JFrame {
 		int selectedRow = inventoryTable.getSelectedRow();		
 		selectedRow = inventoryTable.convertRowIndexToModel(selectedRow);
 		if (selectedRow > -1) {
-			ItemEditorDialog editor = new ItemEditorDialog(InventoryManagementFrame.this, inventoryTableModel.getRow(selectedRow));
-			editor.setVisible(true);
-			
-			if (editor.wasSaved()) {
-				inventoryTableModel.fireTableRowsUpdated(selectedRow, selectedRow);
+			try {
+				ItemEditorDialog editor = new ItemEditorDialog(InventoryManagementFrame.this, inventoryTableModel.getRow(selectedRow));
+				editor.setVisible(true);
+				
+				if (editor.wasSaved()) {
+					inventoryTableModel.rowUpdated(selectedRow);
+				}
+			} catch (SQLException | ParseException exception) {
+				showInventoryReadError(exception);
 			}
 		} else {
 			JOptionPane.showMessageDialog(this, "No item selected to be edited. Select an item and try again.", 
@@ -249,6 +277,50 @@ public class InventoryManagementFrame extends JFrame {
 		}
 	}
 	
+	/**
+	 * Displays the number of items shown, the number in the inventory and
+	 * whether the inventory is still being loaded
+	 */
+	private void updateInventoryStatus() {
+		NumberFormat countFormatter = NumberFormat.getIntegerInstance();
+		int itemCount = inventoryTableModel.getRowCount();
+		int shownCount = inventoryTable.getRowCount();
+		String status = (shownCount != itemCount) 
+				? String.format("Showing %s of %s items", countFormatter.format(shownCount), countFormatter.format(itemCount))
+				: String.format("%s items", countFormatter.format(itemCount));
+		
+		inventoryStatus.setText((inventoryTableModel.isLoading()) ? "Loading inventory... " + status : status);
+	}
+	
+	/**
+	 * Displays an error and closes the application as the inventory could
+	 * not be loaded
+	 * 
+	 * @param exception The error that occurred
+	 */
+	private void inventoryLoadFailed(Throwable exception) {
+		String errorMessage = String.format("An error occured while attempting to load "
+				+ "the inventory from the database.\nThe application will now close.\nContact your system "
+				+ "administrator if the problem persists.\nReason:\n%s", exception.getMessage());
+		String errorTitle = "Unable to load inventory";
+		int windowOptions = JOptionPane.OK_OPTION | JOptionPane.ERROR_MESSAGE;
+		JOptionPane.showMessageDialog(this, errorMessage, errorTitle, windowOptions);
+		exception.printStackTrace();
+		System.exit(1);
+	}
+	
+	/**
+	 * Reports that the inventory could not be read from the database
+	 * 
+	 * @param exception The error that occurred
+	 */
+	private void showInventoryReadError(Exception exception) {
+		String errorMessage = String.format("Unable to read the inventory from the database.\n\nReason:\n%s", 
+				exception.getMessage());
+		JOptionPane.showMessageDialog(this, errorMessage, "Inventory error", 
+				JOptionPane.OK_OPTION | JOptionPane.ERROR_MESSAGE);
+	}
+	
 	/**
 	 * Promotes user for an item type to be created and generates a new default item of that type. 
 	 * 
@@ -273,29 +345,52 @@ public class InventoryManagementFrame extends JFrame {
 	}
 	
 	/**
-	 * Creates a scrollable inventory table. If an error occurs while attempting
-	 * to load the inventory into the table, the application will display an error 
-	 * and exit. 
+	 * Creates a scrollable inventory table. Inventories larger than 
+	 * PAGED_INVENTORY_THRESHOLD items are read in windows as the table scrolls.
+	 * If an error occurs while attempting to load the inventory into the table, 
+	 * the application will display an error and exit. 
 	 * 
 	 * @return Configured inventory table
 	 */
 	private JScrollPane createInventoryTable() {
 		try {
-			inventoryTableModel = new InventoryTableModel();
-		} catch (SQLException | IOException | ParseException exception) {
-			String errorMessage = String.format("An error occured while attempting to load "
-					+ "the inventory from the database.\nThe application will now close.\nContact your system "
-					+ "administrator if the problem persists.\nReason:\n%s", exception.getMessage());
-			String errorTitle = "Unable to load inventory";
-			int windowOptions = JOptionPane.OK_OPTION | JOptionPane.ERROR_MESSAGE;
-			JOptionPane.showMessageDialog(this, errorMessage, errorTitle, windowOptions);
-			exception.printStackTrace();
-			System.exit(1);
+			if (InventoryEntityManager.getManager().getInventoryCount(null) > PAGED_INVENTORY_THRESHOLD)
+				inventoryTableModel = new PagedInventoryTableModel();
+			else
+				inventoryTableModel = new InventoryTableModel();
+		} catch (SQLException | IOException exception) {
+			inventoryLoadFailed(exception);
 		}
 		
 		inventoryTable = new JTable(inventoryTableModel);		
 		inventoryTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		inventoryTable.setRowSorter(inventoryTableModel.getTableSorter());
+		
+		// The counts are read once the table has processed the change
+		inventoryStatus = new JLabel();
+		inventoryStatus.setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 10));
+		final Runnable statusUpdate = new Runnable() {
+			@Override
+			public void run() {
+				Exception readError = inventoryTableModel.pollReadError();
+				if (readError != null)
+					showInventoryReadError(readError);
+				updateInventoryStatus();
+			}
+		};
+		inventoryTableModel.addTableModelListener(new TableModelListener() {
+			@Override
+			public void tableChanged(TableModelEvent e) {
+				SwingUtilities.invokeLater(statusUpdate);
+			}
+		});
+		inventoryTable.getRowSorter().addRowSorterListener(new RowSorterListener() {
+			@Override
+			public void sorterChanged(RowSorterEvent e) {
+				SwingUtilities.invokeLater(statusUpdate);
+			}
+		});
+		updateInventoryStatus();
 		inventoryTable.addMouseListener(new MouseListener() {
 
 			/**
@@ -497,7 +592,11 @@ public class InventoryManagementFrame extends JFrame {
 		filterClear.addActionListener(new ActionListener() {			
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				inventoryTableModel.getTableSorter().setRowFilter(null);				
+				try {
+					inventoryTableModel.setFilter(null);
+				} catch (SQLException exception) {
+					showInventoryReadError(exception);
+				}
 			}
 		});
 		
@@ -516,23 +615,21 @@ public class InventoryManagementFrame extends JFrame {
 	}
 	
 	/**
-	 * Filters the table by applying applying the regex against
-	 * the item name and/or description columns. 
+	 * Filters the table by applying the filter against the item name 
+	 * and/or description columns (a regex for an inventory held in memory, 
+	 * text to find for a paged inventory). 
 	 */
 	private void applyFilter() {
 		String filterExpression = filterInventoryQuery.getText();
 		
 		if (filterExpression.length() > 0) {
-			TableRowSorter<InventoryTableModel> sorter = inventoryTableModel.getTableSorter();
-			 
-			
 			try {
-				RowFilter<InventoryTableModel, Integer> appliedFilter = RowFilter.regexFilter(filterExpression, 
-					InventoryTableModel.ITEM_DESCRIPTION, InventoryTableModel.ITEM_NAME);
-				sorter.setRowFilter(appliedFilter);
+				inventoryTableModel.setFilter(filterExpression);
 			} catch (PatternSyntaxException syntaxError) {
 				JOptionPane.showMessageDialog(InventoryManagementFrame.this, "Invalid filter provided", "Filter error", 
 						JOptionPane.OK_OPTION | JOptionPane.ERROR_MESSAGE);
+			} catch (SQLException exception) {
+				showInventoryReadError(exception);
 			}
 		} else {
 			JOptionPane.showMessageDialog(InventoryManagementFrame.this, "No filter provide.", "Invalid filter",
@@ -613,7 +710,12 @@ public class InventoryManagementFrame extends JFrame {
 		Item selectedItem; 
 		
 		if (selectedItemIndex >= 0) {
-			selectedItem = inventoryTableModel.getRow(selectedItemIndex);
+			try {
+				selectedItem = inventoryTableModel.getRow(selectedItemIndex);
+			} catch (SQLException | ParseException exception) {
+				showInventoryReadError(exception);
+				return;
+			}
 			message = String.format("About to delete \"%s\" item. Are you sure?", selectedItem.getProductName());
 			title = "Delete item?";
 			options = JOptionPane.YES_NO_OPTION;
@@ -634,7 +736,7 @@ public class InventoryManagementFrame extends JFrame {
 					if (performDelete) {
 						inventoryTableModel.deleteRow(selectedItemIndex);
 					}
-				} catch (SQLException | IOException | ParseException exception) {
+				} catch (SQLException | IOException exception) {
 					String errorMessage = String.format("Unable to delete selected item. Ensure that no items refer to this item before attempting to delete it.\n\nReason:\n%s", exception.getMessage());
 					JOptionPane.showMessageDialog(this, errorMessage, "Item deletion failed", 
 							JOptionPane.OK_OPTION | JOptionPane.ERROR_MESSAGE);
@@ -658,28 +760,11 @@ public class InventoryManagementFrame extends JFrame {
 	 * @return True if game is included as part of a console, false otherwise
 	 * @throws SQLException If a database error occurs
 	 * @throws IOException If database cannot access the database file
-	 * @throws ParseException If an error occurs in parsing data from the database
 	 */
-	private boolean gameIncludedWithConsole(Game game) throws SQLException, IOException, ParseException {
-		boolean gameReferencedByConsole = false;
-
+	private boolean gameIncludedWithConsole(Game game) throws SQLException, IOException {
 		ConsoleEntityManager consoleManager = ConsoleEntityManager.getManager();
-		ArrayList<Console> consoles = consoleManager.getConsoles();
-		for (Console console : consoles) {
-			if (console.getIncludedGameId() != null) {
-				for (int includedGameId : console.getIncludedGameId()) {
-					if (includedGameId == game.getItemNumber()) {
-						gameReferencedByConsole = true;
-						break;
-					}
-				}
-			}
-				
-			if (gameReferencedByConsole)
-				break;
-		}
 		
-		return gameReferencedByConsole; 
+		return consoleManager.isIncludedGame(game.getItemNumber()); 
 	}
 	
 	/**
@@ -707,10 +792,16 @@ public class InventoryManagementFrame extends JFrame {
 	 * Manages the inventory dispalyed in a JTable including pulling in the data
 	 * from a database, added to a database, and deletes items. 
 	 * 
+	 * Consoles, accessories and games are loaded by three background workers,
+	 * each reading its own LOAD_CHUNK_SIZE item pages on a separate read 
+	 * connection. Each page is published to the event dispatch thread where the
+	 * chunks published since the last update are appended with a single rows
+	 * inserted event, so the table can be used while the loading continues.
+	 * 
 	 * @author Russell Yorke
-	 *
+	 * 
 	 */
-	class InventoryTableModel extends AbstractTableModel {
+	class InventoryTableModel extends AbstractTableModel implements InventoryModel {
 		/**
 		 * Field identifiers for columns within the table
 		 */
@@ -723,8 +814,14 @@ public class InventoryManagementFrame extends JFrame {
 		private final static int ITEM_MANUFACTURE = 6;
 		private final static int ITEM_RELEASSE_DATE = 7;
 		
+		private final static int LOAD_CHUNK_SIZE = 500;
+		
 		private String[] header = { "Item Number", "Name", "Description", "Type", "Units in Stock", "Unit Cost", "Manufacture", "Release Date" };
 		private ArrayList<Item> inventoriedItems = new ArrayList<Item>();
+		// Ids of every item added to the model so a loader never adds an item twice
+		private HashSet<Integer> inventoriedItemIds = new HashSet<Integer>();
+		private ArrayList<InventoryLoader> loaders = new ArrayList<InventoryLoader>();
+		private int runningLoaders = 0;
 		
 		private ConsoleEntityManager consoleManager;
 		private AccessoryEntityManager accessoryManager;
@@ -733,31 +830,86 @@ public class InventoryManagementFrame extends JFrame {
 		private TableRowSorter<InventoryTableModel> tableSorter;
 		
 		/**
-		 * Populates the table inventory from the database
+		 * Starts populating the table inventory from the database in the background
 		 * 
 		 * @throws IOException If database file cannot be accessed
 		 * @throws SQLException If a database error occurred
-		 * @throws ParseException If the database contains an invalid date format item
 		 */
-		public InventoryTableModel() throws IOException, SQLException, ParseException {
+		public InventoryTableModel() throws IOException, SQLException {
 			consoleManager = ConsoleEntityManager.getManager();
 			accessoryManager = AccessoryEntityManager.getManager();
 			gameManager = GameEntityManager.getManager();
 			
-			ArrayList<Console> consoles = consoleManager.getConsoles();
-			if (consoles != null)
-				inventoriedItems.addAll(consoles);
+			// Attach table sorter
+			setupTableSorter();
 			
-			ArrayList<Accessory> accessories = accessoryManager.getAccessories();
-			if (accessories != null)
-				inventoriedItems.addAll(accessories);
+			loaders.add(new InventoryLoader() {
+				@Override
+				protected Page<? extends Item> readPage(String continuationToken) throws SQLException, ParseException {
+					return consoleManager.getConsoles(Page.SortKey.ID, continuationToken, LOAD_CHUNK_SIZE);
+				}
+			});
+			loaders.add(new InventoryLoader() {
+				@Override
+				protected Page<? extends Item> readPage(String continuationToken) throws SQLException, ParseException {
+					return accessoryManager.getAccessories(Page.SortKey.ID, continuationToken, LOAD_CHUNK_SIZE);
+				}
+			});
+			loaders.add(new InventoryLoader() {
+				@Override
+				protected Page<? extends Item> readPage(String continuationToken) throws SQLException, ParseException {
+					return gameManager.getGames(Page.SortKey.ID, continuationToken, LOAD_CHUNK_SIZE);
+				}
+			});
 			
-			ArrayList<Game> games = gameManager.getGames();
-			if (games != null)
-				inventoriedItems.addAll(games);
+			// Chunks are only processed on the event dispatch thread so none are
+			// added before the constructor returns
+			for (InventoryLoader loader : loaders) {
+				runningLoaders++;
+				loader.execute();
+			}
+		}
+		
+		/**
+		 * @return True while any loader is still reading items
+		 */
+		@Override
+		public boolean isLoading() {
+			return runningLoaders > 0;
+		}
+		
+		/**
+		 * Cancels the loaders still reading items
+		 */
+		@Override
+		public void stopLoading() {
+			for (InventoryLoader loader : loaders) {
+				loader.cancel(false);
+			}
+		}
+		
+		/**
+		 * @return Null as a failed load closes the application (see inventoryLoadFailed)
+		 */
+		@Override
+		public Exception pollReadError() {
+			return null;
+		}
+		
+		/**
+		 * Appends a chunk of loaded items to the table
+		 * 
+		 * @param items The items published since the last chunk
+		 */
+		private void addLoadedItems(List<Item> items) {
+			int firstRow = inventoriedItems.size();
+			for (Item item : items) {
+				if (inventoriedItemIds.add(item.getItemNumber()))
+					inventoriedItems.add(item);
+			}
 			
-			// Attach table sorter
-			setupTableSorter();
+			if (inventoriedItems.size() > firstRow)
+				fireTableRowsInserted(firstRow, inventoriedItems.size() - 1);
 		}
 		
 		/**
@@ -804,16 +956,35 @@ public class InventoryManagementFrame extends JFrame {
 		 * 
 		 * @return A table sorter
 		 */
+		@Override
 		public TableRowSorter<InventoryTableModel> getTableSorter() {
 			return tableSorter;
 		}
 		
+		/**
+		 * Filters the table by applying a regex against the item name 
+		 * and description columns
+		 * 
+		 * @param filterExpression The regex or null to show every item
+		 * @throws PatternSyntaxException If the regex is invalid
+		 */
+		@Override
+		public void setFilter(String filterExpression) throws PatternSyntaxException {
+			if (filterExpression != null)
+				tableSorter.setRowFilter(RowFilter.<InventoryTableModel, Integer>regexFilter(filterExpression, 
+						ITEM_DESCRIPTION, ITEM_NAME));
+			else
+				tableSorter.setRowFilter(null);
+		}
+		
 		/**
 		 * Inserts a new record and updates the table
 		 * 
 		 * @param item New item to insert
 		 */
+		@Override
 		public void addRow(Item item) {
+			inventoriedItemIds.add(item.getItemNumber());
 			inventoriedItems.add(item);
 			int rowInsertedAt = inventoriedItems.size() - 1;
 			fireTableRowsInserted(rowInsertedAt, rowInsertedAt);
@@ -826,6 +997,7 @@ public class InventoryManagementFrame extends JFrame {
 		 * @throws IndexOutOfBoundsException If rowIndex is invalid
 		 * @throws SQLException If a database error occurs.
 		 */
+		@Override
 		public void deleteRow(int rowIndex) throws IndexOutOfBoundsException, SQLException {
 			Item selectedItem = inventoriedItems.get(rowIndex);
 						
@@ -838,9 +1010,20 @@ public class InventoryManagementFrame extends JFrame {
 			}
 			
 			inventoriedItems.remove(selectedItem);
+			inventoriedItemIds.remove(selectedItem.getItemNumber());
 			fireTableRowsDeleted(rowIndex, rowIndex);			
 		}
 		
+		/**
+		 * Repaints the row of a saved item
+		 * 
+		 * @param rowIndex The row of the saved item
+		 */
+		@Override
+		public void rowUpdated(int rowIndex) {
+			fireTableRowsUpdated(rowIndex, rowIndex);
+		}
+		
 		
 		/**
 		 * Gets the Item object at the requested row
@@ -848,6 +1031,7 @@ public class InventoryManagementFrame extends JFrame {
 		 * @return an item
 		 * @throws IndexOutOfBoundsException if rowIndex is invalid
 		 */
+		@Override
 		public Item getRow(int rowIndex) throws IndexOutOfBoundsException {
 			Item selectedItem = inventoriedItems.get(rowIndex);
 			return selectedItem;
@@ -959,5 +1143,73 @@ public class InventoryManagementFrame extends JFrame {
 			return result;
 		}
 		
+		/**
+		 * Reads one item type page by page in the background publishing each
+		 * page to the table
+		 * 
+		 * @author Russell Yorke
+		 */
+		private abstract class InventoryLoader extends SwingWorker<Void, Item> {
+			/**
+			 * Reads a page of items
+			 * 
+			 * @param continuationToken The token of the previous page or null for the first page
+			 * @return The page of items
+			 * @throws SQLException If a database error occurs
+			 * @throws ParseException If the database contains an invalid date format item
+			 */
+			protected abstract Page<? extends Item> readPage(String continuationToken) 
+					throws SQLException, ParseException;
+			
+			/**
+			 * Reads every page until the last one or until cancelled
+			 * 
+			 * @return Nothing
+			 * @throws SQLException If a database error occurs
+			 * @throws ParseException If the database contains an invalid date format item
+			 */
+			@Override
+			protected Void doInBackground() throws SQLException, ParseException {
+				String continuationToken = null;
+				do {
+					Page<? extends Item> page = readPage(continuationToken);
+					if (page.getRows() != null)
+						publish(page.getRows().toArray(new Item[page.getRows().size()]));
+					
+					continuationToken = page.getContinuationToken();
+				} while (continuationToken != null && !isCancelled());
+				
+				return null;
+			}
+			
+			/**
+			 * Adds the pages published since the last call to the table
+			 * 
+			 * @param items The items published
+			 */
+			@Override
+			protected void process(List<Item> items) {
+				if (!isCancelled())
+					addLoadedItems(items);
+			}
+			
+			/**
+			 * Reports a failed load and updates the loading status
+			 */
+			@Override
+			protected void done() {
+				runningLoaders--;
+				try {
+					get();
+				} catch (CancellationException | InterruptedException exception) {
+					// The window is closing
+				} catch (ExecutionException exception) {
+					stopLoading();
+					inventoryLoadFailed(exception.getCause());
+				}
+				
+				updateInventoryStatus();
+			}
+		}
 	}
 }
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke;
+
+import java.sql.SQLException;
+import java.text.ParseException;
+
+import javax.swing.RowSorter;
+import javax.swing.table.TableModel;
+
+import com.ryorke.entity.Item;
+
+/**
+ * The operations the inventory window performs on its table model. The
+ * inventory is either held in memory (InventoryManagementFrame.InventoryTableModel)
+ * or read from the database in windows as the table scrolls
+ * (PagedInventoryTableModel).
+ * 
+ * @author Russell Yorke
+ */
+interface InventoryModel extends TableModel {
+	/**
+	 * Gets the fully loaded Item object at the requested row
+	 * 
+	 * @param rowIndex The item index to retrieve
+	 * @return an item
+	 * @throws IndexOutOfBoundsException if rowIndex is invalid
+	 * @throws SQLException If the item must be read and a database error occurs
+	 * @throws ParseException If the item must be read and contains an invalid date
+	 */
+	public Item getRow(int rowIndex) throws IndexOutOfBoundsException, SQLException, ParseException;
+
+	/**
+	 * Inserts an item saved to the database and updates the table
+	 * 
+	 * @param item New item to insert
+	 * @throws SQLException If the table must be reread and a database error occurs
+	 */
+	public void addRow(Item item) throws SQLException;
+
+	/**
+	 * Updates the table after the item at a row was saved
+	 * 
+	 * @param rowIndex The row of the saved item
+	 * @throws SQLException If the table must be reread and a database error occurs
+	 */
+	public void rowUpdated(int rowIndex) throws SQLException;
+
+	/**
+	 * Deletes an item from the inventory model and database
+	 * 
+	 * @param rowIndex The row to delete
+	 * @throws IndexOutOfBoundsException If rowIndex is invalid
+	 * @throws SQLException If a database error occurs.
+	 */
+	public void deleteRow(int rowIndex) throws IndexOutOfBoundsException, SQLException;
+
+	/**
+	 * Limits the table to items whose name or description match a filter
+	 * 
+	 * @param filterExpression The filter or null to show every item
+	 * @throws SQLException If the table must be reread and a database error occurs
+	 */
+	public void setFilter(String filterExpression) throws SQLException;
+
+	/**
+	 * @return True while items are still being read into the model in the background
+	 */
+	public boolean isLoading();
+
+	/**
+	 * Stops reading items in the background as the table is being closed
+	 */
+	public void stopLoading();
+
+	/**
+	 * Returns an error that stopped items being read in the background so it
+	 * can be reported. Each error is only returned once.
+	 * 
+	 * @return The error or null if there is no error to report
+	 */
+	public Exception pollReadError();
+
+	/**
+	 * Returns the table sorter being used on this model
+	 * 
+	 * @return A table sorter
+	 */
+	public RowSorter<? extends TableModel> getTableSorter();
+}
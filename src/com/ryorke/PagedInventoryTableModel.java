@@ -0,0 +1,731 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import com.ryorke.database.AccessoryEntityManager;
+import com.ryorke.database.ConsoleEntityManager;
+import com.ryorke.database.GameEntityManager;
+import com.ryorke.database.InventoryEntityManager;
+import com.ryorke.database.InventoryEntityManager.Column;
+import com.ryorke.database.InventoryEntityManager.SortColumn;
+import com.ryorke.entity.Accessory;
+import com.ryorke.entity.Console;
+import com.ryorke.entity.Game;
+import com.ryorke.entity.Item;
+
+/**
+ * Displays the inventory without holding it in memory. Only the number of
+ * items is read up front; rows are read in windows of WINDOW_SIZE items on a
+ * background thread when the table first paints them and the window after
+ * each one is prefetched. The CACHED_WINDOWS most recently used windows are
+ * kept.
+ * 
+ * Sorting and filtering are performed by the query. A window continues after
+ * the last item of the closest earlier window read by the time its query runs
+ * so scrolling seeks the sort index rather than skipping every row before the
+ * window. Only the indexed columns (see InventoryEntityManager.SortColumn)
+ * can be sorted and the filter matches text within the name or description
+ * ignoring case.
+ * 
+ * Only the QUEUED_WINDOWS most recently requested windows wait to be read;
+ * older requests were scrolled past and are dropped. A window that cannot be
+ * read is shown as unreadable and its error reported once until the
+ * inventory is reread.
+ * 
+ * All state is confined to the event dispatch thread except the queued
+ * requests and the window ends, which the background thread reads under their
+ * locks. It only runs queries and hands the windows back with invokeLater.
+ * 
+ * @author Russell Yorke
+ */
+@SuppressWarnings("serial")
+class PagedInventoryTableModel extends AbstractTableModel implements InventoryModel {
+	public final static int WINDOW_SIZE = 200;
+	public final static int CACHED_WINDOWS = 16;
+	public final static int QUEUED_WINDOWS = 8;
+	private final static String LOADING_TEXT = "Loading...";
+	private final static String UNREADABLE_TEXT = "Unable to read item";
+
+	/**
+	 * Field identifiers for columns within the table
+	 */
+	private final static int ITEM_ID = 0;
+	private final static int ITEM_NAME = 1;
+	private final static int ITEM_DESCRIPTION = 2;
+	private final static int ITEM_TYPE = 3;
+	private final static int ITEM_UNITS_IN_STOCK = 4;
+	private final static int ITEM_UNIT_COST = 5;
+	private final static int ITEM_MANUFACTURE = 6;
+	private final static int ITEM_RELEASE_DATE = 7;
+	// The sort column of each table column (null if the column cannot be sorted)
+	private final static SortColumn[] SORT_COLUMNS = { SortColumn.ITEM_ID, SortColumn.NAME, null, null,
+			SortColumn.UNITS_IN_STOCK, SortColumn.UNIT_COST, null, SortColumn.RELEASE_DATE };
+	private final static EnumSet<Column> DISPLAYED_COLUMNS = EnumSet.of(Column.NAME, Column.DESCRIPTION,
+			Column.MANUFACTURE, Column.RELEASE_DATE, Column.UNIT_COST, Column.UNITS_IN_STOCK);
+
+	private String[] header = { "Item Number", "Name", "Description", "Type", "Units in Stock", "Unit Cost", "Manufacture", "Release Date" };
+
+	private InventoryEntityManager inventoryManager;
+	private ConsoleEntityManager consoleManager;
+	private AccessoryEntityManager accessoryManager;
+	private GameEntityManager gameManager;
+
+	// Loads one window at a time; the thread ends when idle
+	private final ThreadPoolExecutor windowLoader = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread loaderThread = new Thread(task, "Inventory window loader");
+					loaderThread.setDaemon(true);
+					return loaderThread;
+				}
+			});
+	private final LinkedHashMap<Integer, ArrayList<Item>> windows =
+			new LinkedHashMap<Integer, ArrayList<Item>>(CACHED_WINDOWS, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<Item>> eldest) {
+					return size() > CACHED_WINDOWS;
+				}
+			};
+	// The last item of every window read, kept after the window is evicted to seek from
+	private final TreeMap<Integer, Item> windowEnds = new TreeMap<Integer, Item>();
+	// Windows queued or being read, and the queued requests in the order requested
+	private final HashSet<Integer> pendingWindows = new HashSet<Integer>();
+	private final ArrayDeque<WindowRequest> queuedWindows = new ArrayDeque<WindowRequest>();
+	private final HashSet<Integer> failedWindows = new HashSet<Integer>();
+	private Exception readError = null;
+	private boolean readErrorReported = false;
+	private final Runnable readQueuedWindow = new Runnable() {
+		@Override
+		public void run() {
+			readWindow();
+		}
+	};
+	// Incremented whenever the windows read no longer match the order, filter or data
+	private volatile int generation = 0;
+
+	private SortColumn sortColumn = SortColumn.ITEM_ID;
+	private boolean ascending = true;
+	private String filter = null;
+	private int rowCount;
+	private final QuerySorter tableSorter = new QuerySorter();
+
+	private final DecimalFormat decimalFormatter = new DecimalFormat("#,##0");
+	private final NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance();
+	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy/MM/dd");
+
+	/**
+	 * Counts the inventory in the database
+	 * 
+	 * @throws IOException If database file cannot be accessed
+	 * @throws SQLException If a database error occurred
+	 */
+	public PagedInventoryTableModel() throws IOException, SQLException {
+		inventoryManager = InventoryEntityManager.getManager();
+		consoleManager = ConsoleEntityManager.getManager();
+		accessoryManager = AccessoryEntityManager.getManager();
+		gameManager = GameEntityManager.getManager();
+
+		decimalFormatter.setMaximumFractionDigits(0);
+		rowCount = inventoryManager.getInventoryCount(filter);
+	}
+
+	/**
+	 * Discards the windows read and recounts the inventory
+	 * 
+	 * @throws SQLException If a database error occurs
+	 */
+	public void refresh() throws SQLException {
+		rowCount = inventoryManager.getInventoryCount(filter);
+		discardWindows();
+	}
+
+	/**
+	 * Discards the windows read so they are reread as the table paints them
+	 */
+	private void discardWindows() {
+		generation++;
+		windows.clear();
+		synchronized (windowEnds) {
+			windowEnds.clear();
+		}
+		synchronized (queuedWindows) {
+			queuedWindows.clear();
+		}
+		pendingWindows.clear();
+		failedWindows.clear();
+		readError = null;
+		readErrorReported = false;
+		fireTableDataChanged();
+	}
+
+	/**
+	 * Orders the inventory by a sort column
+	 * 
+	 * @param sortColumn The column to order by
+	 * @param ascending True for ascending order, false for descending
+	 */
+	private void setSort(SortColumn sortColumn, boolean ascending) {
+		this.sortColumn = sortColumn;
+		this.ascending = ascending;
+		discardWindows();
+	}
+
+	/**
+	 * Limits the inventory to items whose name or description contain the
+	 * filter text ignoring case
+	 * 
+	 * @param filterExpression The filter text or null to show every item
+	 * @throws SQLException If a database error occurs
+	 */
+	@Override
+	public void setFilter(String filterExpression) throws SQLException {
+		filter = (filterExpression != null && !filterExpression.isEmpty()) ? filterExpression : null;
+		refresh();
+	}
+
+	/**
+	 * Returns the table sorter being used on this model
+	 * 
+	 * @return A table sorter passing the sort order to the query
+	 */
+	@Override
+	public RowSorter<PagedInventoryTableModel> getTableSorter() {
+		return tableSorter;
+	}
+
+	/**
+	 * @return False as windows are only read while they are displayed
+	 */
+	@Override
+	public boolean isLoading() {
+		return false;
+	}
+
+	/**
+	 * Discards the windows waiting to be read and stops the loader thread
+	 */
+	@Override
+	public void stopLoading() {
+		generation++;
+		synchronized (queuedWindows) {
+			queuedWindows.clear();
+		}
+		windowLoader.shutdownNow();
+	}
+
+	/**
+	 * Returns the error of the first window that could not be read since the
+	 * inventory was last read. The error is only returned once.
+	 * 
+	 * @return The error or null if there is no error to report
+	 */
+	@Override
+	public Exception pollReadError() {
+		Exception error = readError;
+		readError = null;
+		return error;
+	}
+
+	/**
+	 * Rereads the inventory as the new item's position depends on the order
+	 * 
+	 * @param item New item to insert
+	 * @throws SQLException If a database error occurs
+	 */
+	@Override
+	public void addRow(Item item) throws SQLException {
+		refresh();
+	}
+
+	/**
+	 * Rereads the inventory as the saved item may have moved
+	 * 
+	 * @param rowIndex The row of the saved item
+	 * @throws SQLException If a database error occurs
+	 */
+	@Override
+	public void rowUpdated(int rowIndex) throws SQLException {
+		refresh();
+	}
+
+	/**
+	 * Deletes an item from the database and rereads the inventory
+	 * 
+	 * @param rowIndex The row to delete
+	 * @throws IndexOutOfBoundsException If rowIndex is invalid
+	 * @throws SQLException If a database error occurs.
+	 */
+	@Override
+	public void deleteRow(int rowIndex) throws IndexOutOfBoundsException, SQLException {
+		Item selectedItem;
+		try {
+			selectedItem = getDisplayedItem(rowIndex);
+		} catch (ParseException exception) {
+			throw new SQLException("Unable to read the item to delete", exception);
+		}
+
+		if (selectedItem instanceof Accessory) {
+			accessoryManager.deleteAccessory((Accessory)selectedItem);
+		} else if (selectedItem instanceof Console) {
+			consoleManager.deleteConsole((Console)selectedItem);
+		} else if (selectedItem instanceof Game) {
+			gameManager.deleteGame((Game)selectedItem);
+		}
+
+		refresh();
+	}
+
+	/**
+	 * Gets the fully loaded Item object at the requested row
+	 * 
+	 * @param rowIndex The item index to retrieve
+	 * @return an item
+	 * @throws IndexOutOfBoundsException if rowIndex is invalid
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If the item contains an invalid date
+	 */
+	@Override
+	public Item getRow(int rowIndex) throws IndexOutOfBoundsException, SQLException, ParseException {
+		Item item = inventoryManager.getItem(getDisplayedItem(rowIndex).getItemNumber());
+		if (item == null)
+			throw new IndexOutOfBoundsException(String.format("The item at row %d no longer exists", rowIndex));
+
+		return item;
+	}
+
+	/**
+	 * Gets the item displayed at a row, reading it directly if its window
+	 * is not cached. The read seeks from the closest earlier window read.
+	 * 
+	 * @param rowIndex The item index to retrieve
+	 * @return An item loaded with the displayed columns
+	 * @throws IndexOutOfBoundsException if rowIndex is invalid
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If the item contains an invalid date
+	 */
+	private Item getDisplayedItem(int rowIndex) throws IndexOutOfBoundsException, SQLException, ParseException {
+		if (rowIndex < 0 || rowIndex >= rowCount)
+			throw new IndexOutOfBoundsException(String.format("Row %d is not within the inventory", rowIndex));
+
+		ArrayList<Item> window = windows.get(rowIndex / WINDOW_SIZE);
+		if (window == null) {
+			window = readRows(rowIndex, 1, sortColumn, ascending, filter);
+			if (window == null)
+				throw new IndexOutOfBoundsException(String.format("The item at row %d no longer exists", rowIndex));
+
+			return window.get(0);
+		}
+
+		return window.get(rowIndex % WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads the items from a row on, continuing after the last item of the
+	 * closest earlier window read
+	 * 
+	 * @param firstRow The row of the first item
+	 * @param limit The maximum number of items to read
+	 * @param sortColumn The column to order by
+	 * @param ascending True for ascending order, false for descending
+	 * @param filter The filter text or null for every item
+	 * @return The items or null if there are no items from the row on
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If an item contains an invalid date
+	 */
+	private ArrayList<Item> readRows(int firstRow, int limit, SortColumn sortColumn, boolean ascending,
+			String filter) throws SQLException, ParseException {
+		Map.Entry<Integer, Item> seekFrom;
+		synchronized (windowEnds) {
+			seekFrom = windowEnds.lowerEntry(firstRow / WINDOW_SIZE);
+		}
+		Item after = (seekFrom != null) ? seekFrom.getValue() : null;
+		int skip = (seekFrom != null) ? firstRow - (seekFrom.getKey() + 1) * WINDOW_SIZE : firstRow;
+
+		return inventoryManager.getInventoryWindow(DISPLAYED_COLUMNS, sortColumn, ascending, filter,
+				after, skip, limit);
+	}
+
+	/**
+	 * Queues a window to be read on the background thread unless it is
+	 * already read, queued or unreadable. The oldest request is dropped once
+	 * more than QUEUED_WINDOWS are waiting.
+	 * 
+	 * @param windowIndex The window to read
+	 * @param prefetch True if the window is read ahead of being displayed
+	 */
+	private void requestWindow(int windowIndex, boolean prefetch) {
+		if (windowLoader.isShutdown() || windowIndex * WINDOW_SIZE >= rowCount || windows.containsKey(windowIndex)
+				|| failedWindows.contains(windowIndex) || pendingWindows.contains(windowIndex))
+			return;
+
+		synchronized (queuedWindows) {
+			// Only read ahead while no displayed window is waiting
+			if (prefetch && !queuedWindows.isEmpty())
+				return;
+
+			queuedWindows.addLast(new WindowRequest(windowIndex, prefetch));
+			// Windows scrolled past before the loader reached them are no longer displayed
+			if (queuedWindows.size() > QUEUED_WINDOWS)
+				pendingWindows.remove(queuedWindows.removeFirst().windowIndex);
+		}
+		pendingWindows.add(windowIndex);
+		windowLoader.execute(readQueuedWindow);
+	}
+
+	/**
+	 * Reads the oldest queued window on the background thread. Each queued
+	 * request runs this once; requests dropped or discarded leave nothing to read.
+	 */
+	private void readWindow() {
+		final WindowRequest request;
+		synchronized (queuedWindows) {
+			request = queuedWindows.pollFirst();
+		}
+		// Windows requested before the order or filter changed are no longer needed
+		if (request == null || request.generation != generation)
+			return;
+
+		ArrayList<Item> window = null;
+		Exception error = null;
+		try {
+			window = readRows(request.windowIndex * WINDOW_SIZE, WINDOW_SIZE, request.sortColumn,
+					request.ascending, request.filter);
+			if (window == null)
+				window = new ArrayList<Item>();
+		} catch (SQLException | ParseException exception) {
+			error = exception;
+		}
+
+		final ArrayList<Item> loadedWindow = window;
+		final Exception loadError = error;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				windowLoaded(request, loadedWindow, loadError);
+			}
+		});
+	}
+
+	/**
+	 * Stores a window read on the background thread and repaints its rows.
+	 * A window that could not be read is marked unreadable so it is not
+	 * read again on every repaint.
+	 * 
+	 * @param request The request of the window read
+	 * @param window The window's items or null if it could not be read
+	 * @param error The error reading the window or null if it was read
+	 */
+	private void windowLoaded(WindowRequest request, ArrayList<Item> window, Exception error) {
+		if (request.generation != generation)
+			return;
+
+		pendingWindows.remove(request.windowIndex);
+		if (window != null) {
+			windows.put(request.windowIndex, window);
+			if (!window.isEmpty()) {
+				synchronized (windowEnds) {
+					windowEnds.put(request.windowIndex, window.get(window.size() - 1));
+				}
+			}
+		} else {
+			failedWindows.add(request.windowIndex);
+			if (!readErrorReported) {
+				readError = error;
+				readErrorReported = true;
+			}
+		}
+
+		int firstRow = request.windowIndex * WINDOW_SIZE;
+		int lastRow = Math.min(firstRow + WINDOW_SIZE, rowCount) - 1;
+		if (firstRow <= lastRow)
+			fireTableRowsUpdated(firstRow, lastRow);
+		if (window != null && !request.prefetch)
+			requestWindow(request.windowIndex + 1, true);
+	}
+
+	/**
+	 * Counts the number of columns available
+	 * @return Column count
+	 */
+	@Override
+	public int getColumnCount() {
+		return header.length;
+	}
+
+	/**
+	 * Counts the total number of rows of data within the inventory
+	 * 
+	 * @return Total number of inventory rows matching the filter
+	 */
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Retrieve a cells values. Rows whose window has not been read yet
+	 * request it and show a placeholder until it arrives.
+	 * 
+	 * @param rowIndex The specific row to get data from
+	 * @param columnIndex the specific column to get data from
+	 * @return An cells value
+	 */
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		int windowIndex = rowIndex / WINDOW_SIZE;
+		ArrayList<Item> window = windows.get(windowIndex);
+		if (window == null) {
+			if (failedWindows.contains(windowIndex))
+				return (columnIndex == ITEM_NAME) ? UNREADABLE_TEXT : null;
+
+			requestWindow(windowIndex, false);
+			return (columnIndex == ITEM_NAME) ? LOADING_TEXT : null;
+		}
+		if (rowIndex % WINDOW_SIZE >= window.size())
+			return null;
+
+		Item item = window.get(rowIndex % WINDOW_SIZE);
+		Object value = null;
+		switch (columnIndex) {
+		case ITEM_ID:
+			value = item.getItemNumber();
+			break;
+		case ITEM_NAME:
+			value = item.getProductName();
+			break;
+		case ITEM_DESCRIPTION:
+			value = item.getProductDescription();
+			break;
+		case ITEM_TYPE:
+			if (item instanceof Accessory)
+				value = "Accessory";
+			else if (item instanceof Console)
+				value = "Console";
+			else if (item instanceof Game)
+				value = "Game";
+			break;
+		case ITEM_UNITS_IN_STOCK:
+			value = decimalFormatter.format(item.getUnitsInStock());
+			break;
+		case ITEM_UNIT_COST:
+			value = currencyFormatter.format(item.getUnitCost());
+			break;
+		case ITEM_MANUFACTURE:
+			value = item.getManufacture();
+			break;
+		case ITEM_RELEASE_DATE:
+			value = dateFormatter.format(item.getReleaseDate());
+			break;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Provides the name of a column
+	 * @param columnIndex The column index to get the column name from
+	 * @return A column name
+	 */
+	@Override
+	public String getColumnName(int columnIndex) {
+		return header[columnIndex];
+	}
+
+	/**
+	 * Returns the class type for each column
+	 * 
+	 * @param columnIndex The column index
+	 * @return A class type
+	 */
+	@Override
+	public Class<?> getColumnClass(int columnIndex) {
+		return (columnIndex == ITEM_ID) ? Integer.class : String.class;
+	}
+
+	/**
+	 * A window waiting to be read with the order and filter it was requested in
+	 * 
+	 * @author Russell Yorke
+	 */
+	private class WindowRequest {
+		private final int windowIndex;
+		private final boolean prefetch;
+		private final SortColumn sortColumn;
+		private final boolean ascending;
+		private final String filter;
+		private final int generation;
+
+		/**
+		 * Captures the current order and filter for a window
+		 * 
+		 * @param windowIndex The window to read
+		 * @param prefetch True if the window is read ahead of being displayed
+		 */
+		public WindowRequest(int windowIndex, boolean prefetch) {
+			this.windowIndex = windowIndex;
+			this.prefetch = prefetch;
+			this.sortColumn = PagedInventoryTableModel.this.sortColumn;
+			this.ascending = PagedInventoryTableModel.this.ascending;
+			this.filter = PagedInventoryTableModel.this.filter;
+			this.generation = PagedInventoryTableModel.this.generation;
+		}
+	}
+
+	/**
+	 * Row sorter passing the sort order chosen from the table header to the
+	 * query. Rows are never reordered in the view so view and model indexes
+	 * are the same.
+	 * 
+	 * @author Russell Yorke
+	 */
+	private class QuerySorter extends RowSorter<PagedInventoryTableModel> {
+		private List<SortKey> sortKeys = Collections.emptyList();
+
+		/**
+		 * @return The model being sorted
+		 */
+		@Override
+		public PagedInventoryTableModel getModel() {
+			return PagedInventoryTableModel.this;
+		}
+
+		/**
+		 * Sorts a sortable column ascending or reverses its order if it is
+		 * already sorted
+		 * 
+		 * @param column The column clicked
+		 */
+		@Override
+		public void toggleSortOrder(int column) {
+			if (SORT_COLUMNS[column] == null)
+				return;
+
+			SortOrder order = SortOrder.ASCENDING;
+			if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+					&& sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING)
+				order = SortOrder.DESCENDING;
+			setSortKeys(Collections.singletonList(new SortKey(column, order)));
+		}
+
+		/**
+		 * Orders the inventory by the first sort key of a sortable column
+		 * 
+		 * @param keys The sort keys (null or empty to order by item id)
+		 */
+		@Override
+		public void setSortKeys(List<? extends SortKey> keys) {
+			SortKey key = (keys != null && !keys.isEmpty()) ? keys.get(0) : null;
+			if (key != null && (SORT_COLUMNS[key.getColumn()] == null || key.getSortOrder() == SortOrder.UNSORTED))
+				key = null;
+
+			if (key != null) {
+				sortKeys = Collections.singletonList(key);
+				setSort(SORT_COLUMNS[key.getColumn()], key.getSortOrder() == SortOrder.ASCENDING);
+			} else {
+				sortKeys = Collections.emptyList();
+				setSort(SortColumn.ITEM_ID, true);
+			}
+			fireSortOrderChanged();
+		}
+
+		/**
+		 * @return The current sort keys
+		 */
+		@Override
+		public List<? extends SortKey> getSortKeys() {
+			return sortKeys;
+		}
+
+		/**
+		 * @param index A view row
+		 * @return The same model row
+		 */
+		@Override
+		public int convertRowIndexToModel(int index) {
+			return index;
+		}
+
+		/**
+		 * @param index A model row
+		 * @return The same view row
+		 */
+		@Override
+		public int convertRowIndexToView(int index) {
+			return index;
+		}
+
+		/**
+		 * @return The number of rows displayed
+		 */
+		@Override
+		public int getViewRowCount() {
+			return getRowCount();
+		}
+
+		/**
+		 * @return The number of rows in the model
+		 */
+		@Override
+		public int getModelRowCount() {
+			return getRowCount();
+		}
+
+		/*
+		 * The query orders the rows so changes to the model need no sorting
+		 */
+		@Override
+		public void modelStructureChanged() {}
+
+		@Override
+		public void allRowsChanged() {}
+
+		@Override
+		public void rowsInserted(int firstRow, int endRow) {}
+
+		@Override
+		public void rowsDeleted(int firstRow, int endRow) {}
+
+		@Override
+		public void rowsUpdated(int firstRow, int endRow) {}
+
+		@Override
+		public void rowsUpdated(int firstRow, int endRow, int column) {}
+	}
+}
@@ -14,13 +14,17 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.ryorke.entity.Accessory;
 
@@ -34,14 +38,22 @@ public class AccessoryEntityManager implements EntityManager {
 	private static AccessoryEntityManager entityManager = null;
 	private static ItemEntityManager itemEntityManager = null;
 	private SQLiteDBManager databaseManager = null;
-	private static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS accessory "
+	private ItemCache itemCache = null;
+	static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS accessory "
 			+ "(accessoryId INTEGER UNIQUE NOT NULL, "	// accessoryId = itemId or foreign key
 			+ "color TEXT NOT NULL, "
 			+ "consoleId INTEGER NOT NULL, "	// An id to an existing console
 			+ "modelNumber TEXT NOT NULL,"
 			+ "FOREIGN KEY(accessoryId) REFERENCES item(itemId) ON DELETE RESTRICT,"
 			+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE RESTRICT)";
+	// Deleting a console checks that no accessory is still made for it, which
+	// would otherwise scan every accessory for its consoleId
+	static final String CREATE_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS accessory_consoleId ON accessory(consoleId)";
 	private static final String TABLE_NAME = "accessory";
+	private static final String INSERT_ACCESSORY_QUERY = "INSERT INTO accessory (accessoryId, color, consoleId, "
+			+ "modelNumber) VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_ACCESSORY_QUERY = "UPDATE accessory SET color = ?, "
+			+ "consoleId = ?, modelNumber = ? WHERE accessoryId = ?";
 	
 	/** 
 	 * Provides access to the singleton accessory entity manager
@@ -71,6 +83,7 @@ public class AccessoryEntityManager implements EntityManager {
 	private AccessoryEntityManager() throws IOException, SQLException {
 		databaseManager = SQLiteDBManager.getManager();
 		databaseManager.registerEntityManager(this);		
+		itemCache = databaseManager.getItemCache();
 	}	
 	
 	/**
@@ -81,11 +94,11 @@ public class AccessoryEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {
-		if (!databaseManager.tableExists("accessory")) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
-					Statement sqlStatement = dbConnection.createStatement();) {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement();) {
+			if (!databaseManager.tableExists("accessory"))
 				sqlStatement.executeUpdate(CREATE_TABLE_QUERY);
-			}
+			sqlStatement.executeUpdate(CREATE_INDEX_QUERY);
 		}
 	}
 	
@@ -97,24 +110,20 @@ public class AccessoryEntityManager implements EntityManager {
 	 * @throws ParseException If a release date was incorrectly stored within the database. 
 	 */
 	public ArrayList<Accessory> getAccessories() throws SQLException, ParseException {
-		final String getAllAccessoriesQuery = "SELECT * FROM accessory";
+		final String getAllAccessoriesQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "accessoryId");
 		ArrayList<Accessory> accessories = null;
+		long cacheGeneration = itemCache.getGeneration();
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				Statement statement = dbConnection.createStatement();
 				ResultSet accessoriesResult = statement.executeQuery(getAllAccessoriesQuery)) {
+			SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
 			while (accessoriesResult.next()) {
-				int accessoryId = accessoriesResult.getInt("accessoryId");
-				String color = accessoriesResult.getString("color");
-				int consoleId = accessoriesResult.getInt("consoleId");
-				String modelNumber = accessoriesResult.getString("modelNumber");
-				
 				Accessory accessory = new Accessory();
-				accessory.setItemNumber(accessoryId);
-				accessory.setColor(color);
-				accessory.setPlatformId(consoleId);
-				accessory.setModelNumber(modelNumber);
-				itemEntityManager.loadItem(accessory);
+				ItemEntityManager.hydrateItem(accessory, accessoriesResult, dateFormatter);
+				accessory.setColor(accessoriesResult.getString("color"));
+				accessory.setPlatformId(accessoriesResult.getInt("consoleId"));
+				accessory.setModelNumber(accessoriesResult.getString("modelNumber"));
 				
 				if (accessories == null)
 					accessories = new ArrayList<Accessory>();
@@ -123,9 +132,60 @@ public class AccessoryEntityManager implements EntityManager {
 			}
 		}
 		
+		itemCache.putAll(accessories, cacheGeneration);
 		return accessories; 
 	}
 
+	/**
+	 * Retrieves one page of accessories using keyset pagination (see Page)
+	 * 
+	 * @param sortKey Orders the accessories by accessory id or product name
+	 * @param continuationToken The token of the previous page or null for the first page
+	 * @param limit The maximum number of accessories in the page
+	 * @return The page of accessories
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database. 
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of the sort key's
+	 */
+	public Page<Accessory> getAccessories(Page.SortKey sortKey, String continuationToken, int limit) 
+			throws SQLException, ParseException {
+		final String getAccessoriesPageQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "accessoryId")
+				+ Page.keysetClause(sortKey, "accessory.accessoryId", "item.name", continuationToken);
+		ArrayList<Accessory> accessories = null;
+		String nextContinuationToken = null;
+		long cacheGeneration = itemCache.getGeneration();
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(getAccessoriesPageQuery)) {
+			Page.bindKeyset(statement, sortKey, continuationToken, limit);
+			try (ResultSet accessoriesResult = statement.executeQuery()) {
+				SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+				while (accessoriesResult.next()) {
+					if (accessories != null && accessories.size() == limit) {
+						Accessory lastAccessory = accessories.get(limit - 1);
+						nextContinuationToken = Page.continuationToken(sortKey, lastAccessory.getItemNumber(), 
+								lastAccessory.getProductName());
+						break;
+					}
+					
+					Accessory accessory = new Accessory();
+					ItemEntityManager.hydrateItem(accessory, accessoriesResult, dateFormatter);
+					accessory.setColor(accessoriesResult.getString("color"));
+					accessory.setPlatformId(accessoriesResult.getInt("consoleId"));
+					accessory.setModelNumber(accessoriesResult.getString("modelNumber"));
+					
+					if (accessories == null)
+						accessories = new ArrayList<Accessory>();
+					
+					accessories.add(accessory);
+				}
+			}
+		}
+		
+		itemCache.putAll(accessories, cacheGeneration);
+		return new Page<Accessory>(accessories, nextContinuationToken);
+	}
+
 	/**
 	 * Creates a new accessory record (and associated item) within database. 
 	 * Once created, the accessoryId will be updated to reflect the accessoryId within the database
@@ -134,18 +194,30 @@ public class AccessoryEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void addAccessory(Accessory accessory) throws SQLException {
-		final String insertAccessoryQuery = "INSERT INTO accessory (accessoryId, color, consoleId, "
-				+ "modelNumber) VALUES (?, ?, ?, ?)";
-		
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addAccessory(accessory, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			accessory.setItemNumber(0);
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Creates a new accessory record (and associated item) within an existing transaction.
+	 * Once created, the accessoryId will be updated to reflect the accessoryId within the database
+	 * 
+	 * @param accessory A new accessory entity
+	 * @param transaction The transaction to perform the insert in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addAccessory(Accessory accessory, Transaction transaction) throws SQLException {
 		// Create the associated item record first to acquire a new itemId
-		itemEntityManager.addItem(accessory);
+		itemEntityManager.addItem(accessory, transaction);
+		itemCache.invalidate(Arrays.asList(accessory), transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement insertStatement = dbConnection.prepareStatement(insertAccessoryQuery)) {
-			insertStatement.setInt(1, accessory.getItemNumber());
-			insertStatement.setString(2, accessory.getColor());
-			insertStatement.setInt(3, accessory.getPlatformId());
-			insertStatement.setString(4, accessory.getModelNumber());
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_ACCESSORY_QUERY)) {
+			bindInsertAccessory(insertStatement, accessory);
 			
 			insertStatement.executeUpdate();
 		}
@@ -158,18 +230,27 @@ public class AccessoryEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void updateAccessory(Accessory accessory) throws SQLException {
-		final String updateAccessoryQuery = "UPDATE accessory SET color = ?, "
-				+ "consoleId = ?, modelNumber = ? WHERE accessoryId = ?";
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateAccessory(accessory, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates the accessory entry (and associated item) within an existing transaction
+	 * 
+	 * @param accessory Accessory details to be saved to the database
+	 * @param transaction The transaction to perform the update in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateAccessory(Accessory accessory, Transaction transaction) throws SQLException {
+		itemCache.invalidate(Arrays.asList(accessory), transaction);
 		
 		// Update the item component of this accessory
-		itemEntityManager.updateItem(accessory);
+		itemEntityManager.updateItem(accessory, transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement updateStatement = dbConnection.prepareStatement(updateAccessoryQuery)) {
-			updateStatement.setInt(4, accessory.getItemNumber());
-			updateStatement.setString(1, accessory.getColor());
-			updateStatement.setInt(2, accessory.getPlatformId());
-			updateStatement.setString(3, accessory.getModelNumber());
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_ACCESSORY_QUERY)) {
+			bindUpdateAccessory(updateStatement, accessory);
 			
 			updateStatement.executeUpdate();
 		}
@@ -181,20 +262,157 @@ public class AccessoryEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void deleteAccessory(Accessory accessory) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			deleteAccessory(accessory, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Deletes the accessory entry (and associated item entry) within an existing transaction
+	 * 
+	 * @param accessory The accessory to be deleted
+	 * @param transaction The transaction to perform the delete in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void deleteAccessory(Accessory accessory, Transaction transaction) throws SQLException {
 		final String deleteAccessoryQuery = "DELETE FROM accessory WHERE accessoryId = ?";
 		
+		itemCache.invalidate(Arrays.asList(accessory), transaction);
 		
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement deleteStatement = dbConnection.prepareStatement(deleteAccessoryQuery)) {
+		
+		try (PreparedStatement deleteStatement = transaction.getConnection().prepareStatement(deleteAccessoryQuery)) {
 			deleteStatement.setInt(1, accessory.getItemNumber());			
 			deleteStatement.executeUpdate();
 			
 			// Must delete item after deleting the accessory due to foreign constraints
-			itemEntityManager.deleteItem(accessory);
+			itemEntityManager.deleteItem(accessory, transaction);
+		}
+	}
+	
+	/**
+	 * Creates a group of new accessory records (and associated items) using batched inserts within
+	 * a single transaction. Once created, each accessoryId will be updated to reflect the accessoryId 
+	 * within the database
+	 * 
+	 * @param accessories New accessory entities
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addAccessories(List<Accessory> accessories) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addAccessories(accessories, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			for (Accessory accessory : accessories) {
+				accessory.setItemNumber(0);
+			}
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Creates a group of new accessory records (and associated items) using batched inserts within
+	 * an existing transaction. Once created, each accessoryId will be updated to reflect the accessoryId 
+	 * within the database
+	 * 
+	 * @param accessories New accessory entities
+	 * @param transaction The transaction to perform the inserts in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addAccessories(List<Accessory> accessories, Transaction transaction) throws SQLException {
+		// Create the associated item records first to acquire the new itemIds
+		itemEntityManager.addItems(accessories, transaction);
+		itemCache.invalidate(accessories, transaction);
+		
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_ACCESSORY_QUERY)) {
+			int batchCount = 0;
+			for (Accessory accessory : accessories) {
+				bindInsertAccessory(insertStatement, accessory);
+				insertStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					insertStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				insertStatement.executeBatch();
+		}
+	}
+	
+	/**
+	 * Updates a group of accessory entries (and associated items) using batched updates within
+	 * a single transaction
+	 * 
+	 * @param accessories Accessory details to be saved to the database
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateAccessories(List<Accessory> accessories) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateAccessories(accessories, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates a group of accessory entries (and associated items) using batched updates within
+	 * an existing transaction
+	 * 
+	 * @param accessories Accessory details to be saved to the database
+	 * @param transaction The transaction to perform the updates in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateAccessories(List<Accessory> accessories, Transaction transaction) throws SQLException {
+		itemCache.invalidate(accessories, transaction);
+		itemEntityManager.updateItems(accessories, transaction);
+		
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_ACCESSORY_QUERY)) {
+			int batchCount = 0;
+			for (Accessory accessory : accessories) {
+				bindUpdateAccessory(updateStatement, accessory);
+				updateStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					updateStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				updateStatement.executeBatch();
 		}
 	}
 	
+	/**
+	 * Binds the accessory specific columns of the insert accessory query
+	 * 
+	 * @param statement The insert accessory statement
+	 * @param accessory The accessory being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindInsertAccessory(PreparedStatement statement, Accessory accessory) throws SQLException {
+		statement.setInt(1, accessory.getItemNumber());
+		statement.setString(2, accessory.getColor());
+		statement.setInt(3, accessory.getPlatformId());
+		statement.setString(4, accessory.getModelNumber());
+	}
+	
+	/**
+	 * Binds the accessory specific columns of the update accessory query
+	 * 
+	 * @param statement The update accessory statement
+	 * @param accessory The accessory being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindUpdateAccessory(PreparedStatement statement, Accessory accessory) throws SQLException {
+		statement.setInt(4, accessory.getItemNumber());
+		statement.setString(1, accessory.getColor());
+		statement.setInt(2, accessory.getPlatformId());
+		statement.setString(3, accessory.getModelNumber());
+	}
+	
 	/**
 	 * Creates a list of SQL statements necessary to recreate the
 	 * database table and data within the table. 
@@ -212,8 +430,46 @@ public class AccessoryEntityManager implements EntityManager {
 		ArrayList<String> dataRecords = databaseManager.exportRecords(AccessoryEntityManager.TABLE_NAME);		
 		if (dataRecords != null)
 			exportSQLResults.addAll(dataRecords);
+		exportSQLResults.add(AccessoryEntityManager.CREATE_INDEX_QUERY);
 		
 		return exportSQLResults;
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", AccessoryEntityManager.TABLE_NAME));
+		writer.write(AccessoryEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(AccessoryEntityManager.TABLE_NAME, writer);
+		// Indexes are built once the records are loaded
+		writer.write(AccessoryEntityManager.CREATE_INDEX_QUERY);
+		writer.write('\n');
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", AccessoryEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(AccessoryEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(AccessoryEntityManager.TABLE_NAME, backupWriter);
+		backupWriter.writeCommand(AccessoryEntityManager.CREATE_INDEX_QUERY);
+	}
 
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the commands of a backup file (one per line) through memory mapped
+ * windows of the file. Lines are found by scanning raw bytes for newlines;
+ * blank lines and -- comments are skipped without being decoded and only the
+ * bytes of each command are decoded into a String. The byte offset of the
+ * next unread line is available at any time for exact progress reporting.
+ * 
+ * Files larger than a window are mapped one window at a time so backups
+ * of several gigabytes can be read without mapping the whole file.
+ * 
+ * @author Russell Yorke
+ */
+public class BackupFileReader implements AutoCloseable {
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024; // bytes
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Charset charset;
+	private final long size;
+	private final int windowSize;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long position = 0;
+	private long lineNumber = 0;
+	private long lineStart = 0;
+	private long lineEnd = 0;
+	private byte[] decodeBuffer = new byte[8192];
+
+	/**
+	 * Opens a backup file written in the platform's default charset
+	 * 
+	 * @param backupFile The file to read
+	 * @throws IOException If the file cannot be opened
+	 */
+	public BackupFileReader(File backupFile) throws IOException {
+		this(backupFile, Charset.defaultCharset(), DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Opens a backup file
+	 * 
+	 * @param backupFile The file to read
+	 * @param charset The charset the commands were written in (must encode newline as a single byte)
+	 * @param windowSize The number of bytes mapped at a time
+	 * @throws IOException If the file cannot be opened
+	 */
+	public BackupFileReader(File backupFile, Charset charset, int windowSize) throws IOException {
+		this.file = new RandomAccessFile(backupFile, "r");
+		this.channel = file.getChannel();
+		this.charset = charset;
+		this.windowSize = windowSize;
+		this.size = channel.size();
+	}
+
+	/**
+	 * @return The size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The charset commands are decoded with
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return The byte offset of the next unread line
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The line number of the last line read (starting at 1)
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Reads the next command skipping blank lines and -- comments. Leading
+	 * and trailing whitespace is removed.
+	 * 
+	 * @return The next command or null at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	public String readCommand() throws IOException {
+		while (nextCommandBounds()) {
+			int length = (int) (lineEnd - lineStart);
+			if (decodeBuffer.length < length)
+				decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+			copyLine(decodeBuffer, 0);
+			return new String(decodeBuffer, 0, length, charset);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads whole commands as raw bytes until at least the requested number of
+	 * bytes have been read. Commands are trimmed and each is followed by a newline;
+	 * blank lines and -- comments are skipped.
+	 * 
+	 * @param chunkSize The minimum number of bytes to read unless the end of the file is reached
+	 * @return The bytes of the commands read or null at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	public byte[] readChunk(int chunkSize) throws IOException {
+		byte[] chunk = null;
+		int chunkLength = 0;
+		long chunkStart = position;
+
+		while (position - chunkStart < chunkSize && nextCommandBounds()) {
+			int length = (int) (lineEnd - lineStart);
+			if (chunk == null) {
+				chunk = new byte[Math.max(chunkSize, length + 1)];
+			} else if (chunk.length < chunkLength + length + 1) {
+				chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, chunkLength + length + 1));
+			}
+
+			copyLine(chunk, chunkLength);
+			chunkLength += length;
+			chunk[chunkLength++] = '\n';
+		}
+
+		return (chunk == null) ? null : Arrays.copyOf(chunk, chunkLength);
+	}
+
+	/**
+	 * Finds the next line that is neither blank nor a comment setting lineStart
+	 * and lineEnd to the trimmed command within the current window
+	 * 
+	 * @return true if a command was found, false at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	private boolean nextCommandBounds() throws IOException {
+		while (nextLineBounds()) {
+			while (lineStart < lineEnd && byteAt(lineStart) <= ' ')
+				lineStart++;
+			while (lineEnd > lineStart && byteAt(lineEnd - 1) <= ' ')
+				lineEnd--;
+
+			boolean comment = lineEnd - lineStart >= 2 && byteAt(lineStart) == '-' && byteAt(lineStart + 1) == '-';
+			if (lineEnd > lineStart && !comment)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds the next line and maps the window so the whole line is within it
+	 * 
+	 * @return true if a line was found, false at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	private boolean nextLineBounds() throws IOException {
+		if (position >= size)
+			return false;
+
+		lineStart = position;
+		if (window == null || position >= windowStart + window.limit())
+			map(position, windowSize);
+
+		long scan = position;
+		while (true) {
+			int index = (int) (scan - windowStart);
+			int limit = window.limit();
+			while (index < limit && window.get(index) != '\n')
+				index++;
+
+			if (index < limit) {
+				lineEnd = windowStart + index;
+				position = lineEnd + 1;
+				break;
+			}
+			if (windowStart + limit >= size) {
+				lineEnd = size;
+				position = size;
+				break;
+			}
+
+			// The line continues past the window; remap starting at the line
+			scan = windowStart + limit;
+			map(lineStart, (int) Math.min(Integer.MAX_VALUE, Math.max(windowSize, (scan - lineStart) * 2)));
+		}
+
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * Maps a window of the file
+	 * 
+	 * @param start File offset of the window
+	 * @param length Requested window length (reduced at the end of the file)
+	 * @throws IOException If the file cannot be mapped
+	 */
+	private void map(long start, int length) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+	}
+
+	/**
+	 * @param offset A file offset within the current window
+	 * @return The byte at the offset
+	 */
+	private byte byteAt(long offset) {
+		return window.get((int) (offset - windowStart));
+	}
+
+	/**
+	 * Copies the current line's bytes out of the window
+	 * 
+	 * @param destination Array receiving the bytes
+	 * @param destinationOffset Offset to start copying to
+	 */
+	private void copyLine(byte[] destination, int destinationOffset) {
+		window.position((int) (lineStart - windowStart));
+		window.get(destination, destinationOffset, (int) (lineEnd - lineStart));
+	}
+
+	/**
+	 * Closes the file. The current window is released once it is garbage collected.
+	 * 
+	 * @throws IOException If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import com.ryorke.database.InsertStatementParser.ParsedInsert;
+
+/**
+ * Reads the segments of a backup written by BinaryBackupWriter. Reading a
+ * segment only loads its stored bytes; decoding (CRC check, decompression
+ * and conversion into commands) is separate so segments can be decoded on
+ * other threads while the next segment is read.
+ * 
+ * @author Russell Yorke
+ */
+class BinaryBackupReader implements AutoCloseable {
+	private static final int BUFFER_SIZE = 64 * 1024; // bytes
+	private final RandomAccessFile file;
+	private final long size;
+
+	/**
+	 * Opens a binary backup and checks its header
+	 * 
+	 * @param backupFile The file to read
+	 * @throws IOException If the file cannot be read or is not a supported binary backup
+	 */
+	public BinaryBackupReader(File backupFile) throws IOException {
+		file = new RandomAccessFile(backupFile, "r");
+		try {
+			size = file.length();
+			byte[] magic = new byte[BinaryBackupWriter.MAGIC.length];
+			file.readFully(magic);
+			if (!Arrays.equals(magic, BinaryBackupWriter.MAGIC))
+				throw new IOException(backupFile.getName() + " is not a binary backup");
+			int version = file.readByte();
+			if (version != BinaryBackupWriter.VERSION)
+				throw new IOException("Unsupported binary backup version " + version);
+		} catch (IOException exception) {
+			file.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Checks whether a file starts with the binary backup header
+	 * 
+	 * @param backupFile The file to check
+	 * @return True if the file is a binary backup, false otherwise (such as an SQL backup)
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isBinaryBackup(File backupFile) throws IOException {
+		try (RandomAccessFile candidate = new RandomAccessFile(backupFile, "r")) {
+			byte[] magic = new byte[BinaryBackupWriter.MAGIC.length];
+			return candidate.read(magic) == magic.length && Arrays.equals(magic, BinaryBackupWriter.MAGIC);
+		}
+	}
+
+	/**
+	 * @return The size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Reads the next segment's header and stored bytes
+	 * 
+	 * @return The segment or null once the end of the backup is reached
+	 * @throws IOException If the file cannot be read or is truncated
+	 */
+	public Segment readSegment() throws IOException {
+		try {
+			byte marker = file.readByte();
+			if (marker == BinaryBackupWriter.END_OF_FILE_MARKER)
+				return null;
+			if (marker != BinaryBackupWriter.SEGMENT_MARKER)
+				throw new IOException("Corrupt binary backup at byte " + (file.getFilePointer() - 1));
+
+			String name = readString(file);
+			byte flags = file.readByte();
+			long payloadLength = file.readLong();
+			long checksum = file.readLong();
+			if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE
+					|| payloadLength > size - file.getFilePointer())
+				throw new IOException("Segment " + name + " is truncated or too large");
+
+			byte[] payload = new byte[(int) payloadLength];
+			file.readFully(payload);
+			return new Segment(name, flags, checksum, payload, file.getFilePointer());
+		} catch (EOFException exception) {
+			throw new IOException("Binary backup is incomplete", exception);
+		}
+	}
+
+	/**
+	 * Verifies a segment's CRC and converts its records into commands. INSERT
+	 * rows are returned as ParsedInserts sharing one template per table.
+	 * 
+	 * @param segment A segment read by readSegment
+	 * @return SQL commands and ParsedInserts in the order they were written
+	 * @throws IOException If the segment is corrupt
+	 */
+	public static ArrayList<Object> decode(Segment segment) throws IOException {
+		CRC32 checksum = new CRC32();
+		checksum.update(segment.payload);
+		if (checksum.getValue() != segment.checksum)
+			throw new IOException("Segment " + segment.name + " failed its CRC check");
+
+		InputStream payload = new ByteArrayInputStream(segment.payload);
+		if ((segment.flags & BinaryBackupWriter.FLAG_GZIP) != 0)
+			payload = new BufferedInputStream(new GZIPInputStream(payload, BUFFER_SIZE), BUFFER_SIZE);
+
+		ArrayList<Object> commands = new ArrayList<Object>();
+		try (DataInputStream records = new DataInputStream(payload)) {
+			String template = null;
+			int columnCount = 0;
+
+			while (true) {
+				byte recordType = records.readByte();
+				if (recordType == BinaryBackupWriter.END_OF_SEGMENT) {
+					break;
+				} else if (recordType == BinaryBackupWriter.COMMAND_RECORD) {
+					commands.add(readString(records));
+				} else if (recordType == BinaryBackupWriter.TABLE_RECORD) {
+					StringBuilder insertPrefix = new StringBuilder("INSERT INTO ").append(readString(records)).append(" (");
+					columnCount = (int) readVarLong(records);
+					for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+						if (columnIndex != 0)
+							insertPrefix.append(',');
+						insertPrefix.append(readString(records));
+					}
+					template = insertPrefix.append(") VALUES (").toString();
+				} else if (recordType == BinaryBackupWriter.ROW_RECORD && template != null) {
+					Object[] values = new Object[columnCount];
+					for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+						values[columnIndex] = readValue(records);
+					}
+					commands.add(new ParsedInsert(template, values));
+				} else {
+					throw new IOException("Segment " + segment.name + " contains an unknown record");
+				}
+			}
+		} catch (EOFException exception) {
+			throw new IOException("Segment " + segment.name + " is incomplete", exception);
+		}
+
+		return commands;
+	}
+
+	/**
+	 * Reads a single typed value
+	 * 
+	 * @param input The segment records
+	 * @return A null, Long, Double, String or byte[] value
+	 * @throws IOException If the value cannot be read
+	 */
+	private static Object readValue(DataInput input) throws IOException {
+		byte valueType = input.readByte();
+		switch (valueType) {
+		case BinaryBackupWriter.NULL_VALUE:
+			return null;
+		case BinaryBackupWriter.INTEGER_VALUE:
+			long zigzag = readVarLong(input);
+			return Long.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+		case BinaryBackupWriter.REAL_VALUE:
+			return Double.valueOf(input.readDouble());
+		case BinaryBackupWriter.TEXT_VALUE:
+			return readString(input);
+		case BinaryBackupWriter.BLOB_VALUE:
+			long length = readVarLong(input);
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Malformed blob length");
+			byte[] blob = new byte[(int) length];
+			input.readFully(blob);
+			return blob;
+		default:
+			throw new IOException("Unknown value type " + valueType);
+		}
+	}
+
+	/**
+	 * Reads an unsigned variable length integer written by BinaryBackupWriter
+	 * 
+	 * @param input The input to read from
+	 * @return The value read
+	 * @throws IOException If the value cannot be read
+	 */
+	private static long readVarLong(DataInput input) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte octet = input.readByte();
+			value |= (long) (octet & 0x7F) << shift;
+			if ((octet & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * Reads a string written by BinaryBackupWriter
+	 * 
+	 * @param input The input to read from
+	 * @return The string read
+	 * @throws IOException If the string cannot be read
+	 */
+	private static String readString(DataInput input) throws IOException {
+		long length = readVarLong(input);
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Malformed string length");
+		byte[] encoded = new byte[(int) length];
+		input.readFully(encoded);
+		return new String(encoded, BinaryBackupWriter.UTF_8);
+	}
+
+	/**
+	 * Closes the file
+	 * 
+	 * @throws IOException If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * The stored bytes of one segment
+	 * 
+	 * @author Russell Yorke
+	 */
+	public static class Segment {
+		public final String name;
+		public final byte flags;
+		public final long checksum;
+		public final byte[] payload;
+		public final long endOffset;
+
+		/**
+		 * @param name The segment name
+		 * @param flags Segment flags (FLAG_GZIP)
+		 * @param checksum CRC32 of the payload
+		 * @param payload The payload as stored
+		 * @param endOffset File position just past the segment
+		 */
+		public Segment(String name, byte flags, long checksum, byte[] payload, long endOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.checksum = checksum;
+			this.payload = payload;
+			this.endOffset = endOffset;
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a binary database backup. The file is a container of length prefixed
+ * segments, one per registered EntityManager:
+ * <pre>
+ * file    := MAGIC version segment* 'E'
+ * segment := 'S' name flags payloadLength(8) crc32(8) payload
+ * payload := record* END_OF_SEGMENT   (gzip compressed when flags has FLAG_GZIP)
+ * record  := COMMAND_RECORD sql
+ *          | TABLE_RECORD tableName columnCount columnName*
+ *          | ROW_RECORD value*        (one value per column of the last table)
+ * value   := NULL_VALUE | INTEGER_VALUE zigzag varint | REAL_VALUE ieee754(8)
+ *          | TEXT_VALUE string | BLOB_VALUE length bytes
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8. The CRC covers the payload
+ * exactly as stored so a segment can be verified before it is decompressed.
+ * REAL columns are stored as their IEEE 754 bits and restore exactly.
+ * 
+ * The length and CRC of a segment are written back into its header once the
+ * segment is complete so rows are streamed to the file rather than buffered.
+ * 
+ * @author Russell Yorke
+ */
+public class BinaryBackupWriter implements AutoCloseable {
+	static final byte[] MAGIC = { 'I', 'N', 'V', 'B', 'A', 'K' };
+	static final byte VERSION = 1;
+	static final byte SEGMENT_MARKER = 'S';
+	static final byte END_OF_FILE_MARKER = 'E';
+	static final byte FLAG_GZIP = 1;
+	static final byte END_OF_SEGMENT = 0;
+	static final byte COMMAND_RECORD = 1;
+	static final byte TABLE_RECORD = 2;
+	static final byte ROW_RECORD = 3;
+	static final byte NULL_VALUE = 0;
+	static final byte INTEGER_VALUE = 1;
+	static final byte REAL_VALUE = 2;
+	static final byte TEXT_VALUE = 3;
+	static final byte BLOB_VALUE = 4;
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024; // bytes
+	private static final int NOTIFICATION_INTERVAL = 1000; // rows
+	private final FileOutputStream fileStream;
+	private final FileChannel fileChannel;
+	private final BufferedOutputStream fileBuffer;
+	private final DataOutputStream fileOutput;
+	private final boolean compressed;
+	private ProgressListener listener = null;
+	private long totalRows = 0;
+	private long rowsWritten = 0;
+	private DataOutputStream segment = null;
+	private GZIPOutputStream segmentCompressor = null;
+	private CRC32 segmentChecksum = null;
+	private long segmentLengthPosition = 0;
+	private int columnCount = -1;
+
+	/**
+	 * Creates (or replaces) a binary backup file
+	 * 
+	 * @param backupFile The file to write
+	 * @param compressed If true every segment is gzip compressed
+	 * @throws IOException If the file cannot be created
+	 */
+	public BinaryBackupWriter(File backupFile, boolean compressed) throws IOException {
+		this.compressed = compressed;
+		fileStream = new FileOutputStream(backupFile);
+		fileChannel = fileStream.getChannel();
+		fileBuffer = new BufferedOutputStream(fileStream, BUFFER_SIZE);
+		fileOutput = new DataOutputStream(fileBuffer);
+
+		fileOutput.write(MAGIC);
+		fileOutput.writeByte(VERSION);
+	}
+
+	/**
+	 * Reports the number of rows written to a listener
+	 * 
+	 * @param listener Notified as rows are written (may be null)
+	 * @param totalRows The expected number of rows reported to the listener
+	 */
+	public void setProgressListener(ProgressListener listener, long totalRows) {
+		this.listener = listener;
+		this.totalRows = totalRows;
+	}
+
+	/**
+	 * @return True if segments are gzip compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Starts a new segment. Records are written to the segment until endSegment is called.
+	 * 
+	 * @param name The segment name (the EntityManager the records belong to)
+	 * @throws IOException If the segment header cannot be written
+	 * @throws IllegalStateException If a segment is already open
+	 */
+	public void beginSegment(String name) throws IOException {
+		if (segment != null)
+			throw new IllegalStateException("Segment already open");
+
+		fileOutput.writeByte(SEGMENT_MARKER);
+		writeString(fileOutput, name);
+		fileOutput.writeByte(compressed ? FLAG_GZIP : 0);
+		fileOutput.flush();
+
+		// Length and CRC are filled in by endSegment
+		segmentLengthPosition = fileChannel.position();
+		fileOutput.writeLong(0);
+		fileOutput.writeLong(0);
+		fileOutput.flush();
+
+		segmentChecksum = new CRC32();
+		OutputStream payload = new CheckedOutputStream(fileBuffer, segmentChecksum);
+		if (compressed) {
+			segmentCompressor = new GZIPOutputStream(payload, BUFFER_SIZE);
+			payload = segmentCompressor;
+		}
+		segment = new DataOutputStream(new BufferedOutputStream(payload, BUFFER_SIZE));
+		columnCount = -1;
+	}
+
+	/**
+	 * Adds an SQL command (such as DROP/CREATE TABLE) to the open segment
+	 * 
+	 * @param command The SQL command to execute on restore
+	 * @throws IOException If the command cannot be written
+	 */
+	public void writeCommand(String command) throws IOException {
+		checkSegmentOpen();
+		segment.writeByte(COMMAND_RECORD);
+		writeString(segment, command);
+	}
+
+	/**
+	 * Starts the records of a table. Rows written afterwards belong to this table.
+	 * 
+	 * @param tableName The table the rows are restored into
+	 * @param columnNames The column names in the order row values are written
+	 * @throws IOException If the table header cannot be written
+	 */
+	public void beginTable(String tableName, String[] columnNames) throws IOException {
+		checkSegmentOpen();
+		segment.writeByte(TABLE_RECORD);
+		writeString(segment, tableName);
+		writeVarLong(segment, columnNames.length);
+		for (String columnName : columnNames) {
+			writeString(segment, columnName);
+		}
+		columnCount = columnNames.length;
+	}
+
+	/**
+	 * Writes the current row of a result set using the storage class of each value
+	 * 
+	 * @param records A result set positioned on a row of the current table
+	 * @throws SQLException If a value cannot be read
+	 * @throws IOException If the row cannot be written
+	 */
+	public void writeRow(ResultSet records) throws SQLException, IOException {
+		checkSegmentOpen();
+		if (columnCount < 0)
+			throw new IllegalStateException("No table started");
+
+		segment.writeByte(ROW_RECORD);
+		for (int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
+			Object value = records.getObject(columnIndex);
+			if (value == null) {
+				segment.writeByte(NULL_VALUE);
+			} else if (value instanceof Integer || value instanceof Long
+					|| value instanceof Short || value instanceof Byte) {
+				segment.writeByte(INTEGER_VALUE);
+				long integer = ((Number) value).longValue();
+				writeVarLong(segment, (integer << 1) ^ (integer >> 63));
+			} else if (value instanceof Double || value instanceof Float) {
+				segment.writeByte(REAL_VALUE);
+				segment.writeDouble(((Number) value).doubleValue());
+			} else if (value instanceof byte[]) {
+				byte[] blob = (byte[]) value;
+				segment.writeByte(BLOB_VALUE);
+				writeVarLong(segment, blob.length);
+				segment.write(blob);
+			} else {
+				segment.writeByte(TEXT_VALUE);
+				writeString(segment, value.toString());
+			}
+		}
+
+		if (listener != null && ++rowsWritten % NOTIFICATION_INTERVAL == 0)
+			listener.progressUpdated(Math.min(rowsWritten, totalRows), totalRows);
+	}
+
+	/**
+	 * Completes the open segment and records its length and CRC in the segment header
+	 * 
+	 * @throws IOException If the segment cannot be written
+	 */
+	public void endSegment() throws IOException {
+		checkSegmentOpen();
+		segment.writeByte(END_OF_SEGMENT);
+		segment.flush();
+		if (segmentCompressor != null)
+			segmentCompressor.finish();
+		fileBuffer.flush();
+
+		long payloadStart = segmentLengthPosition + 16;
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.putLong(fileChannel.position() - payloadStart);
+		header.putLong(segmentChecksum.getValue());
+		header.flip();
+		long position = segmentLengthPosition;
+		while (header.hasRemaining()) {
+			position += fileChannel.write(header, position);
+		}
+
+		segment = null;
+		segmentCompressor = null;
+		segmentChecksum = null;
+	}
+
+	/**
+	 * Marks the end of the backup. A file without the end marker is rejected on restore.
+	 * 
+	 * @throws IOException If the marker cannot be written
+	 */
+	public void finish() throws IOException {
+		if (segment != null)
+			throw new IllegalStateException("Segment still open");
+
+		fileOutput.writeByte(END_OF_FILE_MARKER);
+		fileOutput.flush();
+		if (listener != null)
+			listener.progressUpdated(totalRows, totalRows);
+	}
+
+	/**
+	 * Closes the file. Call finish first; a backup closed without finishing is incomplete.
+	 * 
+	 * @throws IOException If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		fileStream.close();
+	}
+
+	/**
+	 * @throws IllegalStateException If no segment is open
+	 */
+	private void checkSegmentOpen() {
+		if (segment == null)
+			throw new IllegalStateException("No segment open");
+	}
+
+	/**
+	 * Writes an unsigned variable length integer (7 bits per byte, low bits first)
+	 * 
+	 * @param output The output to write to
+	 * @param value The value to write
+	 * @throws IOException If the value cannot be written
+	 */
+	static void writeVarLong(DataOutput output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+
+	/**
+	 * Writes a string as its UTF-8 byte length followed by the bytes
+	 * 
+	 * @param output The output to write to
+	 * @param value The string to write
+	 * @throws IOException If the string cannot be written
+	 */
+	static void writeString(DataOutput output, String value) throws IOException {
+		byte[] encoded = value.getBytes(UTF_8);
+		writeVarLong(output, encoded.length);
+		output.write(encoded);
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A feed of the changes made to the inventory tables that other systems can
+ * follow without reading the tables themselves. Triggers append an entry to
+ * change_log for every insert, update and delete of a captured table; each
+ * entry holds the table, the id of the changed row and the operation.
+ * 
+ * Consumers pull batches of changes after a cursor (the id of the last change
+ * they processed) and acknowledge their position, which is stored in
+ * change_consumer. Entries every registered consumer has passed are removed
+ * from the log. The newest entry is never removed so change ids keep increasing
+ * across compaction, restarts and restores.
+ * 
+ * The tables and triggers are created by SchemaMigrator; createTable and 
+ * createTriggers recreate them after a restore.
+ * 
+ * @author Russell Yorke
+ */
+public class ChangeFeed implements EntityManager {
+	static final Map<String, String> CAPTURED_TABLES;
+	private static final String LOG_TABLE_NAME = "change_log";
+	private static final String CONSUMER_TABLE_NAME = "change_consumer";
+	static final String CREATE_LOG_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS change_log "
+			+ "(changeId INTEGER PRIMARY KEY, "
+			+ "tableName TEXT NOT NULL, "
+			+ "rowKey INTEGER NOT NULL, "
+			+ "operation TEXT NOT NULL)";
+	static final String CREATE_CONSUMER_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS change_consumer "
+			+ "(consumerName TEXT PRIMARY KEY, "
+			+ "position INTEGER NOT NULL)";
+	private static final String COMPACT_QUERY = "DELETE FROM change_log WHERE changeId <= "
+			+ "COALESCE((SELECT min(position) FROM change_consumer), (SELECT max(changeId) FROM change_log)) "
+			+ "AND changeId < (SELECT max(changeId) FROM change_log)";
+	private final SQLiteDBManager databaseManager;
+	
+	static {
+		// Table names mapped to the INTEGER column identifying a row
+		Map<String, String> capturedTables = new LinkedHashMap<String, String>();
+		capturedTables.put("item", "itemId");
+		capturedTables.put("game", "gameId");
+		capturedTables.put("console", "consoleId");
+		capturedTables.put("accessory", "accessoryId");
+		CAPTURED_TABLES = Collections.unmodifiableMap(capturedTables);
+	}
+
+	/**
+	 * The kind of change made to a row
+	 * 
+	 * @author Russell Yorke
+	 */
+	public enum Operation {
+		INSERT, UPDATE, DELETE
+	}
+
+	/**
+	 * @param databaseManager The database whose changes are captured
+	 */
+	ChangeFeed(SQLiteDBManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * Idempotent method creating the change log and consumer tables
+	 * 
+	 * @throws SQLException If a database error occurs while processing the request.
+	 */
+	@Override
+	public void createTable() throws SQLException {
+		if (!databaseManager.tableExists(LOG_TABLE_NAME) || !databaseManager.tableExists(CONSUMER_TABLE_NAME)) {
+			try (Connection dbConnection = databaseManager.getConnection(true);
+					Statement sqlStatement = dbConnection.createStatement()) {
+				sqlStatement.executeUpdate(CREATE_LOG_TABLE_QUERY);
+				sqlStatement.executeUpdate(CREATE_CONSUMER_TABLE_QUERY);
+			}
+		}
+	}
+
+	/**
+	 * Creates the triggers of every captured table that exists (if they don't
+	 * already exist) as triggers are dropped with their table during a restore
+	 * 
+	 * @throws SQLException If a database error occurs
+	 */
+	public void createTriggers() throws SQLException {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement()) {
+			for (Map.Entry<String, String> capturedTable : CAPTURED_TABLES.entrySet()) {
+				if (databaseManager.tableExists(capturedTable.getKey())) {
+					for (String triggerQuery : getTriggerQueries(capturedTable.getKey(), capturedTable.getValue())) {
+						sqlStatement.executeUpdate(triggerQuery);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the statements creating the triggers that log changes to a table
+	 * 
+	 * @param tableName The table to capture
+	 * @param keyColumn The INTEGER column identifying a row of the table
+	 * @return The CREATE TRIGGER IF NOT EXISTS statements
+	 */
+	static ArrayList<String> getTriggerQueries(String tableName, String keyColumn) {
+		String triggerPrefix = "CREATE TRIGGER IF NOT EXISTS " + tableName + "_change_";
+		ArrayList<String> triggerQueries = new ArrayList<String>();
+
+		triggerQueries.add(triggerPrefix + "insert AFTER INSERT ON " + tableName + " BEGIN "
+				+ logChange(tableName, "NEW." + keyColumn, Operation.INSERT)
+				+ "END");
+		// A changed key is seen by consumers as the old row being deleted
+		triggerQueries.add(triggerPrefix + "update AFTER UPDATE ON " + tableName + " BEGIN "
+				+ String.format("INSERT INTO change_log (tableName, rowKey, operation) "
+						+ "SELECT '%s', OLD.%s, '%s' WHERE OLD.%s IS NOT NEW.%s; ",
+						tableName, keyColumn, Operation.DELETE, keyColumn, keyColumn)
+				+ logChange(tableName, "NEW." + keyColumn, Operation.UPDATE)
+				+ "END");
+		triggerQueries.add(triggerPrefix + "delete AFTER DELETE ON " + tableName + " BEGIN "
+				+ logChange(tableName, "OLD." + keyColumn, Operation.DELETE)
+				+ "END");
+
+		return triggerQueries;
+	}
+
+	/**
+	 * Builds a trigger statement appending an entry to the change log
+	 * 
+	 * @param tableName The captured table
+	 * @param rowKey The expression giving the row's key (NEW.column or OLD.column)
+	 * @param operation The change made
+	 * @return The statement terminated with a semicolon
+	 */
+	private static String logChange(String tableName, String rowKey, Operation operation) {
+		return String.format("INSERT INTO change_log (tableName, rowKey, operation) VALUES ('%s', %s, '%s'); ",
+				tableName, rowKey, operation);
+	}
+
+	/**
+	 * Registers a consumer of the feed. A new consumer starts after the newest
+	 * change; registering an existing consumer keeps its position.
+	 * 
+	 * @param consumerName A name identifying the consumer
+	 * @return The consumer's position
+	 * @throws SQLException If a database error occurs
+	 */
+	public long registerConsumer(String consumerName) throws SQLException {
+		final String registerConsumerQuery = "INSERT OR IGNORE INTO change_consumer (consumerName, position) "
+				+ "SELECT ?, COALESCE(max(changeId), 0) FROM change_log";
+
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				PreparedStatement registerConsumer = dbConnection.prepareStatement(registerConsumerQuery)) {
+			registerConsumer.setString(1, consumerName);
+			registerConsumer.executeUpdate();
+		}
+
+		return getConsumerPosition(consumerName);
+	}
+
+	/**
+	 * Removes a consumer so it no longer holds back compaction of the log
+	 * 
+	 * @param consumerName The consumer to remove
+	 * @throws SQLException If a database error occurs
+	 */
+	public void unregisterConsumer(String consumerName) throws SQLException {
+		final String unregisterConsumerQuery = "DELETE FROM change_consumer WHERE consumerName = ?";
+
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				PreparedStatement unregisterConsumer = dbConnection.prepareStatement(unregisterConsumerQuery)) {
+			unregisterConsumer.setString(1, consumerName);
+			unregisterConsumer.executeUpdate();
+		}
+	}
+
+	/**
+	 * @param consumerName A registered consumer
+	 * @return The id of the last change the consumer acknowledged or -1 if the consumer is not registered
+	 * @throws SQLException If a database error occurs
+	 */
+	public long getConsumerPosition(String consumerName) throws SQLException {
+		final String consumerPositionQuery = "SELECT position FROM change_consumer WHERE consumerName = ?";
+
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement consumerPosition = dbConnection.prepareStatement(consumerPositionQuery)) {
+			consumerPosition.setString(1, consumerName);
+			try (ResultSet position = consumerPosition.executeQuery()) {
+				return (position.next()) ? position.getLong(1) : -1;
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the changes made after a cursor in the order they were made
+	 * 
+	 * @param afterChangeId The id of the last change already processed
+	 * @param batchSize The maximum number of changes to return
+	 * @return A list of changes or null if there are no newer changes
+	 * @throws SQLException If a database error occurs
+	 */
+	public ArrayList<Change> getChanges(long afterChangeId, int batchSize) throws SQLException {
+		final String getChangesQuery = "SELECT changeId, tableName, rowKey, operation FROM change_log "
+				+ "WHERE changeId > ? ORDER BY changeId LIMIT ?";
+		ArrayList<Change> changes = null;
+
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement getChanges = dbConnection.prepareStatement(getChangesQuery)) {
+			getChanges.setLong(1, afterChangeId);
+			getChanges.setInt(2, batchSize);
+			try (ResultSet results = getChanges.executeQuery()) {
+				while (results.next()) {
+					if (changes == null)
+						changes = new ArrayList<Change>();
+
+					changes.add(new Change(results.getLong("changeId"), results.getString("tableName"),
+							results.getLong("rowKey"), Operation.valueOf(results.getString("operation"))));
+				}
+			}
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Retrieves the next batch of changes for a consumer
+	 * 
+	 * @param consumerName A registered consumer
+	 * @param batchSize The maximum number of changes to return
+	 * @return A list of changes or null if there are no changes after the consumer's position
+	 * @throws SQLException If a database error occurs or the consumer is not registered
+	 */
+	public ArrayList<Change> getChanges(String consumerName, int batchSize) throws SQLException {
+		long position = getConsumerPosition(consumerName);
+		if (position < 0)
+			throw new SQLException(consumerName + " is not a registered change consumer");
+
+		return getChanges(position, batchSize);
+	}
+
+	/**
+	 * Records that a consumer has processed every change up to and including
+	 * a change and removes the log entries all consumers have processed.
+	 * A consumer's position never moves backwards.
+	 * 
+	 * @param consumerName A registered consumer
+	 * @param changeId The id of the last change processed
+	 * @throws SQLException If a database error occurs
+	 */
+	public void acknowledge(String consumerName, long changeId) throws SQLException {
+		final String acknowledgeQuery = "UPDATE change_consumer SET position = ? "
+				+ "WHERE consumerName = ? AND position < ?";
+
+		try (Transaction transaction = databaseManager.beginTransaction();
+				PreparedStatement acknowledge = transaction.getConnection().prepareStatement(acknowledgeQuery);
+				Statement compact = transaction.getConnection().createStatement()) {
+			acknowledge.setLong(1, changeId);
+			acknowledge.setString(2, consumerName);
+			acknowledge.setLong(3, changeId);
+			if (acknowledge.executeUpdate() > 0)
+				compact.executeUpdate(COMPACT_QUERY);
+			transaction.commit();
+		}
+	}
+
+	/**
+	 * Removes the log entries every registered consumer has processed. With
+	 * no registered consumers every entry but the newest is removed.
+	 * 
+	 * @return The number of entries removed
+	 * @throws SQLException If a database error occurs
+	 */
+	public int compact() throws SQLException {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement compact = dbConnection.createStatement()) {
+			return compact.executeUpdate(COMPACT_QUERY);
+		}
+	}
+
+	/**
+	 * Creates a list of SQL statements necessary to recreate the
+	 * change log, consumer positions and their data.
+	 * 
+	 * @return A list of SQL commands
+	 * @throws SQLException If a database error occurs.
+	 */
+	@Override
+	public ArrayList<String> exportTable() throws SQLException {
+		ArrayList<String> exportSQLResults = new ArrayList<String>();
+
+		for (String tableName : new String[] { LOG_TABLE_NAME, CONSUMER_TABLE_NAME }) {
+			exportSQLResults.add(String.format("DROP TABLE IF EXISTS %s", tableName));
+			exportSQLResults.add(createQuery(tableName));
+
+			ArrayList<String> dataRecords = databaseManager.exportRecords(tableName);
+			if (dataRecords != null)
+				exportSQLResults.addAll(dataRecords);
+		}
+
+		return exportSQLResults;
+	}
+
+	/**
+	 * Writes the SQL statements necessary to recreate the change log,
+	 * consumer positions and their data directly to a writer.
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		for (String tableName : new String[] { LOG_TABLE_NAME, CONSUMER_TABLE_NAME }) {
+			writer.write(String.format("DROP TABLE IF EXISTS %s\n", tableName));
+			writer.write(createQuery(tableName));
+			writer.write('\n');
+
+			databaseManager.exportRecords(tableName, writer);
+		}
+	}
+
+	/**
+	 * Writes the SQL statements necessary to recreate the change log,
+	 * consumer positions and their data to a binary backup segment.
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		for (String tableName : new String[] { LOG_TABLE_NAME, CONSUMER_TABLE_NAME }) {
+			backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", tableName));
+			backupWriter.writeCommand(createQuery(tableName));
+
+			databaseManager.exportRecords(tableName, backupWriter);
+		}
+	}
+
+	/**
+	 * @param tableName One of the feed's tables
+	 * @return The query creating the table
+	 */
+	private static String createQuery(String tableName) {
+		return (LOG_TABLE_NAME.equals(tableName)) ? CREATE_LOG_TABLE_QUERY : CREATE_CONSUMER_TABLE_QUERY;
+	}
+
+	/**
+	 * A single entry of the change log
+	 * 
+	 * @author Russell Yorke
+	 */
+	public static class Change {
+		private final long changeId;
+		private final String tableName;
+		private final long rowKey;
+		private final Operation operation;
+
+		/**
+		 * @param changeId The position of the change in the log
+		 * @param tableName The table changed
+		 * @param rowKey The id of the row changed
+		 * @param operation The change made
+		 */
+		public Change(long changeId, String tableName, long rowKey, Operation operation) {
+			this.changeId = changeId;
+			this.tableName = tableName;
+			this.rowKey = rowKey;
+			this.operation = operation;
+		}
+
+		/**
+		 * @return The position of the change in the log (the cursor to acknowledge)
+		 */
+		public long getChangeId() {
+			return changeId;
+		}
+
+		/**
+		 * @return The table changed
+		 */
+		public String getTableName() {
+			return tableName;
+		}
+
+		/**
+		 * @return The id of the row changed (such as itemId or gameId)
+		 */
+		public long getRowKey() {
+			return rowKey;
+		}
+
+		/**
+		 * @return The change made
+		 */
+		public Operation getOperation() {
+			return operation;
+		}
+	}
+}
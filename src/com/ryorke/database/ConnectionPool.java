@@ -0,0 +1,722 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of reusable SQLite connections. Connection pragmas are applied
+ * once when a connection is opened rather than every time it is borrowed.
+ *
+ * Connections handed out by the pool are lightweight proxies; closing one returns
+ * the underlying connection to the pool (closing any statements left open) instead
+ * of closing it. A thread that borrows a connection while already holding one
+ * receives the connection it holds, so nested entity manager calls cannot
+ * exhaust the pool.
+ *
+ * @author Russell Yorke
+ */
+public class ConnectionPool {
+	public static final long DEFAULT_BORROW_TIMEOUT = 30000;		// milliseconds
+	public static final long DEFAULT_VALIDATION_INTERVAL = 30000; 	// milliseconds
+	private static final String VALIDATION_QUERY = "SELECT 1";
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+	private static final int STATEMENT_PRUNE_THRESHOLD = 64;
+
+	private final String connectionURL;
+	private final Properties connectionProperties;
+	private final String[] initializationStatements;
+	private int maximumSize;
+	private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+	private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+	private boolean snapshotReads = false;
+	private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+	private final ArrayDeque<PooledConnection> idleConnections = new ArrayDeque<PooledConnection>();
+	private final ThreadLocal<PooledConnection> heldConnection = new ThreadLocal<PooledConnection>();
+	private final ReentrantLock poolLock = new ReentrantLock();
+	private final Condition connectionReleased = poolLock.newCondition();
+	private int openConnections = 0;
+	private boolean closed = false;
+
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maximumWaitTime = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong discardedCount = new AtomicLong();
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+	private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+	/**
+	 * Creates a new, empty connection pool. Connections are opened on demand.
+	 *
+	 * @param connectionURL JDBC URL used to open new connections
+	 * @param connectionProperties Properties (driver pragmas) applied when a connection is opened
+	 * @param maximumSize The maximum number of connections this pool will open
+	 * @param initializationStatements Statements executed once on every newly opened connection
+	 * @throws IllegalArgumentException if maximumSize is less than 1
+	 */
+	public ConnectionPool(String connectionURL, Properties connectionProperties, int maximumSize,
+			String... initializationStatements) {
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("Connection pool size must be at least 1");
+
+		this.connectionURL = connectionURL;
+		this.connectionProperties = connectionProperties;
+		this.maximumSize = maximumSize;
+		this.initializationStatements = initializationStatements;
+	}
+
+	/**
+	 * Borrows a connection from the pool, waiting up to the borrow timeout
+	 * for one to become available. The connection must be closed to return
+	 * it to the pool.
+	 *
+	 * A thread that already holds a connection borrows the same connection
+	 * again. The nested borrow keeps the foreign key setting of the outer
+	 * borrow and ignores enforceForeignKeys, as PRAGMA foreign_keys cannot be
+	 * changed inside the transaction the outer borrow may have begun.
+	 *
+	 * @param enforceForeignKeys Enables or disables foreign key enforcement on a newly borrowed
+	 *                           connection (ignored by a nested borrow)
+	 * @return A pooled database connection
+	 * @throws SQLException if the pool is closed, the wait timed out or a connection could not be opened
+	 */
+	public Connection getConnection(boolean enforceForeignKeys) throws SQLException {
+		PooledConnection pooledConnection = heldConnection.get();
+
+		// A lease closed by another thread leaves a stale reference behind
+		if (pooledConnection != null && pooledConnection.owner != Thread.currentThread())
+			pooledConnection = null;
+
+		if (pooledConnection == null) {
+			pooledConnection = acquire();
+			pooledConnection.owner = Thread.currentThread();
+			try {
+				pooledConnection.setForeignKeys(enforceForeignKeys);
+				if (snapshotReads)
+					pooledConnection.connection.setAutoCommit(false);
+			} catch (SQLException exception) {
+				discard(pooledConnection);
+				throw exception;
+			}
+			heldConnection.set(pooledConnection);
+		}
+
+		pooledConnection.holdCount++;
+		borrowCount.incrementAndGet();
+
+		return pooledConnection.lease();
+	}
+
+	/**
+	 * Checks if the calling thread currently has a connection borrowed from this pool
+	 * 
+	 * @return True if the calling thread holds a connection from this pool
+	 */
+	public boolean isHeldByCurrentThread() {
+		PooledConnection pooledConnection = heldConnection.get();
+		return pooledConnection != null && pooledConnection.owner == Thread.currentThread();
+	}
+	
+	/**
+	 * Takes an idle connection (validating it if it has been idle for a while)
+	 * or opens a new one if the pool has not reached its maximum size.
+	 *
+	 * @return A connection reserved for the calling thread
+	 * @throws SQLException if the wait timed out or a connection could not be opened
+	 */
+	private PooledConnection acquire() throws SQLException {
+		long waitStarted = System.nanoTime();
+		long remainingWait = TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+		boolean waited = false;
+
+		while (true) {
+			PooledConnection pooledConnection = null;
+			boolean openConnection = false;
+
+			poolLock.lock();
+			try {
+				while (pooledConnection == null && !openConnection) {
+					if (closed)
+						throw new SQLException("Connection pool has been closed");
+
+					if (!idleConnections.isEmpty()) {
+						pooledConnection = idleConnections.pop();
+					} else if (openConnections < maximumSize) {
+						openConnections++;
+						openConnection = true;
+					} else if (remainingWait <= 0) {
+						timeoutCount.incrementAndGet();
+						throw new SQLException(String.format("Timed out after %d ms waiting for a database connection",
+								borrowTimeout));
+					} else {
+						waited = true;
+						remainingWait = connectionReleased.awaitNanos(remainingWait);
+					}
+				}
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection", exception);
+			} finally {
+				poolLock.unlock();
+			}
+
+			if (openConnection) {
+				try {
+					pooledConnection = open();
+				} catch (SQLException exception) {
+					connectionClosed();
+					throw exception;
+				}
+			} else if (!isValid(pooledConnection)) {
+				discard(pooledConnection);
+				continue;
+			}
+
+			pooledConnection.statementCache.setMaximumSize(statementCacheSize);
+			recordWait(waitStarted, waited);
+			return pooledConnection;
+		}
+	}
+
+	/**
+	 * Opens a new physical connection and applies the initialization statements.
+	 *
+	 * @return A newly opened connection
+	 * @throws SQLException if the connection could not be opened or initialized
+	 */
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(connectionURL, connectionProperties);
+		try (Statement statement = connection.createStatement()) {
+			for (String initializationStatement : initializationStatements) {
+				statement.execute(initializationStatement);
+			}
+		} catch (SQLException exception) {
+			connection.close();
+			throw exception;
+		}
+
+		createdCount.incrementAndGet();
+		return new PooledConnection(connection);
+	}
+
+	/**
+	 * Performs a health check on an idle connection. Connections used recently are
+	 * assumed healthy to avoid a query on every borrow.
+	 *
+	 * @param pooledConnection The connection to check
+	 * @return True if the connection can be handed out, false if it should be discarded
+	 */
+	private boolean isValid(PooledConnection pooledConnection) {
+		boolean valid = true;
+
+		if (System.currentTimeMillis() - pooledConnection.lastReleased >= validationInterval) {
+			try (Statement statement = pooledConnection.connection.createStatement()) {
+				statement.executeQuery(VALIDATION_QUERY).close();
+			} catch (SQLException exception) {
+				valid = false;
+			}
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Returns a connection to the pool once the owning thread has closed
+	 * every lease it holds on it.
+	 *
+	 * @param pooledConnection The connection being returned
+	 */
+	private void release(PooledConnection pooledConnection) {
+		heldConnection.remove();
+		pooledConnection.owner = null;
+
+		try {
+			if (!pooledConnection.connection.getAutoCommit()) {
+				pooledConnection.connection.rollback();
+				pooledConnection.connection.setAutoCommit(true);
+			}
+		} catch (SQLException exception) {
+			discard(pooledConnection);
+			return;
+		}
+
+		boolean closeConnection = false;
+		poolLock.lock();
+		try {
+			if (closed || openConnections > maximumSize) {
+				openConnections--;
+				closeConnection = true;
+			} else {
+				pooledConnection.lastReleased = System.currentTimeMillis();
+				idleConnections.push(pooledConnection);
+			}
+			connectionReleased.signal();
+		} finally {
+			poolLock.unlock();
+		}
+
+		if (closeConnection)
+			closeQuietly(pooledConnection);
+	}
+
+	/**
+	 * Closes a broken connection and frees its slot in the pool
+	 *
+	 * @param pooledConnection The connection to discard
+	 */
+	private void discard(PooledConnection pooledConnection) {
+		if (heldConnection.get() == pooledConnection)
+			heldConnection.remove();
+
+		discardedCount.incrementAndGet();
+		closeQuietly(pooledConnection);
+		connectionClosed();
+	}
+
+	/**
+	 * Frees a slot in the pool and wakes a waiting borrower
+	 */
+	private void connectionClosed() {
+		poolLock.lock();
+		try {
+			openConnections--;
+			connectionReleased.signal();
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the physical connection ignoring any errors
+	 *
+	 * @param pooledConnection The connection to close
+	 */
+	private void closeQuietly(PooledConnection pooledConnection) {
+		pooledConnection.statementCache.close();
+		try {
+			pooledConnection.connection.close();
+		} catch (SQLException exception) {
+			// Connection is being thrown away
+		}
+	}
+
+	/**
+	 * Records the time spent waiting for a connection
+	 *
+	 * @param waitStarted Time (System.nanoTime) the borrow started
+	 * @param waited True if the borrower had to wait for a connection to be released
+	 */
+	private void recordWait(long waitStarted, boolean waited) {
+		long waitTime = System.nanoTime() - waitStarted;
+		totalWaitTime.addAndGet(waitTime);
+		if (waited)
+			waitCount.incrementAndGet();
+
+		long currentMaximum = maximumWaitTime.get();
+		while (waitTime > currentMaximum && !maximumWaitTime.compareAndSet(currentMaximum, waitTime)) {
+			currentMaximum = maximumWaitTime.get();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and prevents further borrowing. Connections currently
+	 * borrowed are closed as they are returned.
+	 */
+	public void close() {
+		ArrayList<PooledConnection> connectionsToClose = new ArrayList<PooledConnection>();
+
+		poolLock.lock();
+		try {
+			closed = true;
+			connectionsToClose.addAll(idleConnections);
+			openConnections -= idleConnections.size();
+			idleConnections.clear();
+			connectionReleased.signalAll();
+		} finally {
+			poolLock.unlock();
+		}
+
+		for (PooledConnection pooledConnection : connectionsToClose) {
+			closeQuietly(pooledConnection);
+		}
+	}
+
+	/**
+	 * Changes the maximum number of connections. Shrinking the pool closes
+	 * surplus connections as they are returned.
+	 *
+	 * @param maximumSize The new maximum pool size
+	 * @throws IllegalArgumentException if maximumSize is less than 1
+	 */
+	public void setMaximumSize(int maximumSize) {
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("Connection pool size must be at least 1");
+
+		ArrayList<PooledConnection> connectionsToClose = new ArrayList<PooledConnection>();
+		poolLock.lock();
+		try {
+			this.maximumSize = maximumSize;
+			while (openConnections > maximumSize && !idleConnections.isEmpty()) {
+				connectionsToClose.add(idleConnections.removeLast());
+				openConnections--;
+			}
+			connectionReleased.signalAll();
+		} finally {
+			poolLock.unlock();
+		}
+
+		for (PooledConnection pooledConnection : connectionsToClose) {
+			closeQuietly(pooledConnection);
+		}
+	}
+
+	/**
+	 * @return The maximum number of connections this pool will open
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Sets how long a borrower waits for a connection before failing
+	 *
+	 * @param borrowTimeout Timeout in milliseconds
+	 */
+	public void setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+	}
+
+	/**
+	 * Sets how long a connection may sit idle before it is health checked
+	 * on its next borrow
+	 *
+	 * @param validationInterval Interval in milliseconds (0 validates on every borrow)
+	 */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	/**
+	 * When enabled every borrow opens a transaction that is rolled back when the
+	 * connection is returned. Under WAL journaling this gives the borrower a
+	 * consistent snapshot of the database across all the queries it runs.
+	 * 
+	 * @param snapshotReads True to wrap each borrow in a read transaction
+	 */
+	public void setSnapshotReads(boolean snapshotReads) {
+		this.snapshotReads = snapshotReads;
+	}
+
+	/**
+	 * Sets the number of prepared statements cached per connection. Connections
+	 * pick up the new size the next time they are borrowed. 
+	 * 
+	 * @param statementCacheSize Statements cached per connection (0 disables caching)
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+	
+	/**
+	 * @return Number of physical connections currently open
+	 */
+	public int getOpenConnections() {
+		poolLock.lock();
+		try {
+			return openConnections;
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Number of open connections waiting in the pool to be borrowed
+	 */
+	public int getIdleConnections() {
+		poolLock.lock();
+		try {
+			return idleConnections.size();
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Total number of connections borrowed (including nested borrows)
+	 */
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	/**
+	 * @return Number of borrows that had to wait for a connection to be returned
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * @return Total time spent acquiring connections in milliseconds
+	 */
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get());
+	}
+
+	/**
+	 * @return Longest time spent acquiring a single connection in milliseconds
+	 */
+	public long getMaximumWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maximumWaitTime.get());
+	}
+
+	/**
+	 * @return Number of borrows that failed because no connection became available in time
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * @return Number of physical connections opened over the life of this pool
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	/**
+	 * @return Number of connections discarded after failing a health check
+	 */
+	public long getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	/**
+	 * @return Number of prepareStatement calls served from a statement cache
+	 */
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	/**
+	 * @return Number of prepareStatement calls that compiled a new statement
+	 */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	/**
+	 * @return Number of cached statements closed to stay within the cache size
+	 */
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions.get();
+	}
+
+	/**
+	 * Provides a one line summary of the pool metrics
+	 *
+	 * @return Pool metrics as text
+	 */
+	@Override
+	public String toString() {
+		return String.format("ConnectionPool[open=%d, idle=%d, max=%d, borrowed=%d, waited=%d, "
+				+ "totalWait=%dms, maxWait=%dms, timeouts=%d, created=%d, discarded=%d, "
+				+ "statementHits=%d, statementMisses=%d, statementEvictions=%d]",
+				getOpenConnections(), getIdleConnections(), maximumSize, getBorrowCount(), getWaitCount(),
+				getTotalWaitTime(), getMaximumWaitTime(), getTimeoutCount(), getCreatedCount(), getDiscardedCount(),
+				getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions());
+	}
+
+	/**
+	 * A physical connection owned by the pool along with the per-connection
+	 * state the pool needs to track.
+	 *
+	 * @author Russell Yorke
+	 */
+	private class PooledConnection {
+		private final Connection connection;
+		private final StatementCache statementCache;
+		private Boolean foreignKeysEnabled = null;
+		private volatile Thread owner = null;
+		private int holdCount = 0;
+		private long lastReleased = System.currentTimeMillis();
+
+		/**
+		 * Wraps a newly opened connection
+		 *
+		 * @param connection A physical database connection
+		 */
+		public PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.statementCache = new StatementCache(connection, statementCacheSize, statementCacheHits, 
+					statementCacheMisses, statementCacheEvictions);
+		}
+
+		/**
+		 * Enables or disables foreign key enforcement, only issuing the
+		 * pragma when the setting changes.
+		 *
+		 * @param enforceForeignKeys The requested foreign key setting
+		 * @throws SQLException if the pragma fails
+		 */
+		public void setForeignKeys(boolean enforceForeignKeys) throws SQLException {
+			if (foreignKeysEnabled == null || foreignKeysEnabled != enforceForeignKeys) {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute("PRAGMA foreign_keys = " + (enforceForeignKeys ? "ON" : "OFF"));
+				}
+				foreignKeysEnabled = enforceForeignKeys;
+			}
+		}
+
+		/**
+		 * Creates a new proxy for this connection that returns it to the pool when closed
+		 *
+		 * @return A connection proxy
+		 */
+		public Connection lease() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new ConnectionLease(this));
+		}
+	}
+
+	/**
+	 * Handles calls made on a borrowed connection. All calls are passed through
+	 * to the physical connection except close() which closes statements created
+	 * through this lease and hands the connection back to the pool, and 
+	 * prepareStatement(String) which is served from the connection's statement cache.
+	 *
+	 * @author Russell Yorke
+	 */
+	private class ConnectionLease implements InvocationHandler {
+		private final PooledConnection pooledConnection;
+		private final ArrayList<Statement> openStatements = new ArrayList<Statement>();
+		private int pruneThreshold = STATEMENT_PRUNE_THRESHOLD;
+		private boolean closed = false;
+
+		/**
+		 * Creates a lease on a pooled connection
+		 *
+		 * @param pooledConnection The connection being leased
+		 */
+		public ConnectionLease(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+		}
+
+		/**
+		 * Dispatches a call made on the connection proxy
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				close();
+				return null;
+			case "isClosed":
+				return closed || pooledConnection.connection.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled " + pooledConnection.connection.toString();
+			}
+
+			if (closed)
+				throw new SQLException("Connection has already been returned to the pool");
+
+			Object result;
+			if (method.getName().equals("prepareStatement") && args.length == 1) {
+				result = pooledConnection.statementCache.prepareStatement((String) args[0]);
+			} else {
+				try {
+					result = method.invoke(pooledConnection.connection, args);
+				} catch (InvocationTargetException exception) {
+					throw exception.getCause();
+				}
+			}
+
+			if (result instanceof Statement)
+				trackStatement((Statement) result);
+
+			return result;
+		}
+
+		/**
+		 * Remembers a statement so it can be closed when the lease is closed.
+		 * Statements already closed by the caller are pruned periodically so
+		 * long lived leases do not accumulate them.
+		 *
+		 * @param statement A statement created through this lease
+		 * @throws SQLException if a statement cannot be checked
+		 */
+		private void trackStatement(Statement statement) throws SQLException {
+			if (openStatements.size() >= pruneThreshold) {
+				Iterator<Statement> statements = openStatements.iterator();
+				while (statements.hasNext()) {
+					if (statements.next().isClosed())
+						statements.remove();
+				}
+				pruneThreshold = Math.max(STATEMENT_PRUNE_THRESHOLD, openStatements.size() * 2);
+			}
+			openStatements.add(statement);
+		}
+
+		/**
+		 * Closes any statements left open and returns the connection to the pool
+		 * once the borrowing thread holds no other leases on it.
+		 *
+		 * @throws SQLException if a statement fails to close
+		 */
+		private void close() throws SQLException {
+			if (closed)
+				return;
+
+			closed = true;
+			SQLException closeException = null;
+			for (Statement statement : openStatements) {
+				try {
+					statement.close();
+				} catch (SQLException exception) {
+					closeException = exception;
+				}
+			}
+			openStatements.clear();
+
+			if (--pooledConnection.holdCount == 0)
+				release(pooledConnection);
+
+			if (closeException != null)
+				throw closeException;
+		}
+	}
+}
@@ -14,13 +14,18 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 import com.ryorke.entity.Console;
 
@@ -34,15 +39,33 @@ public class ConsoleEntityManager implements EntityManager {
 	private static ConsoleEntityManager entityManager = null;
 	private static ItemEntityManager itemEntityManager = null;
 	private SQLiteDBManager databaseManager = null;
-	private static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS console "
+	private ItemCache itemCache = null;
+	static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS console "
 			+ "(consoleId INTEGER UNIQUE NOT NULL, "	// consoleId = itemId or foreign key
 			+ "color TEXT NOT NULL, "
 			+ "controllersIncluded INTEGER NOT NULL, "
 			+ "diskSpace TEXT NOT NULL, "
-			+ "includedGameIds TEXT, "  // comma-separated gameIds
+			+ "includedGameIds TEXT, "  // legacy comma-separated gameIds, moved to console_included_game
 			+ "modelNumber TEXT NOT NULL,"
 			+ "FOREIGN KEY(consoleId) REFERENCES item(itemId) ON DELETE RESTRICT)";
+	static final String CREATE_INCLUDED_GAME_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS console_included_game "
+			+ "(consoleId INTEGER NOT NULL, "
+			+ "gameId INTEGER NOT NULL, "
+			+ "PRIMARY KEY(consoleId, gameId), "
+			+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE CASCADE, "
+			+ "FOREIGN KEY(gameId) REFERENCES game(gameId) ON DELETE RESTRICT)";
+	// The primary key serves lookups by console, this index lookups by game
+	static final String CREATE_INCLUDED_GAME_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS console_included_game_gameId "
+			+ "ON console_included_game(gameId, consoleId)";
 	private static final String TABLE_NAME = "console";
+	static final String INCLUDED_GAME_TABLE_NAME = "console_included_game";
+	private static final String INSERT_CONSOLE_QUERY = "INSERT INTO console (consoleId, color, controllersIncluded, "
+			+ "diskSpace, modelNumber) VALUES (?, ?, ?, ?, ?)";
+	private static final String UPDATE_CONSOLE_QUERY = "UPDATE console SET color = ?, controllersIncluded = ?, "
+			+ "diskSpace = ?, modelNumber = ? WHERE consoleId = ?";
+	private static final String INSERT_INCLUDED_GAME_QUERY = "INSERT OR IGNORE INTO console_included_game "
+			+ "(consoleId, gameId) VALUES (?, ?)";
+	private static final String DELETE_INCLUDED_GAMES_QUERY = "DELETE FROM console_included_game WHERE consoleId = ?";
 	
 	/** 
 	 * Provides access to the singleton console entity manager
@@ -72,6 +95,7 @@ public class ConsoleEntityManager implements EntityManager {
 	private ConsoleEntityManager() throws IOException, SQLException {
 		databaseManager = SQLiteDBManager.getManager();
 		databaseManager.registerEntityManager(this);		
+		itemCache = databaseManager.getItemCache();
 	}	
 	
 	/**
@@ -84,7 +108,7 @@ public class ConsoleEntityManager implements EntityManager {
 		final String queryConsoleById = "SELECT consoleId as consoleCount FROM console WHERE consoleId = ?";
 		boolean isConsoleId = false; 
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				PreparedStatement statement = dbConnection.prepareStatement(queryConsoleById);) {
 			statement.setInt(1, id);
 			ResultSet results = statement.executeQuery();
@@ -104,12 +128,100 @@ public class ConsoleEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {
-		if (!databaseManager.tableExists("console")) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
-					Statement sqlStatement = dbConnection.createStatement();) {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement();) {
+			if (!databaseManager.tableExists("console"))
 				sqlStatement.executeUpdate(CREATE_TABLE_QUERY);
+			sqlStatement.executeUpdate(CREATE_INCLUDED_GAME_TABLE_QUERY);
+			sqlStatement.executeUpdate(CREATE_INCLUDED_GAME_INDEX_QUERY);
+			
+			// Backups written before the join table still carry the CSV column
+			moveIncludedGameIds(dbConnection);
+		}
+	}
+	
+	/**
+	 * Moves the game ids of the legacy comma-separated includedGameIds column
+	 * into console_included_game and clears the column. Ids of games that no
+	 * longer exist are dropped.
+	 * 
+	 * @param dbConnection The connection to perform the move on
+	 * @throws SQLException If a database error occurs
+	 */
+	static void moveIncludedGameIds(Connection dbConnection) throws SQLException {
+		final String legacyConsolesQuery = "SELECT consoleId, includedGameIds FROM console WHERE includedGameIds IS NOT NULL";
+		final String moveIncludedGameQuery = "INSERT OR IGNORE INTO console_included_game (consoleId, gameId) "
+				+ "SELECT ?, gameId FROM game WHERE gameId = ?";
+		boolean moved = false;
+		
+		try (Statement sqlStatement = dbConnection.createStatement();
+				PreparedStatement moveStatement = dbConnection.prepareStatement(moveIncludedGameQuery)) {
+			try (ResultSet legacyConsoles = sqlStatement.executeQuery(legacyConsolesQuery)) {
+				while (legacyConsoles.next()) {
+					int[] gameIds = parseIncludedGameIds(legacyConsoles.getString("includedGameIds"));
+					for (int gameId : gameIds) {
+						moveStatement.setInt(1, legacyConsoles.getInt("consoleId"));
+						moveStatement.setInt(2, gameId);
+						moveStatement.addBatch();
+					}
+					moved = true;
+				}
+			}
+			
+			if (moved) {
+				moveStatement.executeBatch();
+				sqlStatement.executeUpdate("UPDATE console SET includedGameIds = NULL WHERE includedGameIds IS NOT NULL");
+			}
+		}
+	}
+	
+	/**
+	 * Determines whether a game is included with any console using the
+	 * console_included_game gameId index
+	 * 
+	 * @param gameId The id of the game
+	 * @return True if at least one console includes the game, false otherwise
+	 * @throws SQLException If a database error occurs
+	 */
+	public boolean isIncludedGame(int gameId) throws SQLException {
+		final String includedGameQuery = "SELECT 1 FROM console_included_game WHERE gameId = ? LIMIT 1";
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(includedGameQuery)) {
+			statement.setInt(1, gameId);
+			try (ResultSet results = statement.executeQuery()) {
+				return results.next();
+			}
+		}
+	}
+	
+	/**
+	 * Retrieves the ids of the consoles a game is included with using the
+	 * console_included_game gameId index
+	 * 
+	 * @param gameId The id of the game
+	 * @return The console ids in ascending order or null if no console includes the game
+	 * @throws SQLException If a database error occurs
+	 */
+	public ArrayList<Integer> getConsoleIdsIncludingGame(int gameId) throws SQLException {
+		final String consolesIncludingGameQuery = "SELECT consoleId FROM console_included_game "
+				+ "WHERE gameId = ? ORDER BY consoleId";
+		ArrayList<Integer> consoleIds = null;
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(consolesIncludingGameQuery)) {
+			statement.setInt(1, gameId);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					if (consoleIds == null)
+						consoleIds = new ArrayList<Integer>();
+					
+					consoleIds.add(results.getInt("consoleId"));
+				}
 			}
 		}
+		
+		return consoleIds;
 	}
 	
 	/**
@@ -120,37 +232,23 @@ public class ConsoleEntityManager implements EntityManager {
 	 * @throws ParseException If a release date was incorrectly stored within the database. 
 	 */
 	public ArrayList<Console> getConsoles() throws SQLException, ParseException {
-		final String getAllConsolesQuery = "SELECT * FROM console";
+		final String getAllConsolesQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "consoleId");
 		ArrayList<Console> consoles = null;
+		long cacheGeneration = itemCache.getGeneration();
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				Statement statement = dbConnection.createStatement();
 				ResultSet consoleResults = statement.executeQuery(getAllConsolesQuery)) {
+			SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+			HashMap<Integer, int[]> includedGames = getIncludedGames(dbConnection);
 			while (consoleResults.next()) {
-				int consoleId = consoleResults.getInt("consoleId");
-				String color = consoleResults.getString("color");
-				int controllersIncluded = consoleResults.getInt("controllersIncluded");
-				String diskSpace = consoleResults.getString("diskSpace");				
-				String modelNumber = consoleResults.getString("modelNumber");
-				
-				String gameIdsCSV = consoleResults.getString("includedGameIds");
-				int[] gameIds = null;
-				if (gameIdsCSV != null) {
-					String[] splitGameIds = gameIdsCSV.split(",");
-					gameIds = new int[splitGameIds.length];
-					for (int index = 0; index < splitGameIds.length; index++) {
-						gameIds[index] = Integer.parseInt(splitGameIds[index]);
-					}				
-				}
-				
 				Console console = new Console();
-				console.setItemNumber(consoleId);
-				console.setColor(color);
-				console.setControllersIncluded(controllersIncluded);
-				console.setIncludedGameId(gameIds);
-				console.setDiskSpace(diskSpace);
-				console.setModelNumber(modelNumber);
-				itemEntityManager.loadItem(console);
+				ItemEntityManager.hydrateItem(console, consoleResults, dateFormatter);
+				console.setColor(consoleResults.getString("color"));
+				console.setControllersIncluded(consoleResults.getInt("controllersIncluded"));
+				console.setIncludedGameId(includedGames.get(console.getItemNumber()));
+				console.setDiskSpace(consoleResults.getString("diskSpace"));
+				console.setModelNumber(consoleResults.getString("modelNumber"));
 				
 				if (consoles == null)
 					consoles = new ArrayList<Console>();
@@ -159,9 +257,218 @@ public class ConsoleEntityManager implements EntityManager {
 			}
 		}
 		
+		itemCache.putAll(consoles, cacheGeneration);
 		return consoles; 
 	}
 
+	/**
+	 * Retrieves one page of consoles using keyset pagination (see Page)
+	 * 
+	 * @param sortKey Orders the consoles by console id or product name
+	 * @param continuationToken The token of the previous page or null for the first page
+	 * @param limit The maximum number of consoles in the page
+	 * @return The page of consoles
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a value stored in the database is not formatted correctly. 
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of the sort key's
+	 */
+	public Page<Console> getConsoles(Page.SortKey sortKey, String continuationToken, int limit) 
+			throws SQLException, ParseException {
+		final String getConsolesPageQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "consoleId")
+				+ Page.keysetClause(sortKey, "console.consoleId", "item.name", continuationToken);
+		ArrayList<Console> consoles = null;
+		String nextContinuationToken = null;
+		long cacheGeneration = itemCache.getGeneration();
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(getConsolesPageQuery)) {
+			Page.bindKeyset(statement, sortKey, continuationToken, limit);
+			try (ResultSet consoleResults = statement.executeQuery()) {
+				SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+				while (consoleResults.next()) {
+					if (consoles != null && consoles.size() == limit) {
+						Console lastConsole = consoles.get(limit - 1);
+						nextContinuationToken = Page.continuationToken(sortKey, lastConsole.getItemNumber(), 
+								lastConsole.getProductName());
+						break;
+					}
+					
+					Console console = new Console();
+					ItemEntityManager.hydrateItem(console, consoleResults, dateFormatter);
+					console.setColor(consoleResults.getString("color"));
+					console.setControllersIncluded(consoleResults.getInt("controllersIncluded"));
+					console.setDiskSpace(consoleResults.getString("diskSpace"));
+					console.setModelNumber(consoleResults.getString("modelNumber"));
+					
+					if (consoles == null)
+						consoles = new ArrayList<Console>();
+					
+					consoles.add(console);
+				}
+			}
+			
+			if (consoles != null) {
+				HashMap<Integer, int[]> includedGames = getIncludedGames(dbConnection, consoles);
+				for (Console console : consoles) {
+					console.setIncludedGameId(includedGames.get(console.getItemNumber()));
+				}
+			}
+		}
+		
+		itemCache.putAll(consoles, cacheGeneration);
+		return new Page<Console>(consoles, nextContinuationToken);
+	}
+
+	/**
+	 * Loads the included games of every console in a single pass over the
+	 * console_included_game primary key
+	 * 
+	 * @param dbConnection The connection to read from
+	 * @return The included game ids in ascending order keyed by console id 
+	 *         (consoles without included games have no entry)
+	 * @throws SQLException If a database error occurs
+	 */
+	static HashMap<Integer, int[]> getIncludedGames(Connection dbConnection) throws SQLException {
+		final String includedGamesQuery = "SELECT consoleId, gameId FROM console_included_game ORDER BY consoleId, gameId";
+		HashMap<Integer, int[]> includedGames = new HashMap<Integer, int[]>();
+		
+		try (Statement statement = dbConnection.createStatement();
+				ResultSet includedGameResults = statement.executeQuery(includedGamesQuery)) {
+			readIncludedGames(includedGameResults, includedGames);
+		}
+		
+		return includedGames;
+	}
+
+	/**
+	 * Loads the included games of some consoles with a lookup on the
+	 * console_included_game primary key per console
+	 * 
+	 * @param dbConnection The connection to read from
+	 * @param consoles The consoles whose included games are needed
+	 * @return The included game ids in ascending order keyed by console id 
+	 *         (consoles without included games have no entry)
+	 * @throws SQLException If a database error occurs
+	 */
+	static HashMap<Integer, int[]> getIncludedGames(Connection dbConnection, List<Console> consoles) 
+			throws SQLException {
+		StringBuilder consoleIdParameters = new StringBuilder();
+		for (int index = 0; index < consoles.size(); index++) {
+			consoleIdParameters.append((index == 0) ? "?" : ", ?");
+		}
+		final String includedGamesQuery = String.format("SELECT consoleId, gameId FROM console_included_game "
+				+ "WHERE consoleId IN (%s) ORDER BY consoleId, gameId", consoleIdParameters);
+		HashMap<Integer, int[]> includedGames = new HashMap<Integer, int[]>();
+		
+		try (PreparedStatement statement = dbConnection.prepareStatement(includedGamesQuery)) {
+			for (int index = 0; index < consoles.size(); index++) {
+				statement.setInt(index + 1, consoles.get(index).getItemNumber());
+			}
+			try (ResultSet includedGameResults = statement.executeQuery()) {
+				readIncludedGames(includedGameResults, includedGames);
+			}
+		}
+		
+		return includedGames;
+	}
+
+	/**
+	 * Groups included game rows ordered by consoleId and gameId by console
+	 * 
+	 * @param includedGameResults The consoleId and gameId rows
+	 * @param includedGames Receives the included game ids keyed by console id
+	 * @throws SQLException If a database error occurs
+	 */
+	private static void readIncludedGames(ResultSet includedGameResults, HashMap<Integer, int[]> includedGames) 
+			throws SQLException {
+		int consoleId = 0;
+		int[] gameIds = new int[8];
+		int gameCount = 0;
+		while (includedGameResults.next()) {
+			if (gameCount > 0 && includedGameResults.getInt("consoleId") != consoleId) {
+				includedGames.put(consoleId, Arrays.copyOf(gameIds, gameCount));
+				gameCount = 0;
+			}
+			
+			consoleId = includedGameResults.getInt("consoleId");
+			if (gameCount == gameIds.length)
+				gameIds = Arrays.copyOf(gameIds, gameCount * 2);
+			gameIds[gameCount++] = includedGameResults.getInt("gameId");
+		}
+		
+		if (gameCount > 0)
+			includedGames.put(consoleId, Arrays.copyOf(gameIds, gameCount));
+	}
+
+	/**
+	 * Converts the legacy comma-separated includedGameIds column into an array
+	 * 
+	 * @param gameIdsCSV Comma-separated game ids
+	 * @return The game ids (empty entries are skipped)
+	 * @throws SQLException If the column contains an entry that is not a number
+	 */
+	private static int[] parseIncludedGameIds(String gameIdsCSV) throws SQLException {
+		String[] splitGameIds = gameIdsCSV.split(",");
+		int[] gameIds = new int[splitGameIds.length];
+		int gameCount = 0;
+		for (String gameId : splitGameIds) {
+			if (gameId.trim().isEmpty())
+				continue;
+			
+			try {
+				gameIds[gameCount++] = Integer.parseInt(gameId.trim());
+			} catch (NumberFormatException exception) {
+				throw new SQLException(String.format("Invalid included game id \"%s\"", gameId), exception);
+			}
+		}
+		
+		return Arrays.copyOf(gameIds, gameCount);
+	}
+	
+	/**
+	 * Replaces the included games of consoles with the games of the console entities
+	 * 
+	 * @param consoles The consoles being saved
+	 * @param transaction The transaction to perform the changes in
+	 * @param replace If true the existing included games are deleted first (false for new consoles)
+	 * @throws SQLException If a database error occurs
+	 */
+	private static void saveIncludedGames(List<Console> consoles, Transaction transaction, boolean replace) 
+			throws SQLException {
+		try (PreparedStatement deleteStatement = transaction.getConnection().prepareStatement(DELETE_INCLUDED_GAMES_QUERY);
+				PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_INCLUDED_GAME_QUERY)) {
+			int batchCount = 0;
+			for (Console console : consoles) {
+				if (replace) {
+					deleteStatement.setInt(1, console.getItemNumber());
+					deleteStatement.addBatch();
+					batchCount++;
+				}
+				
+				if (console.getIncludedGameId() != null) {
+					for (int gameId : console.getIncludedGameId()) {
+						insertStatement.setInt(1, console.getItemNumber());
+						insertStatement.setInt(2, gameId);
+						insertStatement.addBatch();
+						batchCount++;
+					}
+				}
+				
+				// Batches are flushed between consoles so a console's delete runs before its inserts
+				if (batchCount >= ItemEntityManager.BATCH_SIZE) {
+					deleteStatement.executeBatch();
+					insertStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0) {
+				deleteStatement.executeBatch();
+				insertStatement.executeBatch();
+			}
+		}
+	}
+	
 	/**
 	 * Creates a new console record (and associated item and manufacture records) within database. 
 	 * Once created, the consoleId will be updated to reflect the consoleId within the database
@@ -170,34 +477,35 @@ public class ConsoleEntityManager implements EntityManager {
 	 * @throws SQLException 
 	 */
 	public void addConsole(Console console) throws SQLException {
-		final String insertConsoleQuery = "INSERT INTO console (consoleId, color, controllersIncluded, "
-				+ "diskSpace, includedGameIds, modelNumber) VALUES (?, ?, ?, ?, ?, ?)";
-		
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addConsole(console, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			console.setItemNumber(0);
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Creates a new console record (and associated item) within an existing transaction.
+	 * Once created, the consoleId will be updated to reflect the consoleId within the database
+	 * 
+	 * @param console A new console entity
+	 * @param transaction The transaction to perform the insert in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addConsole(Console console, Transaction transaction) throws SQLException {
 		// Create the associated item record first to acquire a new itemId
-		itemEntityManager.addItem(console);
+		itemEntityManager.addItem(console, transaction);
+		itemCache.invalidate(Arrays.asList(console), transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement insertStatement = dbConnection.prepareStatement(insertConsoleQuery)) {
-			insertStatement.setInt(1, console.getItemNumber());
-			insertStatement.setString(2, console.getColor());
-			insertStatement.setInt(3, console.getControllersIncluded());
-			insertStatement.setString(4, console.getDiskSpace());
-			insertStatement.setString(6, console.getModelNumber());
-			
-			String includedGameIds = null;
-			if (console.getIncludedGameId() != null) {
-				for (int gameId : console.getIncludedGameId()) {
-					if (includedGameIds == null) {
-						includedGameIds = Integer.toString(gameId);
-					} else {
-						includedGameIds += "," + Integer.toString(gameId);
-					}
-				}
-			}
-			insertStatement.setString(5, includedGameIds);
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_CONSOLE_QUERY)) {
+			bindInsertConsole(insertStatement, console);
 			
 			insertStatement.executeUpdate();
 		}
+		
+		saveIncludedGames(Arrays.asList(console), transaction, false);
 	}
 	
 	/**
@@ -207,35 +515,33 @@ public class ConsoleEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void updateConsole(Console console) throws SQLException {
-		final String updateConsoleQuery = "UPDATE console SET color = ?, controllersIncluded = ?, "
-				+ "diskSpace = ?, includedGameIds = ?, modelNumber = ? WHERE consoleId = ?";
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateConsole(console, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates the console entry (and associated item) within an existing transaction
+	 * 
+	 * @param console Console details to be saved to the database
+	 * @param transaction The transaction to perform the update in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateConsole(Console console, Transaction transaction) throws SQLException {
+		itemCache.invalidate(Arrays.asList(console), transaction);
 		
 		// Update the item component of this console
-		itemEntityManager.updateItem(console);
+		itemEntityManager.updateItem(console, transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement updateStatement = dbConnection.prepareStatement(updateConsoleQuery)) {
-			updateStatement.setInt(6, console.getItemNumber());
-			updateStatement.setString(1, console.getColor());
-			updateStatement.setInt(2, console.getControllersIncluded());
-			updateStatement.setString(3, console.getDiskSpace());
-			updateStatement.setString(5, console.getModelNumber());
-			
-			String includedGameIds = null;
-			if (console.getIncludedGameId() != null) {
-				for (int gameId : console.getIncludedGameId()) {
-					if (includedGameIds == null) {
-						includedGameIds = Integer.toString(gameId);
-					} else {
-						includedGameIds += "," + Integer.toString(gameId);
-					}
-				}
-			}
-			updateStatement.setString(4, includedGameIds);
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_CONSOLE_QUERY)) {
+			bindUpdateConsole(updateStatement, console);
 			
 			updateStatement.executeUpdate();
 			
 		}
+		
+		saveIncludedGames(Arrays.asList(console), transaction, true);
 	}
 	
 	/**
@@ -244,18 +550,165 @@ public class ConsoleEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void deleteConsole(Console console) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			deleteConsole(console, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Deletes the console entry (and associated item entry) within an existing transaction
+	 * 
+	 * @param console The console to be deleted
+	 * @param transaction The transaction to perform the delete in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void deleteConsole(Console console, Transaction transaction) throws SQLException {
 		final String deleteConsoleQuery = "DELETE FROM console WHERE consoleId = ?";
+		
+		itemCache.invalidate(Arrays.asList(console), transaction);
+			
+		try (PreparedStatement deleteIncludedStatement = transaction.getConnection().prepareStatement(DELETE_INCLUDED_GAMES_QUERY);
+				PreparedStatement deleteStatement = transaction.getConnection().prepareStatement(deleteConsoleQuery)) {
+			deleteIncludedStatement.setInt(1, console.getItemNumber());
+			deleteIncludedStatement.executeUpdate();
 			
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement deleteStatement = dbConnection.prepareStatement(deleteConsoleQuery)) {
 			deleteStatement.setInt(1, console.getItemNumber());			
 			deleteStatement.executeUpdate();
 			
 			// Console to be deleted after the console portion
-			itemEntityManager.deleteItem(console);
+			itemEntityManager.deleteItem(console, transaction);
+		}
+	}
+	
+	/**
+	 * Creates a group of new console records (and associated items) using batched inserts within
+	 * a single transaction. Once created, each consoleId will be updated to reflect the consoleId 
+	 * within the database
+	 * 
+	 * @param consoles New console entities
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addConsoles(List<Console> consoles) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addConsoles(consoles, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			for (Console console : consoles) {
+				console.setItemNumber(0);
+			}
+			throw exception;
 		}
 	}
 	
+	/**
+	 * Creates a group of new console records (and associated items) using batched inserts within
+	 * an existing transaction. Once created, each consoleId will be updated to reflect the consoleId 
+	 * within the database
+	 * 
+	 * @param consoles New console entities
+	 * @param transaction The transaction to perform the inserts in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addConsoles(List<Console> consoles, Transaction transaction) throws SQLException {
+		// Create the associated item records first to acquire the new itemIds
+		itemEntityManager.addItems(consoles, transaction);
+		itemCache.invalidate(consoles, transaction);
+		
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_CONSOLE_QUERY)) {
+			int batchCount = 0;
+			for (Console console : consoles) {
+				bindInsertConsole(insertStatement, console);
+				insertStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					insertStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				insertStatement.executeBatch();
+		}
+		
+		saveIncludedGames(consoles, transaction, false);
+	}
+	
+	/**
+	 * Updates a group of console entries (and associated items) using batched updates within
+	 * a single transaction
+	 * 
+	 * @param consoles Console details to be saved to the database
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateConsoles(List<Console> consoles) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateConsoles(consoles, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates a group of console entries (and associated items) using batched updates within
+	 * an existing transaction
+	 * 
+	 * @param consoles Console details to be saved to the database
+	 * @param transaction The transaction to perform the updates in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateConsoles(List<Console> consoles, Transaction transaction) throws SQLException {
+		itemCache.invalidate(consoles, transaction);
+		itemEntityManager.updateItems(consoles, transaction);
+		
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_CONSOLE_QUERY)) {
+			int batchCount = 0;
+			for (Console console : consoles) {
+				bindUpdateConsole(updateStatement, console);
+				updateStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					updateStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				updateStatement.executeBatch();
+		}
+		
+		saveIncludedGames(consoles, transaction, true);
+	}
+	
+	/**
+	 * Binds the console specific columns of the insert console query
+	 * 
+	 * @param statement The insert console statement
+	 * @param console The console being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindInsertConsole(PreparedStatement statement, Console console) throws SQLException {
+		statement.setInt(1, console.getItemNumber());
+		statement.setString(2, console.getColor());
+		statement.setInt(3, console.getControllersIncluded());
+		statement.setString(4, console.getDiskSpace());
+		statement.setString(5, console.getModelNumber());
+	}
+	
+	/**
+	 * Binds the console specific columns of the update console query
+	 * 
+	 * @param statement The update console statement
+	 * @param console The console being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindUpdateConsole(PreparedStatement statement, Console console) throws SQLException {
+		statement.setInt(5, console.getItemNumber());
+		statement.setString(1, console.getColor());
+		statement.setInt(2, console.getControllersIncluded());
+		statement.setString(3, console.getDiskSpace());
+		statement.setString(4, console.getModelNumber());
+	}
+	
 	/**
 	 * Creates a list of SQL statements necessary to recreate the
 	 * database table and data within the table. 
@@ -274,7 +727,59 @@ public class ConsoleEntityManager implements EntityManager {
 		if (dataRecords != null)
 			exportSQLResults.addAll(dataRecords);
 		
+		exportSQLResults.add(String.format("DROP TABLE IF EXISTS %s", INCLUDED_GAME_TABLE_NAME));
+		exportSQLResults.add(CREATE_INCLUDED_GAME_TABLE_QUERY);
+		dataRecords = databaseManager.exportRecords(INCLUDED_GAME_TABLE_NAME);
+		if (dataRecords != null)
+			exportSQLResults.addAll(dataRecords);
+		exportSQLResults.add(CREATE_INCLUDED_GAME_INDEX_QUERY);
+		
 		return exportSQLResults;
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", ConsoleEntityManager.TABLE_NAME));
+		writer.write(ConsoleEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(ConsoleEntityManager.TABLE_NAME, writer);
+		
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", INCLUDED_GAME_TABLE_NAME));
+		writer.write(CREATE_INCLUDED_GAME_TABLE_QUERY);
+		writer.write('\n');
+		databaseManager.exportRecords(INCLUDED_GAME_TABLE_NAME, writer);
+		writer.write(CREATE_INCLUDED_GAME_INDEX_QUERY);
+		writer.write('\n');
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", ConsoleEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(ConsoleEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(ConsoleEntityManager.TABLE_NAME, backupWriter);
+		
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", INCLUDED_GAME_TABLE_NAME));
+		backupWriter.writeCommand(CREATE_INCLUDED_GAME_TABLE_QUERY);
+		databaseManager.exportRecords(INCLUDED_GAME_TABLE_NAME, backupWriter);
+		backupWriter.writeCommand(CREATE_INCLUDED_GAME_INDEX_QUERY);
+	}
 
 }
@@ -0,0 +1,872 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ryorke.database.InsertStatementParser.ParsedInsert;
+
+/**
+ * Restores a database from a file of SQL commands (one per line) as produced
+ * by SQLiteDBManager.exportDatabase. Commands are executed in transactions
+ * committed every commit interval statements rather than one transaction per
+ * statement. Foreign keys are not enforced while loading as the export order
+ * does not follow table dependencies; instead the whole database is checked
+ * once with PRAGMA foreign_key_check before the final commit.
+ * 
+ * Blank lines and lines starting with -- are skipped.
+ * 
+ * By default the INSERT statements written by exportRecords are not compiled
+ * one by one. Each table's INSERT template is prepared once and the literal
+ * values parsed from every line are bound to it in batches; all other commands
+ * (DDL) are executed as written.
+ * 
+ * Binary backups (see BinaryBackupWriter) are restored the same way with each
+ * segment decoded as one chunk and every row bound to its table's template.
+ * 
+ * Incremental backups (see SQLiteDBManager.exportDatabaseChanges) are only
+ * applied to a database at the version the backup was taken from; importChain
+ * restores a full backup followed by a chain of incremental backups.
+ * 
+ * The file is read through a BackupFileReader which maps the file into memory
+ * and splits lines on raw bytes; progress is reported as the exact byte offset
+ * reached. When parser threads are configured the import runs as a pipeline:
+ * a reader thread reads the file in large chunks, the parser threads decode
+ * and parse chunks in parallel and the calling thread applies the parsed
+ * chunks in file order. The stages are connected by a bounded queue so the
+ * reader waits when the database falls behind.
+ * 
+ * @author Russell Yorke
+ */
+public class DatabaseImporter {
+	public static final int DEFAULT_COMMIT_INTERVAL = 10000; // statements
+	public static final int DEFAULT_PARSER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private static final int PROGRESS_INTERVAL = 500; // statements
+	private static final int CHUNK_SIZE = 1024 * 1024; // bytes read per pipeline chunk
+	private static final int CHUNKS_PER_PARSER = 2; // chunks queued ahead of the writer per parser
+	private static final int BATCH_SIZE = 1000; // rows bound per executeBatch
+	private static final int MAXIMUM_TEMPLATES = 64;
+	private static final Pattern BACKUP_HEADER = Pattern.compile(
+			SQLiteDBManager.BACKUP_HEADER.replace("%d", "(\\d+)"));
+	private static final Pattern INCREMENTAL_BACKUP_HEADER = Pattern.compile(
+			SQLiteDBManager.INCREMENTAL_BACKUP_HEADER.replace("%d", "(\\d+)"));
+	private SQLiteDBManager databaseManager;
+	private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+	private int parserThreads = DEFAULT_PARSER_THREADS;
+	private boolean templateBinding = true;
+	private ProgressListener progressListener = null;
+
+	/**
+	 * Creates a new importer for the database
+	 * 
+	 * @param databaseManager The database to import into
+	 */
+	public DatabaseImporter(SQLiteDBManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * Sets the number of statements executed between commits.
+	 * 
+	 * @param commitInterval Statements per transaction or 0 to import the whole file in one transaction
+	 */
+	public void setCommitInterval(int commitInterval) {
+		if (commitInterval < 0)
+			throw new IllegalArgumentException("Commit interval must not be negative");
+
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * @return The number of statements executed between commits (0 for a single transaction)
+	 */
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * Sets the number of threads parsing the import file while the calling
+	 * thread writes to the database.
+	 * 
+	 * @param parserThreads Number of parser threads or 0 to read, parse and write on the calling thread
+	 */
+	public void setParserThreads(int parserThreads) {
+		if (parserThreads < 0)
+			throw new IllegalArgumentException("Parser threads must not be negative");
+
+		this.parserThreads = parserThreads;
+	}
+
+	/**
+	 * @return The number of parser threads (0 when the import runs on the calling thread only)
+	 */
+	public int getParserThreads() {
+		return parserThreads;
+	}
+
+	/**
+	 * Enables or disables binding exported INSERT statements to one prepared
+	 * statement per template instead of compiling every line.
+	 * 
+	 * @param templateBinding true to bind INSERT values, false to execute every line as written
+	 */
+	public void setTemplateBinding(boolean templateBinding) {
+		this.templateBinding = templateBinding;
+	}
+
+	/**
+	 * @return true if exported INSERT statements are bound to cached templates
+	 */
+	public boolean isTemplateBinding() {
+		return templateBinding;
+	}
+
+	/**
+	 * Sets the listener notified with the number of bytes of the import
+	 * file consumed so far
+	 * 
+	 * @param progressListener A listener or null for no progress updates
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Executes every SQL command within the import file. Binary backups written 
+	 * by SQLiteDBManager.exportBinaryDatabase are recognized by their header.
+	 * An incremental backup is only applied if the database is at the version 
+	 * the backup was taken from. Tables and change tracking triggers dropped by 
+	 * the import are recreated once it completes.
+	 * 
+	 * @param importFile A file of SQL commands, one per line, or a binary backup
+	 * @return The number of statements executed
+	 * @throws IOException If the import file cannot be read or is an incremental 
+	 *                     backup for a different version of the database
+	 * @throws SQLException If a statement fails or the imported data violates a foreign key.
+	 *                      Work committed by earlier intervals is kept.
+	 */
+	public long importFile(File importFile) throws IOException, SQLException {
+		long statementCount;
+
+		if (BinaryBackupReader.isBinaryBackup(importFile)) {
+			statementCount = importBinaryFile(importFile);
+		} else {
+			long[] incrementalVersions = readIncrementalVersions(importFile);
+			if (incrementalVersions != null) {
+				long databaseVersion = databaseManager.getModificationVersion();
+				if (databaseVersion != incrementalVersions[0])
+					throw new IOException(String.format("%s applies to version %d but the database is at version %d",
+							importFile.getName(), incrementalVersions[0], databaseVersion));
+			}
+			statementCount = importTextFile(importFile);
+		}
+
+		databaseManager.refreshSchema();
+		return statementCount;
+	}
+
+	/**
+	 * Restores a full backup followed by incremental backups in the order given.
+	 * The chain is checked before anything is imported: each incremental backup 
+	 * must start at the version the previous backup ended at. A binary base 
+	 * backup carries no version header and is checked once it is restored.
+	 * 
+	 * @param baseFile A full backup (SQL or binary)
+	 * @param incrementalFiles Incremental backups, oldest first
+	 * @return The number of statements executed
+	 * @throws IOException If a file cannot be read or the chain is broken
+	 * @throws SQLException If a statement fails or the imported data violates a foreign key
+	 */
+	public long importChain(File baseFile, List<File> incrementalFiles) throws IOException, SQLException {
+		long version = -1;
+		if (!BinaryBackupReader.isBinaryBackup(baseFile))
+			version = readBackupVersion(baseFile);
+
+		for (File incrementalFile : incrementalFiles) {
+			long[] incrementalVersions = readIncrementalVersions(incrementalFile);
+			if (incrementalVersions == null)
+				throw new IOException(incrementalFile.getName() + " is not an incremental backup");
+			if (version >= 0 && incrementalVersions[0] != version)
+				throw new IOException(String.format("%s applies to version %d but the previous backup ends at version %d",
+						incrementalFile.getName(), incrementalVersions[0], version));
+			version = incrementalVersions[1];
+		}
+
+		long statementCount = importFile(baseFile);
+		for (File incrementalFile : incrementalFiles) {
+			statementCount += importFile(incrementalFile);
+		}
+
+		return statementCount;
+	}
+
+	/**
+	 * Reads the version recorded on the first line of a full SQL backup
+	 * 
+	 * @param backupFile A file of SQL commands
+	 * @return The version or -1 if the backup has no version header
+	 * @throws IOException If the file cannot be read
+	 */
+	private static long readBackupVersion(File backupFile) throws IOException {
+		Matcher header = BACKUP_HEADER.matcher(readFirstLine(backupFile));
+		return (header.matches()) ? Long.parseLong(header.group(1)) : -1;
+	}
+
+	/**
+	 * Reads the versions recorded on the first line of an incremental backup
+	 * 
+	 * @param backupFile A file of SQL commands
+	 * @return The version the changes apply to and the version they lead to, 
+	 *         or null if the file is not an incremental backup
+	 * @throws IOException If the file cannot be read
+	 */
+	private static long[] readIncrementalVersions(File backupFile) throws IOException {
+		if (BinaryBackupReader.isBinaryBackup(backupFile))
+			return null;
+
+		Matcher header = INCREMENTAL_BACKUP_HEADER.matcher(readFirstLine(backupFile));
+		if (!header.matches())
+			return null;
+
+		return new long[] { Long.parseLong(header.group(1)), Long.parseLong(header.group(2)) };
+	}
+
+	/**
+	 * @param backupFile A file of SQL commands
+	 * @return The first line of the file without surrounding whitespace (empty if the file is empty)
+	 * @throws IOException If the file cannot be read
+	 */
+	private static String readFirstLine(File backupFile) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(backupFile), Charset.forName("UTF-8")))) {
+			String line = reader.readLine();
+			return (line != null) ? line.trim() : "";
+		}
+	}
+
+	/**
+	 * Restores a file of SQL commands
+	 * 
+	 * @param importFile A file of SQL commands, one per line
+	 * @return The number of statements executed
+	 * @throws IOException If the import file cannot be read
+	 * @throws SQLException If a statement fails or the imported data violates a foreign key
+	 */
+	private long importTextFile(File importFile) throws IOException, SQLException {
+		long totalBytes;
+		long statementCount;
+
+		try (BackupFileReader backupReader = new BackupFileReader(importFile);
+				Connection dbConnection = databaseManager.getConnection(false);
+				CommandWriter commandWriter = new CommandWriter(dbConnection)) {
+			totalBytes = backupReader.getSize();
+			if (parserThreads > 0)
+				statementCount = importPipelined(new LineChunkReader(backupReader), totalBytes, commandWriter);
+			else
+				statementCount = importSerially(backupReader, commandWriter);
+		}
+
+		if (progressListener != null)
+			progressListener.progressUpdated(totalBytes, totalBytes);
+
+		return statementCount;
+	}
+
+	/**
+	 * Restores a binary backup. Segments are decoded (CRC check, decompression
+	 * and conversion to rows) by the parser threads while rows are bound to each 
+	 * table's INSERT template in batches on the calling thread.
+	 * 
+	 * @param importFile A binary backup
+	 * @return The number of statements executed
+	 * @throws IOException If the backup cannot be read or is corrupt
+	 * @throws SQLException If a statement fails or the imported data violates a foreign key
+	 */
+	private long importBinaryFile(File importFile) throws IOException, SQLException {
+		long totalBytes;
+		long statementCount;
+
+		try (BinaryBackupReader backupReader = new BinaryBackupReader(importFile);
+				Connection dbConnection = databaseManager.getConnection(false);
+				CommandWriter commandWriter = new CommandWriter(dbConnection)) {
+			totalBytes = backupReader.getSize();
+			if (parserThreads > 0) {
+				statementCount = importPipelined(new SegmentChunkReader(backupReader), totalBytes, commandWriter);
+			} else {
+				BinaryBackupReader.Segment segment;
+				while ((segment = backupReader.readSegment()) != null) {
+					for (Object command : BinaryBackupReader.decode(segment)) {
+						commandWriter.apply(command);
+					}
+					if (progressListener != null)
+						progressListener.progressUpdated(segment.endOffset, totalBytes);
+				}
+				statementCount = commandWriter.finish();
+			}
+		}
+
+		if (progressListener != null)
+			progressListener.progressUpdated(totalBytes, totalBytes);
+
+		return statementCount;
+	}
+
+	/**
+	 * Checks that a backup file can be restored without touching the database.
+	 * Every INSERT statement must be in the form written by exportRecords; every
+	 * segment of a binary backup must pass its CRC check and decode.
+	 * 
+	 * @param backupFile A file of SQL commands, one per line, or a binary backup
+	 * @return The number of commands in the file
+	 * @throws IOException If the file cannot be read or contains a malformed command
+	 */
+	public long verifyFile(File backupFile) throws IOException {
+		if (BinaryBackupReader.isBinaryBackup(backupFile))
+			return verifyBinaryFile(backupFile);
+
+		long commandCount = 0;
+
+		try (BackupFileReader backupReader = new BackupFileReader(backupFile)) {
+			String command;
+			while ((command = backupReader.readCommand()) != null) {
+				if (command.startsWith("INSERT ") && InsertStatementParser.parse(command) == null)
+					throw new IOException("Malformed INSERT statement on line " + backupReader.getLineNumber());
+
+				commandCount++;
+				if (progressListener != null && commandCount % PROGRESS_INTERVAL == 0)
+					progressListener.progressUpdated(backupReader.getPosition(), backupReader.getSize());
+			}
+
+			if (progressListener != null)
+				progressListener.progressUpdated(backupReader.getSize(), backupReader.getSize());
+		}
+
+		return commandCount;
+	}
+
+	/**
+	 * Checks every segment of a binary backup
+	 * 
+	 * @param backupFile A binary backup
+	 * @return The number of commands in the backup
+	 * @throws IOException If the file cannot be read or a segment is corrupt
+	 */
+	private long verifyBinaryFile(File backupFile) throws IOException {
+		long commandCount = 0;
+
+		try (BinaryBackupReader backupReader = new BinaryBackupReader(backupFile)) {
+			BinaryBackupReader.Segment segment;
+			while ((segment = backupReader.readSegment()) != null) {
+				commandCount += BinaryBackupReader.decode(segment).size();
+				if (progressListener != null)
+					progressListener.progressUpdated(segment.endOffset, backupReader.getSize());
+			}
+
+			if (progressListener != null)
+				progressListener.progressUpdated(backupReader.getSize(), backupReader.getSize());
+		}
+
+		return commandCount;
+	}
+
+	/**
+	 * Reads, parses and writes every command on the calling thread
+	 * 
+	 * @param backupReader Reader positioned at the start of the import file
+	 * @param commandWriter Writer applying commands to the database
+	 * @return The number of statements executed
+	 * @throws IOException If the import file cannot be read
+	 * @throws SQLException If a statement fails
+	 */
+	private long importSerially(BackupFileReader backupReader, CommandWriter commandWriter)
+			throws IOException, SQLException {
+		String command;
+		while ((command = backupReader.readCommand()) != null) {
+			commandWriter.apply(parseCommand(command));
+			if (progressListener != null && commandWriter.getStatementCount() % PROGRESS_INTERVAL == 0)
+				progressListener.progressUpdated(backupReader.getPosition(), backupReader.getSize());
+		}
+
+		return commandWriter.finish();
+	}
+
+	/**
+	 * Runs the import as a reader, parser and writer pipeline. The calling thread
+	 * is the writer and applies chunks in the order they were read.
+	 * 
+	 * @param chunkReader Reader producing the chunks of the import file
+	 * @param totalBytes Size of the import file
+	 * @param commandWriter Writer applying commands to the database
+	 * @return The number of statements executed
+	 * @throws IOException If the import file cannot be read
+	 * @throws SQLException If a statement fails
+	 */
+	private long importPipelined(ChunkReader chunkReader, long totalBytes, CommandWriter commandWriter)
+			throws IOException, SQLException {
+		Thread reader = new PipelineThreadFactory("import-reader").newThread(chunkReader);
+		reader.start();
+
+		try {
+			while (true) {
+				ParsedChunk chunk = takeChunk(chunkReader.parsedChunks);
+				if (chunk == null)
+					break;
+
+				for (Object command : chunk.commands) {
+					commandWriter.apply(command);
+				}
+				if (progressListener != null)
+					progressListener.progressUpdated(chunk.endOffset, totalBytes);
+			}
+
+			return commandWriter.finish();
+		} finally {
+			// Stops the reader and parsers early if the writer failed
+			reader.interrupt();
+			chunkReader.parsers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the next parsed chunk in file order
+	 * 
+	 * @param parsedChunks Queue of chunks being parsed
+	 * @return The parsed chunk or null once the whole file has been read
+	 * @throws IOException If the file could not be read or the import was interrupted
+	 */
+	private ParsedChunk takeChunk(ArrayBlockingQueue<Future<ParsedChunk>> parsedChunks) throws IOException {
+		try {
+			ParsedChunk chunk = parsedChunks.take().get();
+			return (chunk == ParsedChunk.END_OF_FILE) ? null : chunk;
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Import was interrupted", exception);
+		} catch (ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Converts a command read from the import file into a command for the CommandWriter
+	 * 
+	 * @param command A trimmed command from the import file
+	 * @return A ParsedInsert or the SQL text to execute as written
+	 */
+	private Object parseCommand(String command) {
+		ParsedInsert insert = (templateBinding) ? InsertStatementParser.parse(command) : null;
+		return (insert != null) ? insert : command;
+	}
+
+	/**
+	 * Verifies no foreign key constraints are violated by the imported data
+	 * 
+	 * @param sqlStatement A statement on the import connection
+	 * @throws SQLException If a violation is found or the check fails
+	 */
+	private void checkForeignKeys(Statement sqlStatement) throws SQLException {
+		try (ResultSet violations = sqlStatement.executeQuery("PRAGMA foreign_key_check")) {
+			if (violations.next()) {
+				int violationCount = 0;
+				String firstViolation = String.format("%s row %d references missing %s",
+						violations.getString("table"), violations.getLong("rowid"), violations.getString("parent"));
+				do {
+					violationCount++;
+				} while (violations.next());
+
+				throw new SQLException(String.format("Import contains %d foreign key violation(s); first: %s",
+						violationCount, firstViolation));
+			}
+		}
+	}
+
+	/**
+	 * Applies commands to the import connection inside transactions committed
+	 * every commit interval statements. Consecutive inserts sharing a template
+	 * are bound to the template's prepared statement and executed in batches.
+	 * 
+	 * @author Russell Yorke
+	 */
+	private class CommandWriter implements AutoCloseable {
+		private final Connection dbConnection;
+		private final Statement sqlStatement;
+		private final HashMap<String, PreparedStatement> templates = new HashMap<String, PreparedStatement>();
+		private PreparedStatement pendingBatch = null;
+		private int pendingBatchSize = 0;
+		private int uncommittedCount = 0;
+		private long statementCount = 0;
+		private boolean finished = false;
+
+		/**
+		 * Starts the first transaction on the import connection
+		 * 
+		 * @param dbConnection A connection with foreign keys disabled
+		 * @throws SQLException If the transaction cannot be started
+		 */
+		public CommandWriter(Connection dbConnection) throws SQLException {
+			this.dbConnection = dbConnection;
+			this.sqlStatement = dbConnection.createStatement();
+			dbConnection.setAutoCommit(false);
+		}
+
+		/**
+		 * @return The number of statements applied so far
+		 */
+		public long getStatementCount() {
+			return statementCount;
+		}
+
+		/**
+		 * Applies a single command
+		 * 
+		 * @param command A ParsedInsert or SQL text to execute as written
+		 * @throws SQLException If the command fails
+		 */
+		public void apply(Object command) throws SQLException {
+			PreparedStatement templateStatement = null;
+
+			if (command instanceof ParsedInsert) {
+				ParsedInsert insert = (ParsedInsert) command;
+				templateStatement = templates.get(insert.getTemplate());
+				if (templateStatement == null && templates.size() < MAXIMUM_TEMPLATES) {
+					templateStatement = dbConnection.prepareStatement(insert.getPreparedSql());
+					templates.put(insert.getTemplate(), templateStatement);
+				}
+
+				if (templateStatement != null) {
+					if (templateStatement != pendingBatch)
+						flushBatch();
+					insert.bind(templateStatement);
+					templateStatement.addBatch();
+					pendingBatch = templateStatement;
+					if (++pendingBatchSize >= BATCH_SIZE)
+						flushBatch();
+				} else {
+					flushBatch();
+					sqlStatement.execute(insert.getCommand());
+				}
+			} else {
+				// Schema changes (DROP/CREATE TABLE) invalidate the compiled templates
+				closeTemplates();
+				sqlStatement.execute((String) command);
+			}
+
+			statementCount++;
+			if (commitInterval > 0 && ++uncommittedCount >= commitInterval) {
+				flushBatch();
+				dbConnection.commit();
+				uncommittedCount = 0;
+			}
+		}
+
+		/**
+		 * Applies outstanding batches, checks foreign keys and commits the final transaction
+		 * 
+		 * @return The number of statements applied
+		 * @throws SQLException If the final batch, the check or the commit fails
+		 */
+		public long finish() throws SQLException {
+			flushBatch();
+			checkForeignKeys(sqlStatement);
+			dbConnection.commit();
+			finished = true;
+
+			return statementCount;
+		}
+
+		/**
+		 * Executes the rows bound to the pending template statement
+		 * 
+		 * @throws SQLException If a row fails
+		 */
+		private void flushBatch() throws SQLException {
+			if (pendingBatch != null) {
+				pendingBatch.executeBatch();
+				pendingBatch = null;
+				pendingBatchSize = 0;
+			}
+		}
+
+		/**
+		 * Executes pending rows then closes and forgets all cached template statements
+		 * 
+		 * @throws SQLException If a row fails or a statement cannot be closed
+		 */
+		private void closeTemplates() throws SQLException {
+			flushBatch();
+			for (PreparedStatement templateStatement : templates.values()) {
+				templateStatement.close();
+			}
+			templates.clear();
+		}
+
+		/**
+		 * Rolls back work that was not finished and restores autocommit
+		 * 
+		 * @throws SQLException If a database error occurs
+		 */
+		@Override
+		public void close() throws SQLException {
+			try {
+				if (!finished)
+					dbConnection.rollback();
+				for (PreparedStatement templateStatement : templates.values()) {
+					templateStatement.close();
+				}
+				templates.clear();
+				sqlStatement.close();
+			} finally {
+				dbConnection.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * The commands parsed from one chunk of the import file
+	 * 
+	 * @author Russell Yorke
+	 */
+	private static class ParsedChunk {
+		public static final ParsedChunk END_OF_FILE = new ParsedChunk(new ArrayList<Object>(0), -1);
+		public final ArrayList<Object> commands;
+		public final long endOffset;
+
+		/**
+		 * @param commands ParsedInserts and SQL text in file order
+		 * @param endOffset File position just past the chunk
+		 */
+		public ParsedChunk(ArrayList<Object> commands, long endOffset) {
+			this.commands = commands;
+			this.endOffset = endOffset;
+		}
+	}
+
+	/**
+	 * Reads the import file in chunks and submits each chunk for parsing. The 
+	 * futures are queued in file order; the queue's capacity blocks the reader 
+	 * when the writer falls behind.
+	 * 
+	 * @author Russell Yorke
+	 */
+	private abstract class ChunkReader implements Runnable {
+		protected final ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, 
+				new PipelineThreadFactory("import-parser"));
+		protected final ArrayBlockingQueue<Future<ParsedChunk>> parsedChunks = 
+				new ArrayBlockingQueue<Future<ParsedChunk>>(parserThreads * CHUNKS_PER_PARSER);
+
+		/**
+		 * Reads the file queuing a parse for each chunk followed by an end of file marker.
+		 * A read failure is queued in place of the next chunk.
+		 */
+		@Override
+		public void run() {
+			try {
+				readChunks();
+				queue(completed(ParsedChunk.END_OF_FILE, null));
+			} catch (IOException exception) {
+				try {
+					queue(completed(null, exception));
+				} catch (InterruptedException interrupted) {
+					// Writer has stopped
+				}
+			} catch (InterruptedException exception) {
+				// Writer has stopped
+			}
+		}
+
+		/**
+		 * Reads the whole file submitting every chunk
+		 * 
+		 * @throws IOException If the file cannot be read
+		 * @throws InterruptedException If the writer stopped the import
+		 */
+		protected abstract void readChunks() throws IOException, InterruptedException;
+
+		/**
+		 * Submits a chunk to the parsers waiting for space in the queue
+		 * 
+		 * @param parse Parses the chunk
+		 * @throws InterruptedException If the writer stopped the import
+		 */
+		protected void submit(Callable<ParsedChunk> parse) throws InterruptedException {
+			queue(parsers.submit(parse));
+		}
+
+		/**
+		 * Waits for space in the queue
+		 * 
+		 * @param future A chunk future
+		 * @throws InterruptedException If the writer stopped the import
+		 */
+		private void queue(Future<ParsedChunk> future) throws InterruptedException {
+			parsedChunks.put(future);
+		}
+
+		/**
+		 * Creates a future that is already complete
+		 * 
+		 * @param chunk The result (ignored if exception is set)
+		 * @param exception A failure to report in place of the result
+		 * @return A completed future
+		 */
+		private Future<ParsedChunk> completed(final ParsedChunk chunk, final IOException exception) {
+			FutureTask<ParsedChunk> future = new FutureTask<ParsedChunk>(new Callable<ParsedChunk>() {
+				@Override
+				public ParsedChunk call() throws IOException {
+					if (exception != null)
+						throw exception;
+					return chunk;
+				}
+			});
+			future.run();
+			return future;
+		}
+	}
+
+	/**
+	 * Reads an SQL import file in chunks ending on a line boundary
+	 * 
+	 * @author Russell Yorke
+	 */
+	private class LineChunkReader extends ChunkReader {
+		private final BackupFileReader backupReader;
+
+		/**
+		 * @param backupReader Reader positioned at the start of the import file
+		 */
+		public LineChunkReader(BackupFileReader backupReader) {
+			this.backupReader = backupReader;
+		}
+
+		@Override
+		protected void readChunks() throws IOException, InterruptedException {
+			byte[] nextChunk;
+			while ((nextChunk = backupReader.readChunk(CHUNK_SIZE)) != null) {
+				final byte[] chunk = nextChunk;
+				final long endOffset = backupReader.getPosition();
+				submit(new Callable<ParsedChunk>() {
+					@Override
+					public ParsedChunk call() {
+						return parseChunk(chunk, endOffset);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Decodes and parses every command of a chunk. Commands are split on 
+		 * the raw newline bytes and decoded one at a time.
+		 * 
+		 * @param chunk Trimmed commands each followed by a newline
+		 * @param endOffset File position just past the chunk
+		 * @return The chunk's commands in file order
+		 */
+		private ParsedChunk parseChunk(byte[] chunk, long endOffset) {
+			Charset charset = backupReader.getCharset();
+			ArrayList<Object> commands = new ArrayList<Object>();
+
+			int commandStart = 0;
+			for (int index = 0; index < chunk.length; index++) {
+				if (chunk[index] == '\n') {
+					commands.add(parseCommand(new String(chunk, commandStart, index - commandStart, charset)));
+					commandStart = index + 1;
+				}
+			}
+
+			return new ParsedChunk(commands, endOffset);
+		}
+	}
+
+	/**
+	 * Reads a binary backup one segment at a time; each segment is a chunk
+	 * 
+	 * @author Russell Yorke
+	 */
+	private class SegmentChunkReader extends ChunkReader {
+		private final BinaryBackupReader backupReader;
+
+		/**
+		 * @param backupReader Reader positioned at the first segment
+		 */
+		public SegmentChunkReader(BinaryBackupReader backupReader) {
+			this.backupReader = backupReader;
+		}
+
+		@Override
+		protected void readChunks() throws IOException, InterruptedException {
+			BinaryBackupReader.Segment nextSegment;
+			while ((nextSegment = backupReader.readSegment()) != null) {
+				final BinaryBackupReader.Segment segment = nextSegment;
+				submit(new Callable<ParsedChunk>() {
+					@Override
+					public ParsedChunk call() throws IOException {
+						return new ParsedChunk(BinaryBackupReader.decode(segment), segment.endOffset);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon threads for the import pipeline
+	 * 
+	 * @author Russell Yorke
+	 */
+	private static class PipelineThreadFactory implements ThreadFactory {
+		private final String namePrefix;
+		private final AtomicInteger threadCount = new AtomicInteger(0);
+
+		/**
+		 * @param namePrefix Prefix of the thread names
+		 */
+		public PipelineThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, namePrefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
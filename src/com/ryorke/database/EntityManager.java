@@ -13,6 +13,8 @@
  */
 package com.ryorke.database;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.sql.SQLException;
 
@@ -39,4 +41,24 @@ public interface EntityManager {
 	 * @throws SQLException if a database error occurs while processing the request.
 	 */
 	public ArrayList<String> exportTable() throws SQLException;
+	
+	/**
+	 * Writes the SQL commands used to restore a database table(s) for 
+	 * this entity directly to a writer, one command per line. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException if a database error occurs while processing the request.
+	 * @throws IOException if an error occurs while writing the commands
+	 */
+	public void exportTable(Writer writer) throws SQLException, IOException;
+	
+	/**
+	 * Writes the SQL commands and records used to restore a database 
+	 * table(s) for this entity to the open segment of a binary backup. 
+	 * 
+	 * @param backupWriter The binary backup to send the commands and records to
+	 * @throws SQLException if a database error occurs while processing the request.
+	 * @throws IOException if an error occurs while writing the backup
+	 */
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException;
 }
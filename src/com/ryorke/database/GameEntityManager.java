@@ -14,13 +14,17 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.ryorke.entity.Game;
 
@@ -34,7 +38,8 @@ public class GameEntityManager implements EntityManager {
 	private static GameEntityManager entityManager = null;
 	private static ItemEntityManager itemEntityManager = null;
 	private SQLiteDBManager databaseManager = null;
-	private static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS game "
+	private ItemCache itemCache = null;
+	static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS game "
 			+ "(gameId INTEGER UNIQUE NOT NULL, "	// gameId = itemId or foreign key
 			+ "numberOfDiscs INTEGER NOT NULL, "
 			+ "numberOfPlayers INTEGER NOT NULL, "
@@ -42,7 +47,14 @@ public class GameEntityManager implements EntityManager {
 			+ "esrbRating TEXT NOT NULL,"
 			+ "FOREIGN KEY(gameId) REFERENCES item(itemId) ON DELETE RESTRICT,"
 			+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE RESTRICT)";
+	// Games are looked up by the console they run on, and deleting a console
+	// checks game for references to it; both would otherwise scan every game
+	static final String CREATE_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS game_consoleId ON game(consoleId)";
 	private static final String TABLE_NAME = "game";
+	private static final String INSERT_GAME_QUERY = "INSERT INTO game (gameId, numberOfDiscs, numberOfPlayers, "
+			+ "consoleId, esrbRating) VALUES (?, ?, ?, ?, ?)";
+	private static final String UPDATE_GAME_QUERY = "UPDATE game SET numberOfDiscs = ?, "
+			+ "numberOfPlayers = ?, consoleId = ?, esrbRating = ? WHERE gameId = ?";
 	
 	/** 
 	 * Provides access to the singleton game entity manager
@@ -72,6 +84,7 @@ public class GameEntityManager implements EntityManager {
 	private GameEntityManager() throws IOException, SQLException {
 		databaseManager = SQLiteDBManager.getManager();
 		databaseManager.registerEntityManager(this);		
+		itemCache = databaseManager.getItemCache();
 	}	
 	
 	/**
@@ -82,11 +95,11 @@ public class GameEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {
-		if (!databaseManager.tableExists("game")) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
-					Statement sqlStatement = dbConnection.createStatement();) {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement();) {
+			if (!databaseManager.tableExists("game"))
 				sqlStatement.executeUpdate(CREATE_TABLE_QUERY);
-			}
+			sqlStatement.executeUpdate(CREATE_INDEX_QUERY);
 		}
 	}
 	
@@ -98,116 +111,176 @@ public class GameEntityManager implements EntityManager {
 	 * @throws ParseException If a release date was incorrectly stored within the database. 
 	 */
 	public ArrayList<Game> getGames() throws SQLException, ParseException {
-		final String getAllGamesQuery = "SELECT * FROM game";
+		final String getAllGamesQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "gameId");
 		ArrayList<Game> games = null;
+		long cacheGeneration = itemCache.getGeneration();
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				Statement statement = dbConnection.createStatement();
 				ResultSet gamesResult = statement.executeQuery(getAllGamesQuery)) {
+			SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
 			while (gamesResult.next()) {
-				int gameId = gamesResult.getInt("gameId");
-				int numberOfDiscs = gamesResult.getInt("numberOfDiscs");
-				int numberOfPlayers = gamesResult.getInt("numberOfPlayers");
-				int consoleId = gamesResult.getInt("consoleId");
-				String esrbRating = gamesResult.getString("esrbRating");
-				
-				Game game = new Game();
-				game.setItemNumber(gameId);
-				game.setNumberOfDiscs(numberOfDiscs);
-				game.setNumberOfPlayers(numberOfPlayers);
-				game.setPlatformId(consoleId);
-				game.setEsrbRating(esrbRating);
-				
-				itemEntityManager.loadItem(game);
-				
 				if (games == null)
 					games = new ArrayList<Game>();
 				
-				games.add(game);
+				games.add(createGame(gamesResult, dateFormatter));
 			}
 		}
 		
+		itemCache.putAll(games, cacheGeneration);
 		return games; 
 	}
+
+	/**
+	 * Retrieves one page of games using keyset pagination (see Page)
+	 * 
+	 * @param sortKey Orders the games by game id or product name
+	 * @param continuationToken The token of the previous page or null for the first page
+	 * @param limit The maximum number of games in the page
+	 * @return The page of games
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database. 
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of the sort key's
+	 */
+	public Page<Game> getGames(Page.SortKey sortKey, String continuationToken, int limit) 
+			throws SQLException, ParseException {
+		final String getGamesPageQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "gameId")
+				+ Page.keysetClause(sortKey, "game.gameId", "item.name", continuationToken);
+		ArrayList<Game> games = null;
+		String nextContinuationToken = null;
+		long cacheGeneration = itemCache.getGeneration();
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(getGamesPageQuery)) {
+			Page.bindKeyset(statement, sortKey, continuationToken, limit);
+			try (ResultSet gamesResult = statement.executeQuery()) {
+				SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+				while (gamesResult.next()) {
+					if (games != null && games.size() == limit) {
+						Game lastGame = games.get(limit - 1);
+						nextContinuationToken = Page.continuationToken(sortKey, lastGame.getItemNumber(), 
+								lastGame.getProductName());
+						break;
+					}
+					
+					if (games == null)
+						games = new ArrayList<Game>();
+					
+					games.add(createGame(gamesResult, dateFormatter));
+				}
+			}
+		}
+		
+		itemCache.putAll(games, cacheGeneration);
+		return new Page<Game>(games, nextContinuationToken);
+	}
 	
 	/**
-	 * Retrieves a list of games associated with a specific console
+	 * Retrieves a list of games associated with a specific console. The game ids
+	 * are read from the game_consoleId index and the games are returned from the
+	 * item cache when all of them are cached.
+	 * 
 	 * @param consoleId The console ID to look for
-	 * @return A filtered list of games with the consoleId provided
+	 * @return A filtered list of games with the consoleId provided ordered by gameId
 	 * @throws SQLException If a database error occurs
 	 * @throws ParseException If a value stored in the database is not formatted correctly. 
 	 */
 	public ArrayList<Game> getGames(int consoleId) throws SQLException, ParseException {
-		final String getGamesByConsoleIdQuery = "SELECT * FROM game WHERE consoleId = ?";
+		final String getGameIdsByConsoleIdQuery = "SELECT gameId FROM game WHERE consoleId = ? ORDER BY gameId";
+		final String getGamesByConsoleIdQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "gameId") 
+				+ " WHERE game.consoleId = ? ORDER BY game.gameId";
 		ArrayList<Game> games = null;
+		long cacheGeneration = itemCache.getGeneration();
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement statement = dbConnection.prepareStatement(getGamesByConsoleIdQuery)) {
+		try (Connection dbConnection = databaseManager.getReadConnection()) {
+			boolean cached = true;
+			try (PreparedStatement statement = dbConnection.prepareStatement(getGameIdsByConsoleIdQuery)) {
+				statement.setInt(1, consoleId);
+				ResultSet gameIdsResult = statement.executeQuery();
+				while (cached && gameIdsResult.next()) {
+					Game game = itemCache.get(gameIdsResult.getInt("gameId"), Game.class);
+					if (game == null) {
+						cached = false;
+					} else {
+						if (games == null)
+							games = new ArrayList<Game>();
+						
+						games.add(game);
+					}
+				}
+			}
+			if (cached)
+				return games;
 			
-			statement.setInt(1, consoleId);
-			ResultSet gamesResult = statement.executeQuery();
-			while (gamesResult.next()) {
-				int gameId = gamesResult.getInt("gameId");
-				int numberOfDiscs = gamesResult.getInt("numberOfDiscs");
-				int numberOfPlayers = gamesResult.getInt("numberOfPlayers");
-				String esrbRating = gamesResult.getString("esrbRating");
-				
-				Game game = new Game();
-				game.setItemNumber(gameId);
-				game.setNumberOfDiscs(numberOfDiscs);
-				game.setNumberOfPlayers(numberOfPlayers);
-				game.setPlatformId(consoleId);
-				game.setEsrbRating(esrbRating);
-				
-				itemEntityManager.loadItem(game);
-				
-				if (games == null)
-					games = new ArrayList<Game>();
-				
-				games.add(game);
+			games = null;
+			try (PreparedStatement statement = dbConnection.prepareStatement(getGamesByConsoleIdQuery)) {
+				statement.setInt(1, consoleId);
+				ResultSet gamesResult = statement.executeQuery();
+				SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+				while (gamesResult.next()) {
+					if (games == null)
+						games = new ArrayList<Game>();
+					
+					games.add(createGame(gamesResult, dateFormatter));
+				}
 			}
 		}
 		
+		itemCache.putAll(games, cacheGeneration);
 		return games; 
 		
 	}
 
 	/**
-	 * Retrieves a game from the database
+	 * Retrieves a game from the item cache or the database
 	 * @param gameId The game ID to look for
 	 * @return A game if found, null otherwise
 	 * @throws SQLException If a database error occurs
 	 * @throws ParseException If a value stored in the database is not formatted correctly. 
 	 */
 	public Game getGame(int gameId) throws SQLException, ParseException {
-		final String getGameByGameIdQuery = "SELECT * FROM game WHERE gameId = ?";
-		Game game = null;
+		final String getGameByGameIdQuery = ItemEntityManager.selectJoinedItems(TABLE_NAME, "gameId") 
+				+ " WHERE game.gameId = ?";
+		Game game = itemCache.get(gameId, Game.class);
+		if (game != null)
+			return game;
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		long cacheGeneration = itemCache.getGeneration();
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				PreparedStatement statement = dbConnection.prepareStatement(getGameByGameIdQuery)) {
 			
 			statement.setInt(1, gameId);
 			ResultSet gameResult = statement.executeQuery();
 			if (gameResult.next()) {
-				int numberOfDiscs = gameResult.getInt("numberOfDiscs");
-				int numberOfPlayers = gameResult.getInt("numberOfPlayers");
-				String esrbRating = gameResult.getString("esrbRating");
-				int consoleId = gameResult.getInt("consoleId");
-				
-				game = new Game();
-				game.setItemNumber(gameId);
-				game.setNumberOfDiscs(numberOfDiscs);
-				game.setNumberOfPlayers(numberOfPlayers);
-				game.setPlatformId(consoleId);
-				game.setEsrbRating(esrbRating);
-				
-				itemEntityManager.loadItem(game);		
+				game = createGame(gameResult, new SimpleDateFormat(ItemEntityManager.DATE_FORMAT));
+				itemCache.put(game, cacheGeneration);
 			}
 		}
 		
 		return game; 
 		
 	}
+	
+	/**
+	 * Creates a game from a row selected with ItemEntityManager.selectJoinedItems
+	 * 
+	 * @param gameRow A result set positioned on a joined game row
+	 * @param dateFormatter Formatter used to parse the release date
+	 * @return A fully loaded game
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a value stored in the database is not formatted correctly. 
+	 */
+	private Game createGame(ResultSet gameRow, SimpleDateFormat dateFormatter) throws SQLException, ParseException {
+		Game game = new Game();
+		ItemEntityManager.hydrateItem(game, gameRow, dateFormatter);
+		game.setNumberOfDiscs(gameRow.getInt("numberOfDiscs"));
+		game.setNumberOfPlayers(gameRow.getInt("numberOfPlayers"));
+		game.setPlatformId(gameRow.getInt("consoleId"));
+		game.setEsrbRating(gameRow.getString("esrbRating"));
+		
+		return game;
+	}
+	
 	/**
 	 * Creates a new game record (and associated item) within database. 
 	 * Once created, the gameId will be updated to reflect the gameId within the database
@@ -216,19 +289,30 @@ public class GameEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void addGame(Game game) throws SQLException {
-		final String insertGameQuery = "INSERT INTO game (gameId, numberOfDiscs, numberOfPlayers, "
-				+ "consoleId, esrbRating) VALUES (?, ?, ?, ?, ?)";
-		
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addGame(game, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			game.setItemNumber(0);
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Creates a new game record (and associated item) within an existing transaction.
+	 * Once created, the gameId will be updated to reflect the gameId within the database
+	 * 
+	 * @param game A new game entity
+	 * @param transaction The transaction to perform the insert in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addGame(Game game, Transaction transaction) throws SQLException {
 		// Create the associated item record first to acquire a new itemId
-		itemEntityManager.addItem(game);
+		itemEntityManager.addItem(game, transaction);
+		itemCache.invalidate(Arrays.asList(game), transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement insertStatement = dbConnection.prepareStatement(insertGameQuery)) {
-			insertStatement.setInt(1, game.getItemNumber());
-			insertStatement.setInt(2, game.getNumberOfDiscs());
-			insertStatement.setInt(3, game.getNumberOfPlayers());
-			insertStatement.setInt(4, game.getPlatformId());
-			insertStatement.setString(5, game.getEsrbRating());
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_GAME_QUERY)) {
+			bindInsertGame(insertStatement, game);
 			
 			insertStatement.executeUpdate();
 		}
@@ -241,19 +325,27 @@ public class GameEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void updateGame(Game game) throws SQLException {
-		final String updateGameQuery = "UPDATE game SET numberOfDiscs = ?, "
-				+ "numberOfPlayers = ?, consoleId = ?, esrbRating = ? WHERE gameId = ?";
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateGame(game, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates the game entry (and associated item) within an existing transaction
+	 * 
+	 * @param game Game details to be saved to the database
+	 * @param transaction The transaction to perform the update in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateGame(Game game, Transaction transaction) throws SQLException {
+		itemCache.invalidate(Arrays.asList(game), transaction);
 		
 		// Update the item component of this accessory
-		itemEntityManager.updateItem(game);
+		itemEntityManager.updateItem(game, transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement updateStatement = dbConnection.prepareStatement(updateGameQuery)) {
-			updateStatement.setInt(5, game.getItemNumber());
-			updateStatement.setInt(1, game.getNumberOfDiscs());
-			updateStatement.setInt(2, game.getNumberOfPlayers());
-			updateStatement.setInt(3, game.getPlatformId());
-			updateStatement.setString(4, game.getEsrbRating());
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_GAME_QUERY)) {
+			bindUpdateGame(updateStatement, game);
 			
 			updateStatement.executeUpdate();
 		}
@@ -265,18 +357,157 @@ public class GameEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void deleteGame(Game game) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			deleteGame(game, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Deletes the game entry (and associated item entry) within an existing transaction
+	 * 
+	 * @param game The game to be deleted
+	 * @param transaction The transaction to perform the delete in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void deleteGame(Game game, Transaction transaction) throws SQLException {
 		final String deleteGameQuery = "DELETE FROM game WHERE gameId = ?";
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement deleteStatement = dbConnection.prepareStatement(deleteGameQuery)) {
+		itemCache.invalidate(Arrays.asList(game), transaction);
+		
+		try (PreparedStatement deleteStatement = transaction.getConnection().prepareStatement(deleteGameQuery)) {
 			deleteStatement.setInt(1, game.getItemNumber());			
 			deleteStatement.executeUpdate();
 			
 			// Item portion to be deleted after the game due to foreign constraints
-			itemEntityManager.deleteItem(game);
+			itemEntityManager.deleteItem(game, transaction);
+		}
+	}
+	
+	/**
+	 * Creates a group of new game records (and associated items) using batched inserts within
+	 * a single transaction. Once created, each gameId will be updated to reflect the gameId 
+	 * within the database
+	 * 
+	 * @param games New game entities
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addGames(List<Game> games) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addGames(games, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			for (Game game : games) {
+				game.setItemNumber(0);
+			}
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Creates a group of new game records (and associated items) using batched inserts within
+	 * an existing transaction. Once created, each gameId will be updated to reflect the gameId 
+	 * within the database
+	 * 
+	 * @param games New game entities
+	 * @param transaction The transaction to perform the inserts in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addGames(List<Game> games, Transaction transaction) throws SQLException {
+		// Create the associated item records first to acquire the new itemIds
+		itemEntityManager.addItems(games, transaction);
+		itemCache.invalidate(games, transaction);
+		
+		try (PreparedStatement insertStatement = transaction.getConnection().prepareStatement(INSERT_GAME_QUERY)) {
+			int batchCount = 0;
+			for (Game game : games) {
+				bindInsertGame(insertStatement, game);
+				insertStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					insertStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				insertStatement.executeBatch();
+		}
+	}
+	
+	/**
+	 * Updates a group of game entries (and associated items) using batched updates within
+	 * a single transaction
+	 * 
+	 * @param games Game details to be saved to the database
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateGames(List<Game> games) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateGames(games, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates a group of game entries (and associated items) using batched updates within
+	 * an existing transaction
+	 * 
+	 * @param games Game details to be saved to the database
+	 * @param transaction The transaction to perform the updates in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateGames(List<Game> games, Transaction transaction) throws SQLException {
+		itemCache.invalidate(games, transaction);
+		itemEntityManager.updateItems(games, transaction);
+		
+		try (PreparedStatement updateStatement = transaction.getConnection().prepareStatement(UPDATE_GAME_QUERY)) {
+			int batchCount = 0;
+			for (Game game : games) {
+				bindUpdateGame(updateStatement, game);
+				updateStatement.addBatch();
+				
+				if (++batchCount == ItemEntityManager.BATCH_SIZE) {
+					updateStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				updateStatement.executeBatch();
 		}
 	}
 	
+	/**
+	 * Binds the game specific columns of the insert game query
+	 * 
+	 * @param statement The insert game statement
+	 * @param game The game being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindInsertGame(PreparedStatement statement, Game game) throws SQLException {
+		statement.setInt(1, game.getItemNumber());
+		statement.setInt(2, game.getNumberOfDiscs());
+		statement.setInt(3, game.getNumberOfPlayers());
+		statement.setInt(4, game.getPlatformId());
+		statement.setString(5, game.getEsrbRating());
+	}
+	
+	/**
+	 * Binds the game specific columns of the update game query
+	 * 
+	 * @param statement The update game statement
+	 * @param game The game being saved
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindUpdateGame(PreparedStatement statement, Game game) throws SQLException {
+		statement.setInt(5, game.getItemNumber());
+		statement.setInt(1, game.getNumberOfDiscs());
+		statement.setInt(2, game.getNumberOfPlayers());
+		statement.setInt(3, game.getPlatformId());
+		statement.setString(4, game.getEsrbRating());
+	}
+	
 	/**
 	 * Creates a list of SQL statements necessary to recreate the
 	 * database table and data within the table. 
@@ -294,8 +525,46 @@ public class GameEntityManager implements EntityManager {
 		ArrayList<String> dataRecords = databaseManager.exportRecords(GameEntityManager.TABLE_NAME);		
 		if (dataRecords != null)
 			exportSQLResults.addAll(dataRecords);
+		exportSQLResults.add(GameEntityManager.CREATE_INDEX_QUERY);
 		
 		return exportSQLResults;
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", GameEntityManager.TABLE_NAME));
+		writer.write(GameEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(GameEntityManager.TABLE_NAME, writer);
+		// Indexes are built once the records are loaded
+		writer.write(GameEntityManager.CREATE_INDEX_QUERY);
+		writer.write('\n');
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", GameEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(GameEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(GameEntityManager.TABLE_NAME, backupWriter);
+		backupWriter.writeCommand(GameEntityManager.CREATE_INDEX_QUERY);
+	}
 
 }
@@ -0,0 +1,297 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Recognizes the INSERT statements written by SQLiteDBManager.exportRecords
+ * and splits them into a parameterized template and literal values so the
+ * template can be compiled once and bound for every row of a table.
+ * 
+ * Only the exported shape is recognized:
+ * <pre>
+ * INSERT INTO table (column,column) VALUES ('text',123,4.5,null)
+ * INSERT OR REPLACE INTO table (column,column) VALUES ('text',123,4.5,null)
+ * </pre>
+ * Anything else (DDL, expressions, unusual literals) is left for raw execution.
+ * 
+ * @author Russell Yorke
+ */
+class InsertStatementParser {
+	private static final String INSERT_PREFIX = "INSERT INTO ";
+	private static final String REPLACE_PREFIX = "INSERT OR REPLACE INTO ";
+	private static final String VALUES_KEYWORD = ") VALUES (";
+
+	/**
+	 * Parsing only; not instantiated
+	 */
+	private InsertStatementParser() {
+	}
+
+	/**
+	 * Parses an exported INSERT statement
+	 * 
+	 * @param command A single SQL command
+	 * @return The parsed insert or null if the command is not an exported INSERT statement
+	 */
+	public static ParsedInsert parse(String command) {
+		int tableStart;
+		if (command.startsWith(INSERT_PREFIX))
+			tableStart = INSERT_PREFIX.length();
+		else if (command.startsWith(REPLACE_PREFIX))
+			tableStart = REPLACE_PREFIX.length();
+		else
+			return null;
+
+		int columnsStart = command.indexOf('(', tableStart);
+		if (columnsStart < 0)
+			return null;
+		int valuesStart = command.indexOf(VALUES_KEYWORD, columnsStart);
+		if (valuesStart < 0)
+			return null;
+
+		int columnCount = 1;
+		for (int index = columnsStart + 1; index < valuesStart; index++) {
+			char character = command.charAt(index);
+			if (character == ',')
+				columnCount++;
+			else if (character == '(' || character == '\'' || character == '"')
+				return null;
+		}
+
+		Object[] values = new Object[columnCount];
+		int position = valuesStart + VALUES_KEYWORD.length();
+		for (int valueIndex = 0; valueIndex < columnCount; valueIndex++) {
+			position = skipSpaces(command, position);
+			if (position >= command.length())
+				return null;
+
+			if (command.charAt(position) == '\'') {
+				// Quoted text where '' represents a single quote
+				StringBuilder text = new StringBuilder();
+				int runStart = ++position;
+				while (true) {
+					int quote = command.indexOf('\'', position);
+					if (quote < 0)
+						return null;
+					if (quote + 1 < command.length() && command.charAt(quote + 1) == '\'') {
+						text.append(command, runStart, quote + 1);
+						position = runStart = quote + 2;
+					} else {
+						text.append(command, runStart, quote);
+						position = quote + 1;
+						break;
+					}
+				}
+				values[valueIndex] = text.toString();
+			} else {
+				int tokenEnd = position;
+				while (tokenEnd < command.length() && command.charAt(tokenEnd) != ','
+						&& command.charAt(tokenEnd) != ')' && command.charAt(tokenEnd) != ' ')
+					tokenEnd++;
+				String token = command.substring(position, tokenEnd);
+				if (token.equalsIgnoreCase("null")) {
+					values[valueIndex] = null;
+				} else {
+					Number number = parseNumber(token);
+					if (number == null)
+						return null;
+					values[valueIndex] = number;
+				}
+				position = tokenEnd;
+			}
+
+			position = skipSpaces(command, position);
+			char expected = (valueIndex == columnCount - 1) ? ')' : ',';
+			if (position >= command.length() || command.charAt(position) != expected)
+				return null;
+			position++;
+		}
+
+		// Only an optional terminator may follow the values
+		position = skipSpaces(command, position);
+		if (position < command.length() && !(command.charAt(position) == ';'
+				&& skipSpaces(command, position + 1) == command.length()))
+			return null;
+
+		return new ParsedInsert(command, command.substring(0, valuesStart + VALUES_KEYWORD.length()), values);
+	}
+
+	/**
+	 * Converts a numeric literal into the value SQLite would store for it
+	 * 
+	 * @param token An unquoted literal
+	 * @return A Long, a Double or null if the literal is not a plain number
+	 */
+	private static Number parseNumber(String token) {
+		if (token.isEmpty())
+			return null;
+
+		boolean integer = true;
+		for (int index = 0; index < token.length(); index++) {
+			char character = token.charAt(index);
+			if (character >= '0' && character <= '9')
+				continue;
+			if (character == '-' || character == '+') {
+				if (index != 0 && Character.toLowerCase(token.charAt(index - 1)) != 'e')
+					return null;
+				continue;
+			}
+			if (character == '.' || character == 'e' || character == 'E') {
+				integer = false;
+				continue;
+			}
+			return null;
+		}
+
+		try {
+			if (integer)
+				return Long.valueOf(token);
+			return Double.valueOf(token);
+		} catch (NumberFormatException exception) {
+			// Out of range integers are left for SQLite to interpret
+			return null;
+		}
+	}
+
+	/**
+	 * @param command The command being parsed
+	 * @param position Current position
+	 * @return The position of the next non-space character
+	 */
+	private static int skipSpaces(String command, int position) {
+		while (position < command.length() && command.charAt(position) == ' ')
+			position++;
+		return position;
+	}
+
+	/**
+	 * An INSERT statement split into its template and values
+	 * 
+	 * @author Russell Yorke
+	 */
+	public static class ParsedInsert {
+		private String command;
+		private final String template;
+		private final Object[] values;
+
+		/**
+		 * @param command The complete statement
+		 * @param template The statement text up to and including "VALUES ("
+		 * @param values The literal values in column order
+		 */
+		private ParsedInsert(String command, String template, Object[] values) {
+			this.command = command;
+			this.template = template;
+			this.values = values;
+		}
+
+		/**
+		 * Creates an insert from values that were not parsed from SQL text
+		 * (such as the rows of a binary backup)
+		 * 
+		 * @param template The statement text up to and including "VALUES ("
+		 * @param values The values in column order (null, Long, Double, String or byte[])
+		 */
+		ParsedInsert(String template, Object[] values) {
+			this(null, template, values);
+		}
+
+		/**
+		 * @return The complete statement as written, or rendered from the values 
+		 *         when the insert was not parsed from SQL text
+		 */
+		public String getCommand() {
+			if (command == null) {
+				StringBuilder statement = new StringBuilder(template);
+				for (int index = 0; index < values.length; index++) {
+					if (index != 0)
+						statement.append(',');
+					appendLiteral(statement, values[index]);
+				}
+				command = statement.append(')').toString();
+			}
+			return command;
+		}
+		
+		/**
+		 * @return The statement text up to and including "VALUES (" which is
+		 *         shared by every row exported from the same table
+		 */
+		public String getTemplate() {
+			return template;
+		}
+
+		/**
+		 * @return The parameterized SQL for this template
+		 */
+		public String getPreparedSql() {
+			StringBuilder preparedSql = new StringBuilder(template.length() + values.length * 2);
+			preparedSql.append(template);
+			for (int index = 0; index < values.length; index++) {
+				preparedSql.append((index == 0) ? "?" : ",?");
+			}
+			return preparedSql.append(')').toString();
+		}
+
+		/**
+		 * Binds the literal values to a statement prepared from getPreparedSql
+		 * 
+		 * @param statement The prepared template statement
+		 * @throws SQLException If a value cannot be bound
+		 */
+		public void bind(PreparedStatement statement) throws SQLException {
+			for (int index = 0; index < values.length; index++) {
+				Object value = values[index];
+				if (value == null)
+					statement.setNull(index + 1, Types.NULL);
+				else if (value instanceof Long)
+					statement.setLong(index + 1, (Long) value);
+				else if (value instanceof Double)
+					statement.setDouble(index + 1, (Double) value);
+				else if (value instanceof byte[])
+					statement.setBytes(index + 1, (byte[]) value);
+				else
+					statement.setString(index + 1, (String) value);
+			}
+		}
+
+		/**
+		 * Appends a value as an SQL literal
+		 * 
+		 * @param statement The statement being rendered
+		 * @param value A null, Long, Double, String or byte[] value
+		 */
+		private static void appendLiteral(StringBuilder statement, Object value) {
+			if (value == null) {
+				statement.append("null");
+			} else if (value instanceof Double && ((Double) value).isInfinite()) {
+				statement.append(((Double) value > 0) ? "9e999" : "-9e999");
+			} else if (value instanceof Number) {
+				statement.append(value);
+			} else if (value instanceof byte[]) {
+				statement.append("X'");
+				for (byte octet : (byte[]) value) {
+					statement.append(Character.forDigit((octet >> 4) & 0xF, 16)).append(Character.forDigit(octet & 0xF, 16));
+				}
+				statement.append('\'');
+			} else {
+				statement.append('\'').append(((String) value).replace("'", "''")).append('\'');
+			}
+		}
+	}
+}
@@ -0,0 +1,548 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import com.ryorke.entity.Accessory;
+import com.ryorke.entity.Console;
+import com.ryorke.entity.Game;
+import com.ryorke.entity.Item;
+import com.ryorke.entity.PackageDimension;
+
+/**
+ * Provides inventory wide queries returning every Item subtype (consoles,
+ * accessories and games) from a single ordered result set. The subtypes are
+ * combined by the inventory view which adds an itemType discriminator column.
+ * 
+ * @author Russell Yorke
+ */
+public class InventoryEntityManager implements EntityManager {
+	public static final String CONSOLE_TYPE = "Console";
+	public static final String ACCESSORY_TYPE = "Accessory";
+	public static final String GAME_TYPE = "Game";
+
+	private static InventoryEntityManager entityManager = null;
+	private SQLiteDBManager databaseManager = null;
+	private static final String VIEW_NAME = "inventory";
+	// LIKE ignores case for ASCII letters, the pattern is escaped by bindFilter
+	private static final String FILTER_CLAUSE = "(name LIKE ? ESCAPE '\\' OR description LIKE ? ESCAPE '\\')";
+	private static final String ITEM_COLUMNS = "item.itemId AS itemId, %s AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, item.unitsInStock AS unitsInStock, "
+			+ "item.width AS width, item.height AS height, item.depth AS depth, item.weight AS weight, ";
+	private static final String ITEM_JOIN = "JOIN item ON item.itemId = %s "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId";
+	static final String CREATE_VIEW_QUERY = "CREATE VIEW IF NOT EXISTS inventory AS "
+			+ "SELECT " + String.format(ITEM_COLUMNS, "'" + CONSOLE_TYPE + "'")
+			+ "console.color AS color, console.modelNumber AS modelNumber, console.diskSpace AS diskSpace, "
+			+ "console.controllersIncluded AS controllersIncluded, "
+			+ "NULL AS platformId, NULL AS numberOfDiscs, NULL AS numberOfPlayers, NULL AS esrbRating "
+			+ "FROM console " + String.format(ITEM_JOIN, "console.consoleId") + " "
+			+ "UNION ALL "
+			+ "SELECT " + String.format(ITEM_COLUMNS, "'" + ACCESSORY_TYPE + "'")
+			+ "accessory.color, accessory.modelNumber, NULL, NULL, "
+			+ "accessory.consoleId, NULL, NULL, NULL "
+			+ "FROM accessory " + String.format(ITEM_JOIN, "accessory.accessoryId") + " "
+			+ "UNION ALL "
+			+ "SELECT " + String.format(ITEM_COLUMNS, "'" + GAME_TYPE + "'")
+			+ "NULL, NULL, NULL, NULL, "
+			+ "game.consoleId, game.numberOfDiscs, game.numberOfPlayers, game.esrbRating "
+			+ "FROM game " + String.format(ITEM_JOIN, "game.gameId");
+
+	/**
+	 * Groups of inventory view columns a caller can request. The item id and
+	 * item type are always loaded.
+	 * 
+	 * @author Russell Yorke
+	 */
+	public enum Column {
+		NAME("name"),
+		DESCRIPTION("description"),
+		MANUFACTURE("manufactureName"),
+		RELEASE_DATE("releaseDate"),
+		UNIT_COST("unitCost"),
+		UNITS_IN_STOCK("unitsInStock"),
+		PACKAGE_DIMENSION("width, height, depth, weight"),
+		DETAILS("color, modelNumber, diskSpace, controllersIncluded, "
+				+ "platformId, numberOfDiscs, numberOfPlayers, esrbRating");
+
+		private final String columnNames;
+
+		/**
+		 * @param columnNames The view columns selected for this group
+		 */
+		private Column(String columnNames) {
+			this.columnNames = columnNames;
+		}
+
+		/**
+		 * @return The view columns selected for this group
+		 */
+		public String getColumnNames() {
+			return columnNames;
+		}
+	}
+
+	/**
+	 * Inventory view columns a window of the inventory can be ordered by. Each
+	 * is an indexed item column so a window seeks the index (see 
+	 * ItemEntityManager.CREATE_SORT_INDEX_QUERIES) instead of sorting the
+	 * inventory. Ties are ordered by item id.
+	 * 
+	 * @author Russell Yorke
+	 */
+	public enum SortColumn {
+		ITEM_ID("itemId", null),
+		NAME("name", Column.NAME),
+		UNITS_IN_STOCK("unitsInStock", Column.UNITS_IN_STOCK),
+		UNIT_COST("unitCost", Column.UNIT_COST),
+		RELEASE_DATE("releaseDate", Column.RELEASE_DATE);
+
+		private final String columnName;
+		private final Column column;
+
+		/**
+		 * @param columnName The view column ordered by
+		 * @param column The column group that loads the value (null for the item id)
+		 */
+		private SortColumn(String columnName, Column column) {
+			this.columnName = columnName;
+			this.column = column;
+		}
+
+		/**
+		 * @return The column group that must be loaded to continue after an item (null for the item id)
+		 */
+		public Column getColumn() {
+			return column;
+		}
+	}
+
+	/**
+	 * Provides access to the singleton inventory entity manager
+	 * that is responsible for interacting with the database
+	 * 
+	 * @return A reference to a singleton inventory entity manager
+	 * @throws IOException if unable to access database file
+	 * @throws SQLException if an error occurs while accessing the database
+	 */
+	public static InventoryEntityManager getManager() throws IOException, SQLException {
+		if (entityManager == null) {
+			// The view depends on these tables so they must be registered first
+			ConsoleEntityManager.getManager();
+			AccessoryEntityManager.getManager();
+			GameEntityManager.getManager();
+			entityManager = new InventoryEntityManager();
+		}
+
+		return entityManager;
+	}
+
+	/**
+	 * Creates a new instance of the InventoryEntityManager registering
+	 * itself with the SQLiteDBManager
+	 * 
+	 * @throws IOException if unable to access database file
+	 * @throws SQLException if an error occurs while accessing the database
+	 */
+	private InventoryEntityManager() throws IOException, SQLException {
+		databaseManager = SQLiteDBManager.getManager();
+		databaseManager.registerEntityManager(this);
+	}
+
+	/**
+	 * Idempotent method for creating the inventory view if it doesn't
+	 * already exists.
+	 * 
+	 * @throws SQLException If a database error occurs while processing the request.
+	 */
+	@Override
+	public void createTable() throws SQLException {
+		if (!databaseManager.tableExists(VIEW_NAME)) {
+			try (Connection dbConnection = databaseManager.getConnection(true);
+					Statement sqlStatement = dbConnection.createStatement();) {
+				sqlStatement.executeUpdate(CREATE_VIEW_QUERY);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves every item in the inventory fully loaded
+	 * 
+	 * @return A list of items ordered by item id or null if the inventory is empty
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database.
+	 */
+	public ArrayList<Item> getInventory() throws SQLException, ParseException {
+		return getInventory(EnumSet.allOf(Column.class));
+	}
+
+	/**
+	 * Retrieves every item in the inventory loading only the requested columns.
+	 * Attributes not requested are left at the entity defaults.
+	 * 
+	 * @param columns The columns to load
+	 * @return A list of items ordered by item id or null if the inventory is empty
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database.
+	 */
+	public ArrayList<Item> getInventory(EnumSet<Column> columns) throws SQLException, ParseException {
+		StringBuilder inventoryQuery = selectColumns(columns).append(" ORDER BY itemId");
+
+		ArrayList<Item> inventory = null;
+		long cacheGeneration = databaseManager.getItemCache().getGeneration();
+
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				Statement statement = dbConnection.createStatement();
+				ResultSet inventoryResults = statement.executeQuery(inventoryQuery.toString())) {
+			SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+			HashMap<Integer, int[]> includedGames = (columns.contains(Column.DETAILS)) 
+					? ConsoleEntityManager.getIncludedGames(dbConnection) : null;
+			while (inventoryResults.next()) {
+				if (inventory == null)
+					inventory = new ArrayList<Item>();
+
+				inventory.add(createItem(inventoryResults, columns, includedGames, dateFormatter));
+			}
+		}
+
+		// Only fully loaded items can be handed out by the cache
+		if (columns.containsAll(EnumSet.allOf(Column.class)))
+			databaseManager.getItemCache().putAll(inventory, cacheGeneration);
+
+		return inventory;
+	}
+
+	/**
+	 * Counts the items in the inventory
+	 * 
+	 * @param filter Text the item name or description must contain ignoring case (null for every item)
+	 * @return The number of items matching the filter
+	 * @throws SQLException If a database error occurs
+	 */
+	public int getInventoryCount(String filter) throws SQLException {
+		String countQuery = "SELECT count(*) FROM " + VIEW_NAME + ((filter != null) ? " WHERE " + FILTER_CLAUSE : "");
+
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(countQuery)) {
+			if (filter != null)
+				bindFilter(statement, 1, filter);
+
+			try (ResultSet countResult = statement.executeQuery()) {
+				return (countResult.next()) ? countResult.getInt(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Retrieves a window of the sorted and filtered inventory. A window 
+	 * continuing after an item of the previous window seeks the sort index
+	 * directly; without one the skipped rows are read and discarded, so
+	 * callers should pass the closest item they have already loaded.
+	 * 
+	 * @param columns The columns to load (must include the sort column's group)
+	 * @param sortColumn The column the inventory is ordered by
+	 * @param ascending True for ascending order, false for descending
+	 * @param filter Text the item name or description must contain ignoring case (null for every item)
+	 * @param after An item loaded with the same order and filter the window follows (null to start at the first item)
+	 * @param skip The number of items after the item (or the start) to skip
+	 * @param limit The maximum number of items in the window
+	 * @return The items in the window or null if there are none
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database.
+	 */
+	public ArrayList<Item> getInventoryWindow(EnumSet<Column> columns, SortColumn sortColumn, boolean ascending,
+			String filter, Item after, int skip, int limit) throws SQLException, ParseException {
+		StringBuilder windowQuery = selectColumns(columns);
+		String direction = (ascending) ? "ASC" : "DESC";
+		ArrayList<String> conditions = new ArrayList<String>();
+		if (filter != null)
+			conditions.add(FILTER_CLAUSE);
+		if (after != null && sortColumn == SortColumn.ITEM_ID)
+			conditions.add(String.format("itemId %s ?", (ascending) ? ">" : "<"));
+		else if (after != null)
+			conditions.add(String.format("(%s, itemId) %s (?, ?)", sortColumn.columnName, (ascending) ? ">" : "<"));
+		for (int index = 0; index < conditions.size(); index++) {
+			windowQuery.append((index == 0) ? " WHERE " : " AND ").append(conditions.get(index));
+		}
+		if (sortColumn != SortColumn.ITEM_ID)
+			windowQuery.append(String.format(" ORDER BY %s %s,", sortColumn.columnName, direction));
+		else
+			windowQuery.append(" ORDER BY");
+		windowQuery.append(String.format(" itemId %s LIMIT ? OFFSET ?", direction));
+
+		ArrayList<Item> window = null;
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(windowQuery.toString())) {
+			int parameterIndex = 1;
+			if (filter != null)
+				parameterIndex = bindFilter(statement, parameterIndex, filter);
+			if (after != null) {
+				if (sortColumn != SortColumn.ITEM_ID)
+					statement.setObject(parameterIndex++, getSortValue(after, sortColumn));
+				statement.setInt(parameterIndex++, after.getItemNumber());
+			}
+			statement.setInt(parameterIndex++, limit);
+			statement.setInt(parameterIndex, skip);
+
+			ArrayList<Console> consoles = new ArrayList<Console>();
+			try (ResultSet windowResults = statement.executeQuery()) {
+				SimpleDateFormat dateFormatter = new SimpleDateFormat(ItemEntityManager.DATE_FORMAT);
+				HashMap<Integer, int[]> noIncludedGames = new HashMap<Integer, int[]>();
+				while (windowResults.next()) {
+					if (window == null)
+						window = new ArrayList<Item>();
+
+					Item item = createItem(windowResults, columns, noIncludedGames, dateFormatter);
+					if (item instanceof Console)
+						consoles.add((Console) item);
+					window.add(item);
+				}
+			}
+
+			// Only the included games of the window's consoles are read
+			if (columns.contains(Column.DETAILS) && !consoles.isEmpty()) {
+				HashMap<Integer, int[]> includedGames = ConsoleEntityManager.getIncludedGames(dbConnection, consoles);
+				for (Console console : consoles) {
+					console.setIncludedGameId(includedGames.get(console.getItemNumber()));
+				}
+			}
+		}
+
+		return window;
+	}
+
+	/**
+	 * Retrieves a fully loaded item from the item cache or the inventory
+	 * 
+	 * @param itemId The item id
+	 * @return The console, accessory or game or null if the item does not exist
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If a release date was incorrectly stored within the database.
+	 */
+	public Item getItem(int itemId) throws SQLException, ParseException {
+		EnumSet<Column> columns = EnumSet.allOf(Column.class);
+		Item item = databaseManager.getItemCache().get(itemId, Item.class);
+		if (item != null)
+			return item;
+
+		String itemQuery = selectColumns(columns).append(" WHERE itemId = ?").toString();
+		long cacheGeneration = databaseManager.getItemCache().getGeneration();
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(itemQuery)) {
+			statement.setInt(1, itemId);
+			try (ResultSet itemResult = statement.executeQuery()) {
+				if (!itemResult.next())
+					return null;
+
+				HashMap<Integer, int[]> includedGames = new HashMap<Integer, int[]>();
+				if (CONSOLE_TYPE.equals(itemResult.getString("itemType"))) {
+					Console console = new Console();
+					console.setItemNumber(itemId);
+					includedGames = ConsoleEntityManager.getIncludedGames(dbConnection, Arrays.asList(console));
+				}
+				item = createItem(itemResult, columns, includedGames, 
+						new SimpleDateFormat(ItemEntityManager.DATE_FORMAT));
+			}
+		}
+
+		databaseManager.getItemCache().put(item, cacheGeneration);
+		return item;
+	}
+
+	/**
+	 * Starts a query selecting the item id, item type and requested columns
+	 * 
+	 * @param columns The columns to select
+	 * @return The SELECT and FROM clauses
+	 */
+	private static StringBuilder selectColumns(EnumSet<Column> columns) {
+		StringBuilder selectQuery = new StringBuilder("SELECT itemId, itemType");
+		for (Column column : columns) {
+			selectQuery.append(", ").append(column.getColumnNames());
+		}
+
+		return selectQuery.append(" FROM ").append(VIEW_NAME);
+	}
+
+	/**
+	 * Binds the filter text to the parameters of FILTER_CLAUSE
+	 * 
+	 * @param statement The filtered query
+	 * @param parameterIndex The index of the first filter parameter
+	 * @param filter The text the name or description must contain
+	 * @return The index of the parameter after the filter
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static int bindFilter(PreparedStatement statement, int parameterIndex, String filter) 
+			throws SQLException {
+		String pattern = "%" + filter.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+		statement.setString(parameterIndex++, pattern);
+		statement.setString(parameterIndex++, pattern);
+
+		return parameterIndex;
+	}
+
+	/**
+	 * Reads the value of the sort column from an item as it is stored
+	 * 
+	 * @param item An item loaded with the sort column
+	 * @param sortColumn The column the inventory is ordered by (other than the item id)
+	 * @return The stored value
+	 */
+	private static Object getSortValue(Item item, SortColumn sortColumn) {
+		switch (sortColumn) {
+		case NAME:
+			return item.getProductName();
+		case UNITS_IN_STOCK:
+			return item.getUnitsInStock();
+		case UNIT_COST:
+			return item.getUnitCost();
+		case RELEASE_DATE:
+			return new SimpleDateFormat(ItemEntityManager.DATE_FORMAT).format(item.getReleaseDate());
+		default:
+			return item.getItemNumber();
+		}
+	}
+
+	/**
+	 * Creates the Item subtype named by the itemType column and loads
+	 * the requested columns into it
+	 * 
+	 * @param row A result set positioned on an inventory row
+	 * @param columns The columns selected in the row
+	 * @param includedGames The included game ids keyed by console id (null unless DETAILS is selected)
+	 * @param dateFormatter Formatter used to parse the release date
+	 * @return A console, accessory or game
+	 * @throws SQLException If a database error occurs or the item type is unknown
+	 * @throws ParseException If a release date was incorrectly stored within the database.
+	 */
+	private Item createItem(ResultSet row, EnumSet<Column> columns, HashMap<Integer, int[]> includedGames, 
+			SimpleDateFormat dateFormatter)
+			throws SQLException, ParseException {
+		String itemType = row.getString("itemType");
+		boolean loadDetails = columns.contains(Column.DETAILS);
+		Item item;
+
+		if (CONSOLE_TYPE.equals(itemType)) {
+			Console console = new Console();
+			if (loadDetails) {
+				console.setColor(row.getString("color"));
+				console.setModelNumber(row.getString("modelNumber"));
+				console.setDiskSpace(row.getString("diskSpace"));
+				console.setControllersIncluded(row.getInt("controllersIncluded"));
+				console.setIncludedGameId(includedGames.get(row.getInt("itemId")));
+			}
+			item = console;
+		} else if (ACCESSORY_TYPE.equals(itemType)) {
+			Accessory accessory = new Accessory();
+			if (loadDetails) {
+				accessory.setColor(row.getString("color"));
+				accessory.setModelNumber(row.getString("modelNumber"));
+				accessory.setPlatformId(row.getInt("platformId"));
+			}
+			item = accessory;
+		} else if (GAME_TYPE.equals(itemType)) {
+			Game game = new Game();
+			if (loadDetails) {
+				game.setPlatformId(row.getInt("platformId"));
+				game.setNumberOfDiscs(row.getInt("numberOfDiscs"));
+				game.setNumberOfPlayers(row.getInt("numberOfPlayers"));
+				game.setEsrbRating(row.getString("esrbRating"));
+			}
+			item = game;
+		} else {
+			throw new SQLException(String.format("Unknown item type %s found in inventory", itemType));
+		}
+
+		item.setItemNumber(row.getInt("itemId"));
+		if (columns.contains(Column.NAME))
+			item.setProductName(row.getString("name"));
+		if (columns.contains(Column.DESCRIPTION))
+			item.setProductDescription(row.getString("description"));
+		if (columns.contains(Column.MANUFACTURE)) {
+			String manufactureName = row.getString("manufactureName");
+			item.setManufacture((manufactureName != null) ? manufactureName : "");
+		}
+		if (columns.contains(Column.RELEASE_DATE))
+			item.setReleaseDate(dateFormatter.parse(row.getString("releaseDate")));
+		if (columns.contains(Column.UNIT_COST))
+			item.setUnitCost(row.getDouble("unitCost"));
+		if (columns.contains(Column.UNITS_IN_STOCK))
+			item.setUnitsInStock(row.getInt("unitsInStock"));
+		if (columns.contains(Column.PACKAGE_DIMENSION)) {
+			item.setPackageDimension(new PackageDimension((float) row.getDouble("height"),
+					(float) row.getDouble("width"), (float) row.getDouble("depth"), (float) row.getDouble("weight")));
+		}
+
+		return item;
+	}
+
+	/**
+	 * Creates a list of SQL statements necessary to recreate the
+	 * inventory view.
+	 * 
+	 * @return A list of SQL commands
+	 * @throws SQLException If a database error occurs.
+	 */
+	@Override
+	public ArrayList<String> exportTable() throws SQLException {
+		ArrayList<String> exportSQLResults = new ArrayList<String>();
+
+		exportSQLResults.add(String.format("DROP VIEW IF EXISTS %s", InventoryEntityManager.VIEW_NAME));
+		exportSQLResults.add(InventoryEntityManager.CREATE_VIEW_QUERY);
+
+		return exportSQLResults;
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the inventory 
+	 * view directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws IOException {
+		writer.write(String.format("DROP VIEW IF EXISTS %s\n", InventoryEntityManager.VIEW_NAME));
+		writer.write(InventoryEntityManager.CREATE_VIEW_QUERY);
+		writer.write('\n');
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the inventory 
+	 * view to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws IOException {
+		backupWriter.writeCommand(String.format("DROP VIEW IF EXISTS %s", InventoryEntityManager.VIEW_NAME));
+		backupWriter.writeCommand(InventoryEntityManager.CREATE_VIEW_QUERY);
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.ryorke.entity.Accessory;
+import com.ryorke.entity.Console;
+import com.ryorke.entity.Game;
+import com.ryorke.entity.Item;
+import com.ryorke.entity.PackageDimension;
+
+/**
+ * Caches fully loaded consoles, accessories and games by item id so the
+ * entity managers can return an item without querying the database again.
+ * The cache is shared by the entity managers through SQLiteDBManager.
+ * 
+ * Entities are mutable and are changed in place before they are saved, so the
+ * cache keeps its own copy of each item and hands out copies. Items are
+ * evicted least recently used first once their estimated size exceeds the
+ * memory budget.
+ * 
+ * Writers invalidate an item when it is changed and again once the change is
+ * committed or rolled back. Loads take a generation before querying and their
+ * items are only cached if nothing was invalidated in the meantime, so a load
+ * that read rows from before a change never caches them after it.
+ * 
+ * @author Russell Yorke
+ */
+public class ItemCache {
+	public static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024; // bytes
+	// Estimated size of an entity, its boxed key and its cache entry excluding strings
+	private static final int ITEM_OVERHEAD = 200; // bytes
+	private final LinkedHashMap<Integer, CachedItem> items = new LinkedHashMap<Integer, CachedItem>(64, 0.75f, true);
+	private long memoryBudget;
+	private long memoryUsed = 0;
+	private long generation = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long invalidationCount = 0;
+
+	/**
+	 * @param memoryBudget The estimated bytes the cached items may use
+	 */
+	ItemCache(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Retrieves a copy of a cached item
+	 * 
+	 * @param itemId The item id
+	 * @param type The expected subtype
+	 * @return A copy of the item or null if it is not cached as that subtype
+	 */
+	public synchronized <T extends Item> T get(int itemId, Class<T> type) {
+		CachedItem cachedItem = items.get(itemId);
+		if (cachedItem == null || !type.isInstance(cachedItem.item)) {
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		return type.cast(copy(cachedItem.item));
+	}
+
+	/**
+	 * @return The generation a load must take before querying and pass to put
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Caches a copy of a fully loaded item unless an item was invalidated
+	 * since the load began
+	 * 
+	 * @param item The item loaded
+	 * @param loadGeneration The generation taken before the item was queried
+	 */
+	public synchronized void put(Item item, long loadGeneration) {
+		if (loadGeneration != generation)
+			return;
+
+		Item cachedCopy = copy(item);
+		if (cachedCopy == null)
+			return;
+
+		CachedItem cachedItem = new CachedItem(cachedCopy, estimateSize(cachedCopy));
+		CachedItem replaced = items.put(cachedCopy.getItemNumber(), cachedItem);
+		if (replaced != null)
+			memoryUsed -= replaced.size;
+		memoryUsed += cachedItem.size;
+		evict();
+	}
+
+	/**
+	 * Caches copies of fully loaded items
+	 * 
+	 * @param loadedItems The items loaded (may be null)
+	 * @param loadGeneration The generation taken before the items were queried
+	 */
+	public synchronized void putAll(List<? extends Item> loadedItems, long loadGeneration) {
+		if (loadedItems != null) {
+			for (Item item : loadedItems) {
+				put(item, loadGeneration);
+			}
+		}
+	}
+
+	/**
+	 * Removes an item from the cache
+	 * 
+	 * @param itemId The id of the changed item
+	 */
+	public synchronized void invalidate(int itemId) {
+		CachedItem removed = items.remove(itemId);
+		if (removed != null)
+			memoryUsed -= removed.size;
+		generation++;
+		invalidationCount++;
+	}
+
+	/**
+	 * Removes items changed within a transaction now and again once the
+	 * transaction is committed or rolled back, as other threads may cache
+	 * the rows from before the change until it is committed and the writing
+	 * thread may cache changes that are then rolled back.
+	 * 
+	 * @param changedItems The items being added, updated or deleted
+	 * @param transaction The transaction changing them
+	 */
+	public void invalidate(List<? extends Item> changedItems, Transaction transaction) {
+		final int[] itemIds = new int[changedItems.size()];
+		for (int index = 0; index < itemIds.length; index++) {
+			itemIds[index] = changedItems.get(index).getItemNumber();
+		}
+
+		Runnable invalidateItems = new Runnable() {
+			@Override
+			public void run() {
+				for (int itemId : itemIds) {
+					invalidate(itemId);
+				}
+			}
+		};
+		invalidateItems.run();
+		transaction.onCommit(invalidateItems);
+		transaction.onRollback(invalidateItems);
+	}
+
+	/**
+	 * Removes every item, such as after the database is restored
+	 */
+	public synchronized void invalidateAll() {
+		items.clear();
+		memoryUsed = 0;
+		generation++;
+		invalidationCount++;
+	}
+
+	/**
+	 * Changes the memory budget evicting items if the cache is now too large
+	 * 
+	 * @param memoryBudget The estimated bytes the cached items may use (0 disables caching)
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		evict();
+	}
+
+	/**
+	 * @return The estimated bytes the cached items may use
+	 */
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return The estimated bytes used by the cached items
+	 */
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * @return The number of cached items
+	 */
+	public synchronized int getSize() {
+		return items.size();
+	}
+
+	/**
+	 * @return The number of lookups that returned a cached item
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return The number of lookups that found no cached item
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return The fraction of lookups that returned a cached item (0 before the first lookup)
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = hitCount + missCount;
+		return (lookups > 0) ? (double) hitCount / lookups : 0;
+	}
+
+	/**
+	 * @return The number of items removed to stay within the memory budget
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return The number of invalidations
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	/**
+	 * Resets the hit, miss, eviction and invalidation counters
+	 */
+	public synchronized void resetStatistics() {
+		hitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+		invalidationCount = 0;
+	}
+
+	/**
+	 * Evicts the least recently used items until the cache fits its budget
+	 */
+	private void evict() {
+		Iterator<CachedItem> leastRecentlyUsed = items.values().iterator();
+		while (memoryUsed > memoryBudget && leastRecentlyUsed.hasNext()) {
+			memoryUsed -= leastRecentlyUsed.next().size;
+			leastRecentlyUsed.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Copies a console, accessory or game
+	 * 
+	 * @param item The item to copy
+	 * @return A copy sharing no mutable state with the item or null for other subtypes
+	 */
+	static Item copy(Item item) {
+		Item copy;
+
+		if (item instanceof Console) {
+			Console console = (Console) item;
+			Console consoleCopy = new Console();
+			consoleCopy.setColor(console.getColor());
+			consoleCopy.setDiskSpace(console.getDiskSpace());
+			consoleCopy.setModelNumber(console.getModelNumber());
+			consoleCopy.setControllersIncluded(console.getControllersIncluded());
+			int[] includedGameIds = console.getIncludedGameId();
+			consoleCopy.setIncludedGameId((includedGameIds != null) ? includedGameIds.clone() : null);
+			copy = consoleCopy;
+		} else if (item instanceof Accessory) {
+			Accessory accessory = (Accessory) item;
+			Accessory accessoryCopy = new Accessory();
+			accessoryCopy.setColor(accessory.getColor());
+			accessoryCopy.setModelNumber(accessory.getModelNumber());
+			accessoryCopy.setPlatformId(accessory.getPlatformId());
+			copy = accessoryCopy;
+		} else if (item instanceof Game) {
+			Game game = (Game) item;
+			Game gameCopy = new Game();
+			gameCopy.setNumberOfDiscs(game.getNumberOfDiscs());
+			gameCopy.setNumberOfPlayers(game.getNumberOfPlayers());
+			gameCopy.setPlatformId(game.getPlatformId());
+			gameCopy.setEsrbRating(game.getEsrbRating());
+			copy = gameCopy;
+		} else {
+			return null;
+		}
+
+		copy.setItemNumber(item.getItemNumber());
+		copy.setProductName(item.getProductName());
+		copy.setProductDescription(item.getProductDescription());
+		copy.setUnitsInStock(item.getUnitsInStock());
+		copy.setUnitCost(item.getUnitCost());
+		copy.setManufacture(item.getManufacture());
+		Date releaseDate = item.getReleaseDate();
+		copy.setReleaseDate((releaseDate != null) ? new Date(releaseDate.getTime()) : null);
+		PackageDimension dimension = item.getPackageDimensions();
+		copy.setPackageDimension((dimension != null) ? new PackageDimension(dimension.getHeight(),
+				dimension.getWidth(), dimension.getDepth(), dimension.getWeight()) : null);
+
+		return copy;
+	}
+
+	/**
+	 * Estimates the memory used by a cached item
+	 * 
+	 * @param item A console, accessory or game
+	 * @return The estimated size in bytes
+	 */
+	private static long estimateSize(Item item) {
+		ArrayList<String> text = new ArrayList<String>();
+		text.add(item.getProductName());
+		text.add(item.getProductDescription());
+		text.add(item.getManufacture());
+		long size = ITEM_OVERHEAD;
+
+		if (item instanceof Console) {
+			Console console = (Console) item;
+			text.add(console.getColor());
+			text.add(console.getDiskSpace());
+			text.add(console.getModelNumber());
+			if (console.getIncludedGameId() != null)
+				size += 16 + 4 * console.getIncludedGameId().length;
+		} else if (item instanceof Accessory) {
+			text.add(((Accessory) item).getColor());
+			text.add(((Accessory) item).getModelNumber());
+		} else if (item instanceof Game) {
+			text.add(((Game) item).getEsrbRating());
+		}
+
+		// A string holds its characters in a separate array of 2 byte chars
+		for (String value : text) {
+			if (value != null)
+				size += 40 + 2 * value.length();
+		}
+
+		return size;
+	}
+
+	/**
+	 * A cached item and its estimated size
+	 * 
+	 * @author Russell Yorke
+	 */
+	private static class CachedItem {
+		private final Item item;
+		private final long size;
+
+		/**
+		 * @param item The cache's copy of the item
+		 * @param size The estimated size in bytes
+		 */
+		public CachedItem(Item item, long size) {
+			this.item = item;
+			this.size = size;
+		}
+	}
+}
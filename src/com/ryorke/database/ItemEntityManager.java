@@ -14,6 +14,7 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -22,7 +23,9 @@ import java.sql.Statement;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import com.ryorke.entity.Item;
 import com.ryorke.entity.Manufacture;
@@ -38,7 +41,7 @@ public class ItemEntityManager implements EntityManager {
 	private static ItemEntityManager entityManager = null;
 	private SQLiteDBManager databaseManager = null;
 	private ManufactureEntityManager manufactureManager = null;
-	private static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS item "
+	static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS item "
 			+ "(itemId INTEGER PRIMARY KEY, "
 			+ "name TEXT UNIQUE NOT NULL, "
 			+ "description TEXT NOT NULL, "
@@ -50,8 +53,38 @@ public class ItemEntityManager implements EntityManager {
 			+ "height REAL DEFAULT 0.000 NOT NULL, "
 			+ "depth REAL DEFAULT 0.000 NOT NULL, "
 			+ "weight REAL DEFAULT 0.000 NOT NULL,"
-			+ "FOREIGN KEY(manufactureId) REFERENCES manufacture(manufactureId) ON DELETE RESTRICT)"; 
+			+ "FOREIGN KEY(manufactureId) REFERENCES manufacture(manufactureId) ON DELETE RESTRICT)";
+	// Deleting a manufacture checks that no item is still made by it, which
+	// would otherwise scan every item for its manufactureId
+	static final String CREATE_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS item_manufactureId ON item(manufactureId)";
+	// Sorted inventory windows seek these instead of sorting every item (rowid is the tiebreaker)
+	static final String[] CREATE_SORT_INDEX_QUERIES = {
+			"CREATE INDEX IF NOT EXISTS item_unitsInStock ON item(unitsInStock)",
+			"CREATE INDEX IF NOT EXISTS item_unitCost ON item(unitCost)",
+			"CREATE INDEX IF NOT EXISTS item_releaseDate ON item(releaseDate)" };
+
 	private static final String TABLE_NAME = "item";
+	private static final String INSERT_ITEM_QUERY = "INSERT INTO item "
+			+ "(name, description, manufactureId, releaseDate, unitCost, "
+			+ "unitsInStock, width, height, depth, weight) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	// Used by batch inserts which assign the itemIds themselves
+	private static final String INSERT_ITEM_WITH_ID_QUERY = "INSERT INTO item "
+			+ "(name, description, manufactureId, releaseDate, unitCost, "
+			+ "unitsInStock, width, height, depth, weight, itemId) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String UPDATE_ITEM_QUERY = "UPDATE item "
+			+ "SET name = ?, description = ?, manufactureId = ?, releaseDate = ?, unitCost = ?, "
+			+ "unitsInStock = ?, width = ?, height = ?, depth = ?, weight = ? "
+			+ "WHERE itemId = ?";
+	static final int BATCH_SIZE = 1000;
+	static final String DATE_FORMAT = "yyyy/MM/dd";
+	
+	/**
+	 * Item and manufacture columns read by hydrateItem. Used by subtype 
+	 * entity managers to load an entire entity with a single query.
+	 */
+	static final String ITEM_COLUMNS = "item.itemId, item.name, item.description, item.manufactureId, "
+			+ "item.releaseDate, item.unitCost, item.unitsInStock, item.width, item.height, item.depth, "
+			+ "item.weight, manufacture.name AS manufactureName";
 	
 	/** 
 	 * Provides access to the singleton item entity manager
@@ -89,14 +122,59 @@ public class ItemEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {
-		if (!databaseManager.tableExists("item")) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
-					Statement sqlStatement = dbConnection.createStatement();) {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement();) {
+			if (!databaseManager.tableExists("item"))
 				sqlStatement.executeUpdate(CREATE_TABLE_QUERY);
+			sqlStatement.executeUpdate(CREATE_INDEX_QUERY);
+			for (String sortIndexQuery : CREATE_SORT_INDEX_QUERIES) {
+				sqlStatement.executeUpdate(sortIndexQuery);
 			}
 		}
 	}
 	
+	/**
+	 * Builds a query selecting every row of a subtype table joined with its item 
+	 * and manufacture rows. Rows can be loaded with hydrateItem in a single pass. 
+	 * 
+	 * @param subtypeTable The subtype table (game, console or accessory)
+	 * @param subtypeKey The subtype column referencing item.itemId
+	 * @return A SELECT statement without a WHERE clause
+	 */
+	static String selectJoinedItems(String subtypeTable, String subtypeKey) {
+		return String.format("SELECT %1$s.*, %3$s FROM %1$s "
+				+ "JOIN item ON item.itemId = %1$s.%2$s "
+				+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId", 
+				subtypeTable, subtypeKey, ITEM_COLUMNS);
+	}
+	
+	/**
+	 * Loads the item columns (see ITEM_COLUMNS) of the current row into an item
+	 * 
+	 * @param item The item to populate
+	 * @param row A result set positioned on a row containing ITEM_COLUMNS
+	 * @param dateFormatter Formatter used to parse the release date
+	 * @throws SQLException If a database error occurs
+	 * @throws ParseException If database has a text string invalidly stored
+	 */
+	static void hydrateItem(Item item, ResultSet row, SimpleDateFormat dateFormatter) 
+			throws SQLException, ParseException {
+		String manufactureName = row.getString("manufactureName");
+		float height = (float) row.getDouble("height");
+		float width = (float) row.getDouble("width");
+		float depth = (float) row.getDouble("depth");
+		float weight = (float) row.getDouble("weight");
+		
+		item.setItemNumber(row.getInt("itemId"));
+		item.setManufacture((manufactureName != null) ? manufactureName : "");
+		item.setPackageDimension(new PackageDimension(height, width, depth, weight));
+		item.setUnitCost(row.getDouble("unitCost"));
+		item.setProductDescription(row.getString("description"));
+		item.setProductName(row.getString("name"));
+		item.setReleaseDate(dateFormatter.parse(row.getString("releaseDate")));
+		item.setUnitsInStock(row.getInt("unitsInStock"));
+	}
+	
 	/**
 	 * Queries the databases for item information (based on the itemId) and loads
 	 * the data into the item provided
@@ -107,42 +185,20 @@ public class ItemEntityManager implements EntityManager {
 	 * @throws ParseException  If database has a text string invalidly stored
 	 */	
 	public boolean loadItem(Item item) throws SQLException, ParseException {
-		final String findItemQuery = "SELECT * FROM item WHERE itemId = ?";
+		final String findItemQuery = "SELECT " + ITEM_COLUMNS + " FROM item "
+				+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId "
+				+ "WHERE item.itemId = ?";
 		boolean itemFound = false;
 		
 		if (item != null) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
+			try (Connection dbConnection = databaseManager.getReadConnection();
 					PreparedStatement statement = dbConnection.prepareStatement(findItemQuery)) {
 				statement.setInt(1, item.getItemNumber());
 				ResultSet queryResult = statement.executeQuery();
 				
 				itemFound = queryResult.next();
-				
-				String name = queryResult.getString("name");
-				String description = queryResult.getString("description");
-				double unitCost = queryResult.getDouble("unitCost");
-				int unitsInStock = queryResult.getInt("unitsInStock");
-				float height = (float) queryResult.getDouble("height");
-				float width = (float) queryResult.getDouble("width");
-				float depth = (float) queryResult.getDouble("depth");
-				float weight = (float) queryResult.getDouble("weight");
-				
-				int manufactureId = queryResult.getInt("manufactureId");
-				Manufacture manufacture = manufactureManager.findManufacture(manufactureId);
-				String manufactureName = (manufacture != null) ? manufacture.getName() : "";
-				
-				String dateFormat = "yyyy/MM/dd";				
-				SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
-				String dateText = queryResult.getString("releaseDate");				
-				Date releaseDate = dateFormatter.parse(dateText);
-				
-				item.setManufacture(manufactureName);				
-				item.setPackageDimension(new PackageDimension(height, width, depth, weight));
-				item.setUnitCost(unitCost);
-				item.setProductDescription(description);
-				item.setProductName(name);
-				item.setReleaseDate(releaseDate);
-				item.setUnitsInStock(unitsInStock);
+				if (itemFound)
+					hydrateItem(item, queryResult, new SimpleDateFormat(DATE_FORMAT));
 			}
 		}
 		
@@ -160,37 +216,41 @@ public class ItemEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void addItem(Item item) throws SQLException {
-		final String insertItemQuery = "INSERT INTO item "
-				+ "(name, description, manufactureId, releaseDate, unitCost, "
-				+ "unitsInStock, width, height, depth, weight) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-		final String getItemIdQuery = "SELECT last_insert_rowid() AS itemId";
-		final String dateFormat = "yyyy/MM/dd";
-		SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addItem(item, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			item.setItemNumber(0);
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Inserts a new row into the item table within an existing transaction and set the 
+	 * itemId on the item provided. The manufacture is created within the same transaction
+	 * if it doesn't already exist.
+	 * 
+	 * @param item An item to insert which will also be modified to reflect the new itemId
+	 * @param transaction The transaction to perform the insert in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addItem(Item item, Transaction transaction) throws SQLException {
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
 		
 		// Create the manufacture entry (if it doesn't already exist) and retrieve details about
 		// that manufacture 
-		Manufacture manufacture = manufactureManager.addManufacture(item.getManufacture());
+		Manufacture manufacture = manufactureManager.addManufacture(item.getManufacture(), transaction);
 		
-
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement insertItemStatement = dbConnection.prepareStatement(insertItemQuery)) {
-			insertItemStatement.setString(1, item.getProductName());
-			insertItemStatement.setString(2, item.getProductDescription());
-			insertItemStatement.setInt(3, manufacture.getManufactureId());
-			insertItemStatement.setString(4,  dateFormatter.format(item.getReleaseDate()));
-			insertItemStatement.setDouble(5, item.getUnitCost());
-			insertItemStatement.setInt(6, item.getUnitsInStock());
-			insertItemStatement.setFloat(7, item.getPackageDimensions().getWidth());
-			insertItemStatement.setFloat(8, item.getPackageDimensions().getHeight());
-			insertItemStatement.setFloat(9, item.getPackageDimensions().getDepth());
-			insertItemStatement.setFloat(10, item.getPackageDimensions().getWeight());
+		Connection dbConnection = transaction.getConnection();
+		try (PreparedStatement insertItemStatement = dbConnection.prepareStatement(INSERT_ITEM_QUERY, 
+				Statement.RETURN_GENERATED_KEYS)) {
+			bindItem(insertItemStatement, item, manufacture, dateFormatter);
 			insertItemStatement.executeUpdate();
 			
-			// Retrieve the itemId based on the last row inserted
-			Statement lastRowIdStatement = dbConnection.createStatement();
-			ResultSet result = lastRowIdStatement.executeQuery(getItemIdQuery);
-			if (result.next()) {
-				item.setItemNumber(result.getInt("itemId"));
+			try (ResultSet generatedKeys = insertItemStatement.getGeneratedKeys()) {
+				if (!generatedKeys.next())
+					throw new SQLException("Unable to determine the itemId assigned to the inserted item");
+				item.setItemNumber(generatedKeys.getInt(1));
 			}
 		}
 	}
@@ -203,34 +263,201 @@ public class ItemEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public void updateItem(Item item) throws SQLException {
-		final String updateItemQuery = "UPDATE item "
-				+ "SET name = ?, description = ?, manufactureId = ?, releaseDate = ?, unitCost = ?, "
-				+ "unitsInStock = ?, width = ?, height = ?, depth = ?, weight = ? "
-				+ "WHERE itemId = ?";
-		final String dateFormat = "yyyy/MM/dd";
-		SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateItem(item, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Updates the database with the information provided in the item within an existing
+	 * transaction. If a new manufacture needs to be created it will be created within the
+	 * same transaction. 
+	 * 
+	 * @param item Item that needs to be saved to the database
+	 * @param transaction The transaction to perform the update in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateItem(Item item, Transaction transaction) throws SQLException {
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
 		
 		// Create the manufacture entry (if it doesn't already exist) and retrieve details about
 		// that manufacture 
-		Manufacture manufacture = manufactureManager.addManufacture(item.getManufacture());
+		Manufacture manufacture = manufactureManager.addManufacture(item.getManufacture(), transaction);
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement updateItemStatement = dbConnection.prepareStatement(updateItemQuery)) {
-			updateItemStatement.setString(1, item.getProductName());
-			updateItemStatement.setString(2, item.getProductDescription());
-			updateItemStatement.setInt(3, manufacture.getManufactureId());
-			updateItemStatement.setString(4,  dateFormatter.format(item.getReleaseDate()));
-			updateItemStatement.setDouble(5, item.getUnitCost());
-			updateItemStatement.setInt(6, item.getUnitsInStock());
-			updateItemStatement.setFloat(7, item.getPackageDimensions().getWidth());
-			updateItemStatement.setFloat(8, item.getPackageDimensions().getHeight());
-			updateItemStatement.setFloat(9, item.getPackageDimensions().getDepth());
-			updateItemStatement.setFloat(10, item.getPackageDimensions().getWeight());
+		try (PreparedStatement updateItemStatement = transaction.getConnection().prepareStatement(UPDATE_ITEM_QUERY)) {
+			bindItem(updateItemStatement, item, manufacture, dateFormatter);
 			updateItemStatement.setInt(11, item.getItemNumber());
 			updateItemStatement.executeUpdate();
 		}
 	}
 	
+	/**
+	 * Inserts a group of new items using batched inserts within a single transaction
+	 * and sets the itemId on each item provided. Missing manufactures are created in bulk.
+	 * 
+	 * @param items Items to insert which will be modified to reflect their new itemIds
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addItems(List<? extends Item> items) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			addItems(items, transaction);
+			transaction.commit();
+		} catch (SQLException exception) {
+			for (Item item : items) {
+				item.setItemNumber(0);
+			}
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Inserts a group of new items using batched inserts within an existing transaction
+	 * and sets the itemId on each item provided. Missing manufactures are created in bulk.
+	 * 
+	 * A block of itemIds is allocated for the whole group up front (see allocateItemIds) 
+	 * and bound to the rows, so no query is needed to learn the ids SQLite assigned.
+	 * 
+	 * @param items Items to insert which will be modified to reflect their new itemIds
+	 * @param transaction The transaction to perform the inserts in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void addItems(List<? extends Item> items, Transaction transaction) throws SQLException {
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
+		Map<String, Manufacture> manufactures = addManufactures(items, transaction);
+		
+		Connection dbConnection = transaction.getConnection();
+		int nextItemId = allocateItemIds(dbConnection, items.size());
+		try (PreparedStatement insertItemStatement = dbConnection.prepareStatement(INSERT_ITEM_WITH_ID_QUERY)) {
+			for (int start = 0; start < items.size(); start += BATCH_SIZE) {
+				List<? extends Item> batch = items.subList(start, Math.min(start + BATCH_SIZE, items.size()));
+				
+				int itemId = nextItemId;
+				for (Item item : batch) {
+					bindItem(insertItemStatement, item, manufactures.get(item.getManufacture()), dateFormatter);
+					insertItemStatement.setInt(11, itemId++);
+					insertItemStatement.addBatch();
+				}
+				insertItemStatement.executeBatch();
+				
+				for (Item item : batch) {
+					item.setItemNumber(nextItemId++);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Saves a group of existing items using batched updates within a single transaction.
+	 * Missing manufactures are created in bulk.
+	 * 
+	 * @param items Items that need to be saved to the database
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateItems(List<? extends Item> items) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			updateItems(items, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Saves a group of existing items using batched updates within an existing transaction.
+	 * Missing manufactures are created in bulk.
+	 * 
+	 * @param items Items that need to be saved to the database
+	 * @param transaction The transaction to perform the updates in
+	 * @throws SQLException If a database error occurs
+	 */
+	public void updateItems(List<? extends Item> items, Transaction transaction) throws SQLException {
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
+		Map<String, Manufacture> manufactures = addManufactures(items, transaction);
+		
+		try (PreparedStatement updateItemStatement = transaction.getConnection().prepareStatement(UPDATE_ITEM_QUERY)) {
+			int batchCount = 0;
+			for (Item item : items) {
+				bindItem(updateItemStatement, item, manufactures.get(item.getManufacture()), dateFormatter);
+				updateItemStatement.setInt(11, item.getItemNumber());
+				updateItemStatement.addBatch();
+				
+				if (++batchCount == BATCH_SIZE) {
+					updateItemStatement.executeBatch();
+					batchCount = 0;
+				}
+			}
+			
+			if (batchCount > 0)
+				updateItemStatement.executeBatch();
+		}
+	}
+	
+	/**
+	 * Resolves (creating if necessary) the manufactures of a group of items
+	 * 
+	 * @param items Items whose manufactures are needed
+	 * @param transaction The transaction to create missing manufactures in
+	 * @return Manufactures keyed case-insensitively by name
+	 * @throws SQLException If a database error occurs
+	 */
+	private Map<String, Manufacture> addManufactures(List<? extends Item> items, Transaction transaction) 
+			throws SQLException {
+		ArrayList<String> manufactureNames = new ArrayList<String>(items.size());
+		for (Item item : items) {
+			manufactureNames.add(item.getManufacture());
+		}
+		
+		return manufactureManager.addManufactures(manufactureNames, transaction);
+	}
+	
+	/**
+	 * Allocates a block of consecutive itemIds following the largest itemId, which are 
+	 * the ids SQLite would assign to the rows itself. Writer transactions begin 
+	 * IMMEDIATE, so the transaction already holds the database's write lock when the 
+	 * largest itemId is read and no other connection or process can insert an item 
+	 * until it ends. This holds with or without WAL, whichever number of writer 
+	 * connections the pool has.
+	 * 
+	 * @param dbConnection The transaction's connection
+	 * @param count The number of itemIds needed
+	 * @return The first itemId of the block
+	 * @throws SQLException If a database error occurs or the block exceeds the itemId range
+	 */
+	private static int allocateItemIds(Connection dbConnection, int count) throws SQLException {
+		final String getMaxItemIdQuery = "SELECT IFNULL(MAX(itemId), 0) AS itemId FROM item";
+		
+		try (Statement statement = dbConnection.createStatement();
+				ResultSet maxResult = statement.executeQuery(getMaxItemIdQuery)) {
+			long firstItemId = (maxResult.next()) ? maxResult.getLong("itemId") + 1 : 1;
+			if (firstItemId + count - 1 > Integer.MAX_VALUE)
+				throw new SQLException("No itemIds are left for the inserted items");
+			
+			return (int) firstItemId;
+		}
+	}
+	
+	/**
+	 * Binds the item columns shared by the insert and update queries (parameters 1 to 10)
+	 * 
+	 * @param statement An insert or update item statement
+	 * @param item The item being saved
+	 * @param manufacture The item's manufacture
+	 * @param dateFormatter Formatter used to store the release date
+	 * @throws SQLException If a parameter cannot be set
+	 */
+	private static void bindItem(PreparedStatement statement, Item item, Manufacture manufacture, 
+			SimpleDateFormat dateFormatter) throws SQLException {
+		statement.setString(1, item.getProductName());
+		statement.setString(2, item.getProductDescription());
+		statement.setInt(3, manufacture.getManufactureId());
+		statement.setString(4,  dateFormatter.format(item.getReleaseDate()));
+		statement.setDouble(5, item.getUnitCost());
+		statement.setInt(6, item.getUnitsInStock());
+		statement.setFloat(7, item.getPackageDimensions().getWidth());
+		statement.setFloat(8, item.getPackageDimensions().getHeight());
+		statement.setFloat(9, item.getPackageDimensions().getDepth());
+		statement.setFloat(10, item.getPackageDimensions().getWeight());
+	}
+	
 	/**
 	 * Deletes an item from the database
 	 * 
@@ -238,10 +465,23 @@ public class ItemEntityManager implements EntityManager {
 	 * @throws SQLException If an error occurs
 	 */
 	public void deleteItem(Item item) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			deleteItem(item, transaction);
+			transaction.commit();
+		}
+	}
+	
+	/**
+	 * Deletes an item from the database within an existing transaction
+	 * 
+	 * @param item The item to be deleted
+	 * @param transaction The transaction to perform the delete in
+	 * @throws SQLException If an error occurs
+	 */
+	public void deleteItem(Item item, Transaction transaction) throws SQLException {
 		final String deleteItemQuery = "DELETE FROM item WHERE itemId = ?";
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement deleteStatement = dbConnection.prepareStatement(deleteItemQuery)) {
+		try (PreparedStatement deleteStatement = transaction.getConnection().prepareStatement(deleteItemQuery)) {
 			deleteStatement.setInt(1, item.getItemNumber());			
 			deleteStatement.executeUpdate();
 		}
@@ -264,8 +504,54 @@ public class ItemEntityManager implements EntityManager {
 		ArrayList<String> dataRecords = databaseManager.exportRecords(ItemEntityManager.TABLE_NAME);		
 		if (dataRecords != null)
 			exportSQLResults.addAll(dataRecords);
+		exportSQLResults.add(ItemEntityManager.CREATE_INDEX_QUERY);
+		exportSQLResults.addAll(Arrays.asList(ItemEntityManager.CREATE_SORT_INDEX_QUERIES));
 		
 		return exportSQLResults;
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", ItemEntityManager.TABLE_NAME));
+		writer.write(ItemEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(ItemEntityManager.TABLE_NAME, writer);
+		// Indexes are built once the records are loaded
+		writer.write(ItemEntityManager.CREATE_INDEX_QUERY);
+		writer.write('\n');
+		for (String sortIndexQuery : ItemEntityManager.CREATE_SORT_INDEX_QUERIES) {
+			writer.write(sortIndexQuery);
+			writer.write('\n');
+		}
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", ItemEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(ItemEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(ItemEntityManager.TABLE_NAME, backupWriter);
+		backupWriter.writeCommand(ItemEntityManager.CREATE_INDEX_QUERY);
+		for (String sortIndexQuery : ItemEntityManager.CREATE_SORT_INDEX_QUERIES) {
+			backupWriter.writeCommand(sortIndexQuery);
+		}
+	}
 
 }
@@ -14,12 +14,20 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.ryorke.entity.Manufacture;
 
@@ -27,16 +35,52 @@ import com.ryorke.entity.Manufacture;
  * Provides utility operations for pushing/getting Manufacture objects
  * within a database
  * 
+ * Every manufacture is held in an id to name dictionary loaded on first use,
+ * so resolving a manufacture is a hash lookup rather than a query. Names are
+ * keyed case-insensitively like the NOCASE name column. Manufactures are only
+ * added through this manager (and never deleted), so the dictionary stays 
+ * consistent with the table. New manufactures enter the dictionary only once
+ * their transaction commits, and the dictionary is discarded only when the 
+ * table is restored from a backup.
+ * 
  * @author Russell Yorke
  */
 public class ManufactureEntityManager implements EntityManager {
 	private static ManufactureEntityManager entityManager = null;
 	private SQLiteDBManager databaseManager = null;
 	
-	private static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS manufacture"
+	static final String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS manufacture"
 			+ "(manufactureId INTEGER PRIMARY KEY, " 
 			+ "name TEXT UNIQUE NOT NULL COLLATE NOCASE)";
 	private final static String TABLE_NAME = "manufacture";
+	private final static int MAXIMUM_QUERY_PARAMETERS = 500;
+	// Adds a manufacture unless the name already exists (the bundled SQLite predates ON CONFLICT upserts)
+	private final static String ADD_MANUFACTURE_QUERY = "INSERT OR IGNORE INTO manufacture (name) VALUES (?)";
+	
+	// Dictionary of every manufacture; names are keyed by nameKey
+	private final HashMap<Integer, String> manufactureNames = new HashMap<Integer, String>();
+	private final HashMap<String, Integer> manufactureIds = new HashMap<String, Integer>();
+	private boolean dictionaryLoaded = false;
+	private int dictionaryGeneration = 0;
+	
+	// Matches the NOCASE collation of the name column which only folds ASCII letters
+	private final static Comparator<String> NAME_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String first, String second) {
+			int length = Math.min(first.length(), second.length());
+			for (int index = 0; index < length; index++) {
+				char firstChar = first.charAt(index);
+				char secondChar = second.charAt(index);
+				if (firstChar >= 'A' && firstChar <= 'Z')
+					firstChar += 'a' - 'A';
+				if (secondChar >= 'A' && secondChar <= 'Z')
+					secondChar += 'a' - 'A';
+				if (firstChar != secondChar)
+					return firstChar - secondChar;
+			}
+			return first.length() - second.length();
+		}
+	};
 			
 	/** 
 	 * Provides access to the singleton manufacture entity manager
@@ -73,6 +117,9 @@ public class ManufactureEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {
+		// The table may have been replaced by a restore
+		clearDictionary();
+		
 		if (!databaseManager.tableExists("manufacture")) {
 			try (Connection dbConnection = databaseManager.getConnection(true);
 					Statement sqlStatement = dbConnection.createStatement()) {
@@ -81,6 +128,94 @@ public class ManufactureEntityManager implements EntityManager {
 		}				
 	}
 
+	/**
+	 * Folds a name the way the NOCASE collation does (ASCII letters only)
+	 * 
+	 * @param name A manufacture name
+	 * @return The dictionary key of the name
+	 */
+	private static String nameKey(String name) {
+		char[] key = name.toCharArray();
+		for (int index = 0; index < key.length; index++) {
+			if (key[index] >= 'A' && key[index] <= 'Z')
+				key[index] += 'a' - 'A';
+		}
+		
+		return new String(key);
+	}
+	
+	/**
+	 * Loads every manufacture into the dictionary unless it is already loaded. 
+	 * The table is read without holding the dictionary's lock so a thread 
+	 * waiting on a connection never blocks lookups.
+	 * 
+	 * @throws SQLException If a database error occurs
+	 */
+	private void loadDictionary() throws SQLException {
+		final String getAllManufacturesQuery = "SELECT manufactureId, name FROM manufacture";
+		
+		while (true) {
+			int generation;
+			synchronized (this) {
+				if (dictionaryLoaded)
+					return;
+				generation = dictionaryGeneration;
+			}
+			
+			HashMap<Integer, String> loadedNames = new HashMap<Integer, String>();
+			try (Connection dbConnection = databaseManager.getReadConnection();
+					Statement statement = dbConnection.createStatement();
+					ResultSet results = statement.executeQuery(getAllManufacturesQuery)) {
+				while (results.next()) {
+					loadedNames.put(results.getInt("manufactureId"), results.getString("name"));
+				}
+			}
+			
+			// A dictionary cleared while loading may have been read from replaced rows
+			synchronized (this) {
+				if (generation == dictionaryGeneration) {
+					for (Map.Entry<Integer, String> manufacture : loadedNames.entrySet()) {
+						addToDictionary(manufacture.getKey(), manufacture.getValue());
+					}
+					dictionaryLoaded = true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds a manufacture to the dictionary
+	 * 
+	 * @param manufactureId The manufacture's id
+	 * @param name The manufacture's name as stored
+	 */
+	private synchronized void addToDictionary(int manufactureId, String name) {
+		manufactureNames.put(manufactureId, name);
+		manufactureIds.put(nameKey(name), manufactureId);
+	}
+	
+	/**
+	 * Discards the dictionary so it is reloaded from the table on next use
+	 */
+	private synchronized void clearDictionary() {
+		manufactureNames.clear();
+		manufactureIds.clear();
+		dictionaryLoaded = false;
+		dictionaryGeneration++;
+	}
+	
+	/**
+	 * @param name A manufacture name (case-insensitive)
+	 * @return The dictionary's manufacture or null if the name is not in the dictionary
+	 */
+	private synchronized Manufacture lookupManufacture(String name) {
+		if (name == null)
+			return null;
+		
+		Integer manufactureId = manufactureIds.get(nameKey(name));
+		return (manufactureId != null) ? new Manufacture(manufactureId, manufactureNames.get(manufactureId)) : null;
+	}
+
 	/**
 	 * Finds a manufacture by id within a database
 	 * 
@@ -90,19 +225,12 @@ public class ManufactureEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public Manufacture findManufacture(int manufactureId) throws SQLException {
-		final String findManufactureQuery = "SELECT name FROM manufacture WHERE manufactureId = ?";
-		Manufacture manufacture = null;
-		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement statement = dbConnection.prepareStatement(findManufactureQuery)) {
-			statement.setInt(1, manufactureId);
-			ResultSet result = statement.executeQuery();
-			if (result.next()) {
-				manufacture = new Manufacture(manufactureId, result.getString("name"));
-			}
-		}
+		loadDictionary();
 		
-		return manufacture;
+		synchronized (this) {
+			String name = manufactureNames.get(manufactureId);
+			return (name != null) ? new Manufacture(manufactureId, name) : null;
+		}
 	}
 	
 	/**
@@ -113,21 +241,9 @@ public class ManufactureEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public Manufacture findManufacture(String name) throws SQLException {
-		final String findManufactureQuery = "SELECT * FROM manufacture WHERE name = ?";
-		Manufacture manufacture = null;
-		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement statement = dbConnection.prepareStatement(findManufactureQuery)) {
-			statement.setString(1, name);
-			ResultSet result = statement.executeQuery();
-			if (result.next()) {
-				String manufactureName = result.getString("name");
-				int manufactureId = result.getInt("manufactureId"); 
-				manufacture = new Manufacture(manufactureId, manufactureName);
-			}
-		}
+		loadDictionary();
 		
-		return manufacture;
+		return lookupManufacture(name);
 	}
 	
 	/**
@@ -138,28 +254,145 @@ public class ManufactureEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public Manufacture addManufacture(String name) throws SQLException {
-		final String addManufactureQuery = "INSERT INTO manufacture (name) VALUES (?)";
-		final String getManufactureIdQuery = "SELECT last_insert_rowid() AS manufactureId";
-
+		try (Transaction transaction = databaseManager.beginTransaction()) {
+			Manufacture manufacture = addManufacture(name, transaction);
+			transaction.commit();
+			return manufacture;
+		}
+	}
+	
+	/**
+	 * Adds a new manufacture within an existing transaction if it doesn't already exists. 
+	 * 
+	 * @param name The manufacture name (case-insensitive)
+	 * @param transaction The transaction to perform the insert in
+	 * @return A manufacture object for the new manufacture or existing manufacture if found
+	 * @throws SQLException If a database error occurs
+	 */
+	public Manufacture addManufacture(String name, Transaction transaction) throws SQLException {
 		Manufacture manufacture = findManufacture(name);
 		
 		if (manufacture == null) {
-			try (Connection dbConnection = databaseManager.getConnection(true);
-					PreparedStatement statement = dbConnection.prepareStatement(addManufactureQuery)) {
-				statement.setString(1, name);
-				statement.executeUpdate();
+			ArrayList<String> names = new ArrayList<String>(1);
+			names.add(name);
+			manufacture = insertManufactures(names, transaction).get(name);
+		}
+		
+		return manufacture;
+	}
+	
+	/**
+	 * Resolves a group of manufacture names within an existing transaction creating any 
+	 * manufacture that doesn't already exist. Existing manufactures are found with a few 
+	 * IN queries and missing manufactures are inserted as a single batch. 
+	 * 
+	 * @param names The manufacture names (case-insensitive, duplicates allowed)
+	 * @param transaction The transaction to perform the inserts in
+	 * @return Manufactures keyed case-insensitively by name
+	 * @throws SQLException If a database error occurs
+	 */
+	public Map<String, Manufacture> addManufactures(Collection<String> names, Transaction transaction) 
+			throws SQLException {
+		TreeSet<String> uniqueNames = new TreeSet<String>(NAME_ORDER);
+		uniqueNames.addAll(names);
+		
+		loadDictionary();
+		TreeMap<String, Manufacture> manufactures = new TreeMap<String, Manufacture>(NAME_ORDER);
+		ArrayList<String> missingNames = new ArrayList<String>();
+		for (String name : uniqueNames) {
+			Manufacture manufacture = lookupManufacture(name);
+			if (manufacture != null)
+				manufactures.put(name, manufacture);
+			else
+				missingNames.add(name);
+		}
+		
+		if (!missingNames.isEmpty())
+			manufactures.putAll(insertManufactures(missingNames, transaction));
+		
+		return manufactures;
+	}
+	
+	/**
+	 * Inserts manufactures that are not in the dictionary as a single batch. 
+	 * They are added to the dictionary once the transaction commits so other 
+	 * threads never resolve a name to an id that may still be rolled back. 
+	 * 
+	 * @param names Names missing from the dictionary (case-insensitive, no duplicates)
+	 * @param transaction The transaction to perform the inserts in
+	 * @return The manufactures keyed case-insensitively by name
+	 * @throws SQLException If a database error occurs or a name cannot be added
+	 */
+	private Map<String, Manufacture> insertManufactures(List<String> names, Transaction transaction) 
+			throws SQLException {
+		Connection dbConnection = transaction.getConnection();
+		
+		try (PreparedStatement statement = dbConnection.prepareStatement(ADD_MANUFACTURE_QUERY)) {
+			for (String name : names) {
+				if (name == null)
+					throw new SQLException("A manufacture name is required");
 				
-				Statement lastRowStatement = dbConnection.createStatement();
-				ResultSet results = lastRowStatement.executeQuery(getManufactureIdQuery);
-				if (results.next()) {
-					manufacture = new Manufacture(results.getInt("manufactureId"), name);
+				statement.setString(1, name);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+		
+		// Names that already existed were ignored, so every id is read back
+		final Map<String, Manufacture> manufactures = findManufactures(names, dbConnection);
+		for (String name : names) {
+			if (manufactures.get(name) == null)
+				throw new SQLException(String.format("Unable to add manufacture \"%s\"", name));
+		}
+		
+		transaction.onCommit(new Runnable() {
+			@Override
+			public void run() {
+				for (Manufacture manufacture : manufactures.values()) {
+					addToDictionary(manufacture.getManufactureId(), manufacture.getName());
+				}
+			}
+		});
+		
+		return manufactures;
+	}
+	
+	/**
+	 * Performs a case-insensitive search for several manufacture names at once
+	 * 
+	 * @param names Names to search for
+	 * @param dbConnection The connection to query
+	 * @return The manufactures found keyed case-insensitively by name
+	 * @throws SQLException If a database error occurs
+	 */
+	private Map<String, Manufacture> findManufactures(Collection<String> names, Connection dbConnection) 
+			throws SQLException {
+		TreeMap<String, Manufacture> manufactures = new TreeMap<String, Manufacture>(NAME_ORDER);
+		ArrayList<String> remainingNames = new ArrayList<String>(names);
+		
+		// Query in chunks to stay below SQLite's bound parameter limit
+		for (int start = 0; start < remainingNames.size(); start += MAXIMUM_QUERY_PARAMETERS) {
+			List<String> chunk = remainingNames.subList(start, 
+					Math.min(start + MAXIMUM_QUERY_PARAMETERS, remainingNames.size()));
+			StringBuilder findManufacturesQuery = new StringBuilder("SELECT * FROM manufacture WHERE name IN (?");
+			for (int index = 1; index < chunk.size(); index++) {
+				findManufacturesQuery.append(", ?");
+			}
+			findManufacturesQuery.append(")");
+			
+			try (PreparedStatement statement = dbConnection.prepareStatement(findManufacturesQuery.toString())) {
+				for (int index = 0; index < chunk.size(); index++) {
+					statement.setString(index + 1, chunk.get(index));
+				}
+				ResultSet results = statement.executeQuery();
+				while (results.next()) {
+					String manufactureName = results.getString("name");
+					manufactures.put(manufactureName, new Manufacture(results.getInt("manufactureId"), manufactureName));
 				}
-				
-				
 			}
 		}
 		
-		return manufacture;
+		return manufactures;
 	}
 	
 	/**
@@ -169,26 +402,65 @@ public class ManufactureEntityManager implements EntityManager {
 	 * @throws SQLException If a database error occurs
 	 */
 	public ArrayList<Manufacture> getManufactures() throws SQLException {
-		final String getAllManufacturesQuery = "SELECT * FROM manufacture";
 		ArrayList<Manufacture> manufactures = null; 
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-				Statement statement = dbConnection.createStatement();
-				ResultSet results = statement.executeQuery(getAllManufacturesQuery)) {
-			while (results.next()) {
-				int manufactureId = results.getInt("manufactureId");
-				String name = results.getString("name");
-				
+		loadDictionary();
+		synchronized (this) {
+			// Ordered by id like the table's rows
+			for (Integer manufactureId : new TreeSet<Integer>(manufactureNames.keySet())) {
 				if (manufactures == null)
 					manufactures = new ArrayList<Manufacture>();
 				
-				manufactures.add(new Manufacture(manufactureId, name));
+				manufactures.add(new Manufacture(manufactureId, manufactureNames.get(manufactureId)));
 			}
 		}
 		
 		return manufactures; 
 	}
 	
+	/**
+	 * Retrieves one page of manufactures using keyset pagination (see Page).
+	 * Pages are read from the table rather than the dictionary so names are
+	 * ordered and compared with the column's NOCASE collation.
+	 * 
+	 * @param sortKey Orders the manufactures by manufacture id or name (case insensitive)
+	 * @param continuationToken The token of the previous page or null for the first page
+	 * @param limit The maximum number of manufactures in the page
+	 * @return The page of manufactures
+	 * @throws SQLException If a database error occurs
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of the sort key's
+	 */
+	public Page<Manufacture> getManufactures(Page.SortKey sortKey, String continuationToken, int limit) 
+			throws SQLException {
+		final String getManufacturesPageQuery = "SELECT manufactureId, name FROM manufacture"
+				+ Page.keysetClause(sortKey, "manufactureId", "name", continuationToken);
+		ArrayList<Manufacture> manufactures = null;
+		String nextContinuationToken = null;
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+				PreparedStatement statement = dbConnection.prepareStatement(getManufacturesPageQuery)) {
+			Page.bindKeyset(statement, sortKey, continuationToken, limit);
+			try (ResultSet manufactureResults = statement.executeQuery()) {
+				while (manufactureResults.next()) {
+					if (manufactures != null && manufactures.size() == limit) {
+						Manufacture lastManufacture = manufactures.get(limit - 1);
+						nextContinuationToken = Page.continuationToken(sortKey, lastManufacture.getManufactureId(), 
+								lastManufacture.getName());
+						break;
+					}
+					
+					if (manufactures == null)
+						manufactures = new ArrayList<Manufacture>();
+					
+					manufactures.add(new Manufacture(manufactureResults.getInt("manufactureId"), 
+							manufactureResults.getString("name")));
+				}
+			}
+		}
+		
+		return new Page<Manufacture>(manufactures, nextContinuationToken);
+	}
+	
 	/**
 	 * Creates a list of SQL statements necessary to recreate the
 	 * database table and data within the table. 
@@ -209,5 +481,38 @@ public class ManufactureEntityManager implements EntityManager {
 		
 		return exportSQLResults;
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", ManufactureEntityManager.TABLE_NAME));
+		writer.write(ManufactureEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(ManufactureEntityManager.TABLE_NAME, writer);
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", ManufactureEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(ManufactureEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(ManufactureEntityManager.TABLE_NAME, backupWriter);
+	}
 
 }
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when each row of the tracked tables was last changed so a backup
+ * can contain only the rows changed since an earlier backup.
+ * 
+ * modification_sequence holds a single counter that triggers on the tracked
+ * tables increment on every insert, update and delete. row_version holds the
+ * counter value of the last change to each row keyed by table name and the
+ * table's id column; a deleted row keeps its entry as a tombstone (deleted = 1)
+ * so the delete can be replayed. The rowid of a table is not used as the key as
+ * game, console and accessory rows get new rowids when a backup is restored.
+ * 
+ * Dependent tables (such as console_included_game) have no key of their own.
+ * Their rows are only changed together with the row of the tracked table they
+ * belong to, so they are exported as a whole for every changed row of it.
+ * 
+ * The tracker is registered before any other entity manager so the version
+ * tables are the first thing written to and restored from a backup. The tables
+ * and triggers are created by SchemaMigrator; createTable and createTriggers
+ * recreate them after a restore.
+ * 
+ * @author Russell Yorke
+ */
+class ModificationTracker implements EntityManager {
+	static final Map<String, String> TRACKED_TABLES;
+	static final Map<String, String> DEPENDENT_TABLES;
+	private static final String SEQUENCE_TABLE_NAME = "modification_sequence";
+	private static final String VERSION_TABLE_NAME = "row_version";
+	static final String CREATE_SEQUENCE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS modification_sequence "
+			+ "(version INTEGER NOT NULL)";
+	static final String INITIALIZE_SEQUENCE_QUERY = "INSERT INTO modification_sequence (version) "
+			+ "SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM modification_sequence)";
+	static final String CREATE_VERSION_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS row_version "
+			+ "(tableName TEXT NOT NULL, "
+			+ "rowKey INTEGER NOT NULL, "
+			+ "version INTEGER NOT NULL, "
+			+ "deleted INTEGER DEFAULT 0 NOT NULL, "
+			+ "PRIMARY KEY(tableName, rowKey))";
+	static final String CREATE_VERSION_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS row_version_version "
+			+ "ON row_version(tableName, version)";
+	private static final String NEXT_VERSION = "UPDATE modification_sequence SET version = version + 1; ";
+	private final SQLiteDBManager databaseManager;
+	
+	static {
+		// Table names mapped to the INTEGER column identifying a row
+		Map<String, String> trackedTables = new LinkedHashMap<String, String>();
+		trackedTables.put("manufacture", "manufactureId");
+		trackedTables.put("item", "itemId");
+		trackedTables.put("game", "gameId");
+		trackedTables.put("console", "consoleId");
+		trackedTables.put("accessory", "accessoryId");
+		trackedTables.put("user", "userId");
+		TRACKED_TABLES = Collections.unmodifiableMap(trackedTables);
+		
+		// Tracked table names mapped to the tables whose rows reference them by the tracked key column
+		Map<String, String> dependentTables = new LinkedHashMap<String, String>();
+		dependentTables.put("console", ConsoleEntityManager.INCLUDED_GAME_TABLE_NAME);
+		DEPENDENT_TABLES = Collections.unmodifiableMap(dependentTables);
+	}
+
+	/**
+	 * @param databaseManager The database whose tables are tracked
+	 */
+	public ModificationTracker(SQLiteDBManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * Idempotent method creating the sequence and row version tables
+	 * 
+	 * @throws SQLException If a database error occurs while processing the request.
+	 */
+	@Override
+	public void createTable() throws SQLException {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement()) {
+			if (!databaseManager.tableExists(VERSION_TABLE_NAME)) {
+				sqlStatement.executeUpdate(CREATE_VERSION_TABLE_QUERY);
+				sqlStatement.executeUpdate(CREATE_VERSION_INDEX_QUERY);
+			}
+			sqlStatement.executeUpdate(CREATE_SEQUENCE_TABLE_QUERY);
+			sqlStatement.executeUpdate(INITIALIZE_SEQUENCE_QUERY);
+		}
+	}
+
+	/**
+	 * Creates the triggers of every tracked table that exists (if they don't
+	 * already exist) as triggers are dropped with their table during a restore
+	 * 
+	 * @throws SQLException If a database error occurs
+	 */
+	public void createTriggers() throws SQLException {
+		try (Connection dbConnection = databaseManager.getConnection(true);
+				Statement sqlStatement = dbConnection.createStatement()) {
+			for (Map.Entry<String, String> trackedTable : TRACKED_TABLES.entrySet()) {
+				if (databaseManager.tableExists(trackedTable.getKey())) {
+					for (String triggerQuery : getTriggerQueries(trackedTable.getKey(), trackedTable.getValue())) {
+						sqlStatement.executeUpdate(triggerQuery);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the statements creating the triggers that record changes to a table
+	 * 
+	 * @param tableName The table to track
+	 * @param keyColumn The INTEGER column identifying a row of the table
+	 * @return The CREATE TRIGGER IF NOT EXISTS statements
+	 */
+	static ArrayList<String> getTriggerQueries(String tableName, String keyColumn) {
+		String triggerPrefix = "CREATE TRIGGER IF NOT EXISTS " + tableName + "_version_";
+		ArrayList<String> triggerQueries = new ArrayList<String>();
+
+		triggerQueries.add(triggerPrefix + "insert AFTER INSERT ON " + tableName + " BEGIN "
+				+ NEXT_VERSION
+				+ recordVersion(tableName, "NEW." + keyColumn, false, null)
+				+ "END");
+		// A changed key leaves a tombstone for the old key
+		triggerQueries.add(triggerPrefix + "update AFTER UPDATE ON " + tableName + " BEGIN "
+				+ NEXT_VERSION
+				+ recordVersion(tableName, "OLD." + keyColumn, true, 
+						String.format("OLD.%s IS NOT NEW.%s", keyColumn, keyColumn))
+				+ recordVersion(tableName, "NEW." + keyColumn, false, null)
+				+ "END");
+		triggerQueries.add(triggerPrefix + "delete AFTER DELETE ON " + tableName + " BEGIN "
+				+ NEXT_VERSION
+				+ recordVersion(tableName, "OLD." + keyColumn, true, null)
+				+ "END");
+
+		return triggerQueries;
+	}
+
+	/**
+	 * Builds a trigger statement recording the current version for a row
+	 * 
+	 * @param tableName The tracked table
+	 * @param rowKey The expression giving the row's key (NEW.column or OLD.column)
+	 * @param deleted True to record a tombstone
+	 * @param condition A condition limiting when the version is recorded (null to always record it)
+	 * @return The statement terminated with a semicolon
+	 */
+	private static String recordVersion(String tableName, String rowKey, boolean deleted, String condition) {
+		return String.format("INSERT OR REPLACE INTO row_version (tableName, rowKey, version, deleted) "
+				+ "SELECT '%s', %s, version, %d FROM modification_sequence%s; ", 
+				tableName, rowKey, (deleted) ? 1 : 0, (condition != null) ? " WHERE " + condition : "");
+	}
+
+	/**
+	 * Reads the counter value of the last change made to the database
+	 * 
+	 * @param dbConnection The connection to read from
+	 * @return The current modification version (0 before the first change)
+	 * @throws SQLException If a database error occurs
+	 */
+	public long getVersion(Connection dbConnection) throws SQLException {
+		try (Statement sqlStatement = dbConnection.createStatement();
+				ResultSet version = sqlStatement.executeQuery("SELECT version FROM " + SEQUENCE_TABLE_NAME)) {
+			return (version.next()) ? version.getLong(1) : 0;
+		}
+	}
+
+	/**
+	 * Creates a list of SQL statements necessary to recreate the
+	 * version tables and their data.
+	 * 
+	 * @return A list of SQL commands
+	 * @throws SQLException If a database error occurs.
+	 */
+	@Override
+	public ArrayList<String> exportTable() throws SQLException {
+		ArrayList<String> exportSQLResults = new ArrayList<String>();
+
+		for (String tableName : new String[] { SEQUENCE_TABLE_NAME, VERSION_TABLE_NAME }) {
+			exportSQLResults.add(String.format("DROP TABLE IF EXISTS %s", tableName));
+			exportSQLResults.add(createQuery(tableName));
+			if (VERSION_TABLE_NAME.equals(tableName))
+				exportSQLResults.add(CREATE_VERSION_INDEX_QUERY);
+
+			ArrayList<String> dataRecords = databaseManager.exportRecords(tableName);
+			if (dataRecords != null)
+				exportSQLResults.addAll(dataRecords);
+		}
+
+		return exportSQLResults;
+	}
+
+	/**
+	 * Writes the SQL statements necessary to recreate the version
+	 * tables and their data directly to a writer.
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		for (String tableName : new String[] { SEQUENCE_TABLE_NAME, VERSION_TABLE_NAME }) {
+			writer.write(String.format("DROP TABLE IF EXISTS %s\n", tableName));
+			writer.write(createQuery(tableName));
+			writer.write('\n');
+			if (VERSION_TABLE_NAME.equals(tableName)) {
+				writer.write(CREATE_VERSION_INDEX_QUERY);
+				writer.write('\n');
+			}
+
+			databaseManager.exportRecords(tableName, writer);
+		}
+	}
+
+	/**
+	 * Writes the SQL statements necessary to recreate the version
+	 * tables and their data to a binary backup segment.
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		for (String tableName : new String[] { SEQUENCE_TABLE_NAME, VERSION_TABLE_NAME }) {
+			backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", tableName));
+			backupWriter.writeCommand(createQuery(tableName));
+			if (VERSION_TABLE_NAME.equals(tableName))
+				backupWriter.writeCommand(CREATE_VERSION_INDEX_QUERY);
+
+			databaseManager.exportRecords(tableName, backupWriter);
+		}
+	}
+
+	/**
+	 * @param tableName One of the version tables
+	 * @return The query creating the table
+	 */
+	private static String createQuery(String tableName) {
+		return (SEQUENCE_TABLE_NAME.equals(tableName)) ? CREATE_SEQUENCE_TABLE_QUERY : CREATE_VERSION_TABLE_QUERY;
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * One page of a keyset paginated query. Pages are read in the order of a
+ * unique sort key and each page continues after the key of the last row of
+ * the previous page (WHERE key > ? ORDER BY key LIMIT ?), so every page is an
+ * index range scan costing the same however far into the table it is.
+ * 
+ * The continuation token of a page is passed to the same query to read the
+ * next page; the last page has no continuation token. Rows inserted or
+ * deleted between pages are seen or skipped without shifting other rows.
+ * 
+ * Usage:
+ * <pre>
+ * String token = null;
+ * do {
+ *     Page&lt;Game&gt; page = gameManager.getGames(Page.SortKey.NAME, token, 100);
+ *     ...
+ *     token = page.getContinuationToken();
+ * } while (token != null);
+ * </pre>
+ * 
+ * @param <T> The entity type of the page
+ * @author Russell Yorke
+ */
+public class Page<T> {
+	private final ArrayList<T> rows;
+	private final String continuationToken;
+
+	/**
+	 * The unique keys a paginated query can be ordered by
+	 * 
+	 * @author Russell Yorke
+	 */
+	public enum SortKey {
+		ID("id:"),
+		NAME("name:");
+
+		private final String tokenPrefix;
+
+		/**
+		 * @param tokenPrefix Prefix identifying the key in a continuation token
+		 */
+		private SortKey(String tokenPrefix) {
+			this.tokenPrefix = tokenPrefix;
+		}
+	}
+
+	/**
+	 * @param rows The rows of the page (null if the page is empty)
+	 * @param continuationToken The token reading the next page (null for the last page)
+	 */
+	Page(ArrayList<T> rows, String continuationToken) {
+		this.rows = rows;
+		this.continuationToken = continuationToken;
+	}
+
+	/**
+	 * @return The rows of the page in sort key order or null if the page is empty
+	 */
+	public ArrayList<T> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return The token to pass to the query for the next page or null if this is the last page
+	 */
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	/**
+	 * @return True if another page follows this page
+	 */
+	public boolean hasNextPage() {
+		return continuationToken != null;
+	}
+
+	/**
+	 * Builds the clause restricting and ordering a query to one page. The query
+	 * must end with its FROM (and JOIN) clauses.
+	 * 
+	 * @param sortKey The key the pages are ordered by
+	 * @param idColumn The unique INTEGER column used for SortKey.ID
+	 * @param nameColumn The unique TEXT column used for SortKey.NAME
+	 * @param continuationToken The token of the previous page (null for the first page)
+	 * @return The WHERE, ORDER BY and LIMIT clauses (bound with bindKeyset)
+	 */
+	static String keysetClause(SortKey sortKey, String idColumn, String nameColumn, String continuationToken) {
+		String sortColumn = (sortKey == SortKey.NAME) ? nameColumn : idColumn;
+		String afterClause = (continuationToken != null) ? String.format(" WHERE %s > ?", sortColumn) : "";
+
+		return String.format("%s ORDER BY %s LIMIT ?", afterClause, sortColumn);
+	}
+
+	/**
+	 * Binds the parameters of keysetClause. One row more than the limit is
+	 * requested to detect whether another page follows.
+	 * 
+	 * @param statement The page query
+	 * @param sortKey The key the pages are ordered by
+	 * @param continuationToken The token of the previous page (null for the first page)
+	 * @param limit The maximum number of rows in the page
+	 * @throws SQLException If a parameter cannot be set
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of this sort key's
+	 */
+	static void bindKeyset(PreparedStatement statement, SortKey sortKey, String continuationToken, int limit)
+			throws SQLException {
+		if (limit < 1)
+			throw new IllegalArgumentException("A page must hold at least one row");
+
+		int parameterIndex = 1;
+		if (continuationToken != null) {
+			if (!continuationToken.startsWith(sortKey.tokenPrefix))
+				throw new IllegalArgumentException("The continuation token was not created for sort key " + sortKey);
+
+			String lastKey = continuationToken.substring(sortKey.tokenPrefix.length());
+			if (sortKey == SortKey.ID) {
+				try {
+					statement.setLong(parameterIndex++, Long.parseLong(lastKey));
+				} catch (NumberFormatException exception) {
+					throw new IllegalArgumentException("Invalid continuation token " + continuationToken, exception);
+				}
+			} else {
+				statement.setString(parameterIndex++, lastKey);
+			}
+		}
+		statement.setInt(parameterIndex, limit + 1);
+	}
+
+	/**
+	 * Creates the continuation token reading the rows after a row
+	 * 
+	 * @param sortKey The key the pages are ordered by
+	 * @param id The row's id
+	 * @param name The row's name
+	 * @return The continuation token
+	 */
+	static String continuationToken(SortKey sortKey, long id, String name) {
+		return sortKey.tokenPrefix + ((sortKey == SortKey.NAME) ? name : String.valueOf(id));
+	}
+}
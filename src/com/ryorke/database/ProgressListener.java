@@ -0,0 +1,31 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+/**
+ * Receives progress updates from long running database operations such
+ * as an export or import. 
+ * 
+ * @author Russell Yorke
+ */
+public interface ProgressListener {
+	/**
+	 * Called periodically as work completes. Updates arrive on the thread 
+	 * performing the operation. 
+	 * 
+	 * @param completed The amount of work completed so far
+	 * @param total The total amount of work expected
+	 */
+	public void progressUpdated(long completed, long total);
+}
@@ -14,16 +14,23 @@
 package com.ryorke.database;
 
 import java.io.File;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.Writer;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Properties;
-import java.sql.DriverManager;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData; 
 
@@ -36,21 +43,52 @@ import java.sql.ResultSetMetaData;
  */
 public class SQLiteDBManager {
 	public static final String DB_FILENAME = "inventory.db";
+	public static final String POOL_SIZE_PROPERTY = "inventory.db.poolSize";
+	public static final String WAL_MODE_PROPERTY = "inventory.db.walMode";
+	public static final String READER_POOL_SIZE_PROPERTY = "inventory.db.readerPoolSize";
+	public static final String STATEMENT_CACHE_SIZE_PROPERTY = "inventory.db.statementCacheSize";
+	public static final int DEFAULT_POOL_SIZE = 4;
+	public static final int BUSY_TIMEOUT = 5000; // milliseconds
+	public static final long CHECKPOINT_INTERVAL = 60; // seconds
+	public static final String BACKUP_HEADER = "-- inventory backup version %d";
+	public static final String INCREMENTAL_BACKUP_HEADER = "-- inventory incremental backup from version %d to version %d";
+	private static final String INSERT_COMMAND = "INSERT INTO ";
+	private static final String REPLACE_COMMAND = "INSERT OR REPLACE INTO ";
 	private File dbFile;
 	private String connectionURL;
+	private Properties connectionProperties;
+	private boolean writeAheadLogging;
+	private ConnectionPool writerPool;
+	private ConnectionPool readerPool;
+	private ScheduledExecutorService checkpointScheduler = null;
+	private ModificationTracker modificationTracker;
+	private ChangeFeed changeFeed;
+	private final ItemCache itemCache = new ItemCache(ItemCache.DEFAULT_MEMORY_BUDGET);
+	private SchemaMigrator schemaMigrator = new SchemaMigrator();
 	private ArrayList<EntityManager> registeredEntityManagers = new ArrayList<EntityManager>();
 	private static SQLiteDBManager databaseManager = null;
 	
 	/**
 	 * Provides access to the singleton SQLiteDBManager. If the manager hasn't yet
-	 * been created it will be initialized/creates automatically. 
+	 * been created it will be initialized/creates automatically. The connection
+	 * pool is closed automatically when the application exits.
 	 * 
 	 * @return A singleton database manager instance
 	 * @throws IOException
 	 */
-	public static SQLiteDBManager getManager() throws IOException {
-		if (databaseManager == null)
+	public static synchronized SQLiteDBManager getManager() throws IOException {
+		if (databaseManager == null) {
 			databaseManager = new SQLiteDBManager(DB_FILENAME);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				/**
+				 * Releases database resources on exit
+				 */
+				@Override
+				public void run() {
+					databaseManager.shutdown();
+				}
+			}));
+		}
 		
 		return databaseManager;
 	}
@@ -72,6 +110,92 @@ public class SQLiteDBManager {
 		}
 		
 		connectionURL = String.format("jdbc:sqlite:%s", dbFile.getAbsolutePath());
+		
+		// Pragmas are applied once per pooled connection when it is opened
+		connectionProperties = new Properties();
+		connectionProperties.setProperty("synchronous", "OFF");  // Increases write performance at the risk of database corruption if power lost
+		connectionProperties.setProperty("busy_timeout", Integer.toString(BUSY_TIMEOUT)); // Wait for locks held by other pooled connections
+		int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+		
+		writeAheadLogging = Boolean.getBoolean(WAL_MODE_PROPERTY);
+		if (writeAheadLogging) {
+			// A single writer serializes all changes while readers work from
+			// their own snapshot of the database and never wait on the writer
+			connectionProperties.setProperty("journal_mode", "WAL");
+			writerPool = new ConnectionPool(connectionURL, getWriterProperties(), 1);
+			
+			int readerPoolSize = Integer.getInteger(READER_POOL_SIZE_PROPERTY, poolSize);
+			readerPool = new ConnectionPool(connectionURL, connectionProperties, readerPoolSize, 
+					"PRAGMA query_only = ON");
+			readerPool.setSnapshotReads(true);
+			
+			startCheckpointScheduler();
+		} else {
+			writerPool = new ConnectionPool(connectionURL, getWriterProperties(), poolSize);
+			readerPool = writerPool;
+		}
+		
+		int statementCacheSize = Integer.getInteger(STATEMENT_CACHE_SIZE_PROPERTY, 
+				ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE);
+		writerPool.setStatementCacheSize(statementCacheSize);
+		readerPool.setStatementCacheSize(statementCacheSize);
+		
+		modificationTracker = new ModificationTracker(this);
+		changeFeed = new ChangeFeed(this);
+		try {
+			schemaMigrator.migrate(this);
+			
+			// Registered first so the version tables lead every backup
+			registerEntityManager(modificationTracker);
+			registerEntityManager(changeFeed);
+		} catch (SQLException exception) {
+			throw new IOException("Unable to update the database schema", exception);
+		}
+	}
+	
+	/**
+	 * Periodically copies the write-ahead log back into the database file so
+	 * the log does not grow while readers hold old snapshots open. 
+	 */
+	private void startCheckpointScheduler() {
+		checkpointScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			/**
+			 * Creates a daemon thread so checkpointing never keeps the application alive
+			 */
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread checkpointThread = new Thread(runnable, "WAL checkpoint");
+				checkpointThread.setDaemon(true);
+				return checkpointThread;
+			}
+		});
+		
+		checkpointScheduler.scheduleWithFixedDelay(new Runnable() {
+			/**
+			 * Performs a checkpoint that does not wait on readers or writers
+			 */
+			@Override
+			public void run() {
+				try {
+					checkpoint("PASSIVE");
+				} catch (SQLException exception) {
+					// Retried on the next interval
+				}
+			}
+		}, CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Checkpoints the write-ahead log using the writer connection
+	 * 
+	 * @param mode The checkpoint mode (PASSIVE, FULL, RESTART or TRUNCATE)
+	 * @throws SQLException If a database error occurs
+	 */
+	private void checkpoint(String mode) throws SQLException {
+		try (Connection dbConnection = writerPool.getConnection(true);
+				Statement checkpointStatement = dbConnection.createStatement()) {
+			checkpointStatement.execute("PRAGMA wal_checkpoint(" + mode + ")");
+		}
 	}
 	
 	/**
@@ -83,91 +207,284 @@ public class SQLiteDBManager {
 	 * @throws SQLException if an error occurs while reading records from database
 	 */
 	public ArrayList<String> exportRecords(String tableName) throws SQLException {
-		ArrayList<String> exportSQLResults = null;
+		ArrayList<String> exportSQLResults = new ArrayList<String>();
+		
+		try {
+			exportRecords(tableName, "SELECT * FROM " + tableName, INSERT_COMMAND, null, exportSQLResults);
+		} catch (IOException exception) {
+			// Not possible as no writer is used
+			throw new SQLException(exception);
+		}
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
-			 Statement queryAllRecords = dbConnection.createStatement()) {		
+		return (exportSQLResults.isEmpty()) ? null : exportSQLResults;
+	}
+	
+	/**
+	 * Writes an INSERT statement (one per line) for each record in the table
+	 * directly to the writer as rows are read from the database. 
+	 * 
+	 * @param tableName The table name to query
+	 * @param writer The writer to send the INSERT statements to
+	 * @return The number of records written
+	 * @throws SQLException if an error occurs while reading records from database
+	 * @throws IOException if an error occurs while writing to the writer
+	 */
+	public long exportRecords(String tableName, Writer writer) throws SQLException, IOException {
+		return exportRecords(tableName, "SELECT * FROM " + tableName, INSERT_COMMAND, writer, null);
+	}
+	
+	/**
+	 * Generates an INSERT statement for each record selected from the table 
+	 * sending it either to a writer or a list. The column list is built once 
+	 * per table and a single buffer is reused for every row.
+	 * 
+	 * @param tableName The table name to query
+	 * @param selectQuery A query selecting every column of the records to export
+	 * @param insertCommand The command starting each statement (INSERT_COMMAND or REPLACE_COMMAND)
+	 * @param writer The writer to send statements to (null to use the list)
+	 * @param statements The list to add statements to when no writer is given
+	 * @return The number of records exported
+	 * @throws SQLException if an error occurs while reading records from database
+	 * @throws IOException if an error occurs while writing to the writer
+	 */
+	private long exportRecords(String tableName, String selectQuery, String insertCommand, Writer writer, 
+			ArrayList<String> statements) throws SQLException, IOException {
+		long recordCount = 0;
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+			 Statement queryAllRecords = dbConnection.createStatement();
+			 ResultSet records = queryAllRecords.executeQuery(selectQuery)) {
+			
+			// Column names and types are the same for every row
+			ResultSetMetaData recordMetadata = records.getMetaData();
+			int columnCount = recordMetadata.getColumnCount();
+			int[] columnTypes = new int[columnCount];
+			StringBuilder insertPrefix = new StringBuilder(insertCommand).append(tableName).append(" (");
+			for (int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
+				columnTypes[columnIndex - 1] = recordMetadata.getColumnType(columnIndex);
+				insertPrefix.append(recordMetadata.getColumnName(columnIndex));
+				if (columnIndex != columnCount)
+					insertPrefix.append(",");
+			}
+			insertPrefix.append(") VALUES (");
 			
-			// Extract each column and value into an INSERT statement
-			ResultSet records = queryAllRecords.executeQuery("SELECT * FROM " + tableName);
-			ResultSetMetaData recordMetadata = records.getMetaData();			
+			StringBuilder insertStatement = new StringBuilder(256);
 			while (records.next()) {
-				// Only create the record list if at least one record
-				// exists. 
-				if (exportSQLResults == null)
-					exportSQLResults = new ArrayList<String>();
-				
-				ArrayList<String> columnNames = new ArrayList<String>();
-				ArrayList<String> columnValues = new ArrayList<String>();
+				insertStatement.setLength(0);
+				insertStatement.append(insertPrefix);
 				
-				for (int columnIndex = 1; columnIndex <= recordMetadata.getColumnCount(); columnIndex++) {
-					columnNames.add(recordMetadata.getColumnName(columnIndex));
-					
-					switch (recordMetadata.getColumnType(columnIndex)) {
+				for (int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
+					switch (columnTypes[columnIndex - 1]) {
 					case Types.INTEGER:
 					case Types.FLOAT:
 					case Types.DOUBLE:
 					case Types.REAL:
-						Object objectRecord = records.getObject(columnIndex);
-						if (objectRecord == null) {
-							columnValues.add("null");
-						} else {						
-							// Convert data type to Java Class (implicitly)
-							// and convert to string
-							columnValues.add(objectRecord.toString());
-						}
+						// Convert data type to Java Class (implicitly) and convert to string
+						insertStatement.append(records.getObject(columnIndex));
 						break;
 					case Types.VARCHAR:
 					case Types.NVARCHAR:
-						String stringRecord = records.getString(columnIndex);
-						if (stringRecord == null) {
-							columnValues.add("null");
-						} else {
-							// Escape single quotes (if present)
-							columnValues.add(String.format("'%s'", stringRecord.replaceAll("'", "''")));
-						}
+						appendQuoted(insertStatement, records.getString(columnIndex));
 						break;
 					default:
 						// Throw an error as we should never hit this spot
 						throw new SQLException("Unknown data type found during export");
-					}														
-				}
-				
-				StringBuilder insertStatement = new StringBuilder();
-				insertStatement.append("INSERT INTO " + tableName + " (");
-				for (int index = 0; index < columnNames.size(); index++) {					
-					insertStatement.append(columnNames.get(index));
-					if (index != columnNames.size() - 1)
-						insertStatement.append(",");
-				}
-				insertStatement.append(") VALUES (");
-				for (int index = 0; index < columnValues.size(); index++) {					
-					insertStatement.append(columnValues.get(index));
-					if (index != columnValues.size() - 1)
+					}
+					
+					if (columnIndex != columnCount)
 						insertStatement.append(",");
 				}
 				insertStatement.append(")");
-				exportSQLResults.add(insertStatement.toString());
-			}			
+				
+				if (writer != null) {
+					insertStatement.append('\n');
+					writer.append(insertStatement);
+				} else {
+					statements.add(insertStatement.toString());
+				}
+				recordCount++;
+			}
 		}
 		
-		return exportSQLResults;
+		return recordCount;
 	}
 	
 	/**
-	 * Establishes a new connections to the database
+	 * Writes every record in the table to the open segment of a binary backup
+	 * using the storage class of each value. 
 	 * 
-	 * @return A new database Connection
+	 * @param tableName The table name to query
+	 * @param backupWriter The binary backup to write the records to
+	 * @return The number of records written
+	 * @throws SQLException if an error occurs while reading records from database
+	 * @throws IOException if an error occurs while writing the backup
+	 */
+	public long exportRecords(String tableName, BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		long recordCount = 0;
+		
+		try (Connection dbConnection = databaseManager.getReadConnection();
+			 Statement queryAllRecords = dbConnection.createStatement();
+			 ResultSet records = queryAllRecords.executeQuery("SELECT * FROM " + tableName)) {
+			
+			ResultSetMetaData recordMetadata = records.getMetaData();
+			String[] columnNames = new String[recordMetadata.getColumnCount()];
+			for (int columnIndex = 1; columnIndex <= columnNames.length; columnIndex++) {
+				columnNames[columnIndex - 1] = recordMetadata.getColumnName(columnIndex);
+			}
+			backupWriter.beginTable(tableName, columnNames);
+			
+			while (records.next()) {
+				backupWriter.writeRow(records);
+				recordCount++;
+			}
+		}
+		
+		return recordCount;
+	}
+	
+	/**
+	 * Appends a string as an SQL literal escaping any single quotes
+	 * 
+	 * @param buffer The buffer to append to
+	 * @param value The value to append (null is written as null)
+	 */
+	private static void appendQuoted(StringBuilder buffer, String value) {
+		if (value == null) {
+			buffer.append("null");
+			return;
+		}
+		
+		buffer.append('\'');
+		int runStart = 0;
+		for (int index = value.indexOf('\''); index >= 0; index = value.indexOf('\'', index + 1)) {
+			buffer.append(value, runStart, index + 1).append('\'');
+			runStart = index + 1;
+		}
+		buffer.append(value, runStart, value.length()).append('\'');
+	}
+	
+	/**
+	 * Borrows a connection to the database from the connection pool. Closing
+	 * the connection returns it to the pool. In WAL mode this is the single
+	 * writer connection and callers are serialized. 
+	 * 
+	 * @param enforceForceKeys Enables foreign key support on the connection
+	 * @return A pooled database Connection
 	 * @throws SQLException if unable to access the database
 	 */
 	public Connection getConnection(Boolean enforceForceKeys) throws SQLException {
-		Properties connectionProperties = new Properties();
-		connectionProperties.setProperty("foreign_keys", enforceForceKeys.toString()); // Enables foreign key support
-		connectionProperties.setProperty("synchronous", "OFF");  // Increases write performance at the risk of database corruption if power lost
-		Connection databaseConnection = DriverManager.getConnection(connectionURL, connectionProperties);
+		return writerPool.getConnection(enforceForceKeys);
+	}
+	
+	/**
+	 * Creates the properties of writer connections. Their transactions begin 
+	 * with BEGIN IMMEDIATE, taking the write lock before the first read. With
+	 * a deferred BEGIN, two pooled writers that both read before writing
+	 * deadlock when each tries to upgrade its shared lock, and SQLite fails 
+	 * one of them with SQLITE_BUSY at once without waiting on busy_timeout.
+	 * A transaction that must hold the write lock before it reads, such as an
+	 * item id reservation, relies on this as well.
+	 * 
+	 * Reader connections keep deferred transactions so a snapshot read never
+	 * blocks the writer.
+	 * 
+	 * @return The connection properties with the IMMEDIATE transaction mode
+	 */
+	private Properties getWriterProperties() {
+		Properties writerProperties = new Properties();
+		writerProperties.putAll(connectionProperties);
+		writerProperties.setProperty("transaction_mode", "IMMEDIATE");
+		
+		return writerProperties;
+	}
+	
+	/**
+	 * Opens a new connection outside of the connection pools for long running 
+	 * maintenance work. The caller must close the connection. 
+	 * 
+	 * @return A new database Connection with foreign keys disabled
+	 * @throws SQLException if unable to access the database
+	 */
+	Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(connectionURL, connectionProperties);
+	}
+	
+	/**
+	 * Starts a unit of work on a writer connection. Entity manager operations given 
+	 * the transaction run on its connection and are committed together. 
+	 * 
+	 * @return A new transaction that must be committed before it is closed
+	 * @throws SQLException if unable to access the database
+	 */
+	public Transaction beginTransaction() throws SQLException {
+		return new Transaction(getConnection(true));
+	}
+	
+	/**
+	 * Borrows a connection for queries. In WAL mode this is a read-only connection
+	 * holding a consistent snapshot until it is closed, and it never waits on the 
+	 * writer. A thread that currently holds the writer connection receives it instead
+	 * so it can read its own uncommitted changes. 
+	 * 
+	 * @return A pooled database Connection that should only be used for queries
+	 * @throws SQLException if unable to access the database
+	 */
+	public Connection getReadConnection() throws SQLException {
+		Connection databaseConnection;
+		
+		if (readerPool == writerPool || writerPool.isHeldByCurrentThread()) {
+			databaseConnection = writerPool.getConnection(true);
+		} else {
+			databaseConnection = readerPool.getConnection(true);
+		}
+		
 		return databaseConnection;
 	}
 	
+	/**
+	 * @return True if the database uses WAL journaling with separate reader connections
+	 */
+	public boolean isWriteAheadLogging() {
+		return writeAheadLogging;
+	}
+	
+	/**
+	 * Provides access to the pool of connections used for changes for tuning and metrics
+	 * 
+	 * @return The writer connection pool
+	 */
+	public ConnectionPool getWriterPool() {
+		return writerPool;
+	}
+	
+	/**
+	 * Provides access to the pool of connections used for queries for tuning and metrics. 
+	 * This is the same pool as the writer pool unless WAL mode is enabled.
+	 * 
+	 * @return The reader connection pool
+	 */
+	public ConnectionPool getReaderPool() {
+		return readerPool;
+	}
+	
+	/**
+	 * Checkpoints the write-ahead log (when enabled) and closes all pooled connections. 
+	 * Called automatically when the application exits. 
+	 */
+	public void shutdown() {
+		if (checkpointScheduler != null) {
+			checkpointScheduler.shutdownNow();
+			readerPool.close();
+			try {
+				checkpoint("TRUNCATE");
+			} catch (SQLException exception) {
+				// The log is replayed when the database is next opened
+			}
+		}
+		
+		writerPool.close();
+	}
+	
 	/**
 	 * Checks if a table exists within the schema
 	 * 
@@ -178,7 +495,7 @@ public class SQLiteDBManager {
 	 */
 	public boolean tableExists(String tableNamePattern) throws SQLException {
 		boolean tableFound = false;
-		try (Connection connection = getConnection(true)) {
+		try (Connection connection = getReadConnection()) {
 			DatabaseMetaData metadata = connection.getMetaData();
 			ResultSet results = metadata.getTables(null, null, tableNamePattern, null);
 			tableFound = results.next();
@@ -188,8 +505,9 @@ public class SQLiteDBManager {
 	}
 	
 	/**
-	 * Registers a new entity class with the database manager and initializes
-	 * the tables (calling createTable() on all registered entity managers)
+	 * Registers a new entity class with the database manager so its tables are
+	 * included in backups. The tables themselves are created by the schema 
+	 * migrations when the database is opened.
 	 * 
 	 * @param entity A new entity to register with the database manager
 	 * 
@@ -201,21 +519,25 @@ public class SQLiteDBManager {
 			throw new NullPointerException("EntityManager cannot be null");
 		
 		registeredEntityManagers.add(entityManager);
-		createEntityManagerTables();		
 	}
 	
 	/**
-	 * Calls createTable() for all registered entity managers ensuring
-	 * their database tables have been created within the database. createTable()
-	 * must be idempotent as this method will call the createTable() method every
-	 * time a new entity is registered.  
+	 * Brings the schema up to date after its tables were replaced by a restore.
+	 * Migrations newer than the restored schema version are applied, then 
+	 * createTable() is called for all registered entity managers and the change 
+	 * tracking triggers dropped with the replaced tables are recreated. Every 
+	 * cached item is discarded. 
 	 * 
 	 * @throws SQLException When a database error occurs. 
 	 */
-	private void createEntityManagerTables() throws SQLException {
+	void refreshSchema() throws SQLException {
+		itemCache.invalidateAll();
+		schemaMigrator.migrate(this);
 		for (EntityManager entity : registeredEntityManagers) {
 			entity.createTable();
 		}
+		modificationTracker.createTriggers();
+		changeFeed.createTriggers();
 	}
 	
 	/**
@@ -229,16 +551,256 @@ public class SQLiteDBManager {
 	public ArrayList<String> exportDatabase() throws SQLException {
 		ArrayList<String> sqlStatements = new ArrayList<String>();
 		
-		for (EntityManager manager : registeredEntityManagers) {
-			ArrayList<String> exportData = manager.exportTable();
-			if (exportData != null) {
-				sqlStatements.addAll(exportData);
+		// Holding a read connection for the whole export keeps every table
+		// on the same snapshot as each manager borrows this same connection
+		try (Connection snapshotConnection = getReadConnection()) {
+			sqlStatements.add(schemaVersionCommand(snapshotConnection));
+			for (EntityManager manager : registeredEntityManagers) {
+				ArrayList<String> exportData = manager.exportTable();
+				if (exportData != null) {
+					sqlStatements.addAll(exportData);
+				}
 			}
 		}
 		
 		return sqlStatements;
 	}
 		
+	/**
+	 * Executes the exportTable method for all registered entity classes writing 
+	 * the SQL commands directly to the writer as they are generated so memory use 
+	 * does not grow with the size of the database. 
+	 * 
+	 * @param writer The writer to send SQL commands to (one per line)
+	 * @param listener Notified as records are written (may be null)
+	 * @throws SQLException When a database error occurs. 
+	 * @throws IOException When an error occurs while writing to the writer
+	 */
+	public void exportDatabase(Writer writer, ProgressListener listener) throws SQLException, IOException {
+		// Holding a read connection for the whole export keeps every table
+		// on the same snapshot as each manager borrows this same connection
+		try (Connection snapshotConnection = getReadConnection()) {
+			long totalRecords = 0;
+			if (listener != null) {
+				totalRecords = countRecords(snapshotConnection);
+				writer = new ProgressWriter(writer, listener, totalRecords);
+			}
+			
+			// Identifies the version incremental backups can be applied on top of
+			writer.write(String.format(BACKUP_HEADER, modificationTracker.getVersion(snapshotConnection)));
+			writer.write('\n');
+			writer.write(schemaVersionCommand(snapshotConnection));
+			writer.write('\n');
+			for (EntityManager manager : registeredEntityManagers) {
+				manager.exportTable(writer);
+			}
+			writer.flush();
+			
+			if (listener != null)
+				listener.progressUpdated(totalRecords, totalRecords);
+		}
+	}
+	
+	/**
+	 * Writes an incremental backup containing only the changes made since an 
+	 * earlier backup: an INSERT OR REPLACE statement for each tracked row inserted 
+	 * or updated and a DELETE statement for each row deleted since sinceVersion. 
+	 * The row versions and the modification sequence follow so further 
+	 * incremental backups can be applied on top. The first line records the 
+	 * versions the backup applies between (see INCREMENTAL_BACKUP_HEADER). 
+	 * 
+	 * Incremental backups are restored with DatabaseImporter.importChain.
+	 * 
+	 * @param writer The writer to send SQL commands to (one per line)
+	 * @param sinceVersion The version of the backup the changes apply to
+	 * @param listener Notified as records are written (may be null)
+	 * @return The version of the database included in the backup
+	 * @throws SQLException When a database error occurs or sinceVersion is newer than the database
+	 * @throws IOException When an error occurs while writing to the writer
+	 */
+	public long exportDatabaseChanges(Writer writer, long sinceVersion, ProgressListener listener) 
+			throws SQLException, IOException {
+		try (Connection snapshotConnection = getReadConnection();
+				Statement sqlStatement = snapshotConnection.createStatement()) {
+			long version = modificationTracker.getVersion(snapshotConnection);
+			if (sinceVersion > version)
+				throw new SQLException(String.format("Version %d is newer than the database (version %d)", 
+						sinceVersion, version));
+			
+			long totalRecords = 0;
+			if (listener != null) {
+				try (ResultSet count = sqlStatement.executeQuery(
+						"SELECT COUNT(*) FROM row_version WHERE version > " + sinceVersion)) {
+					totalRecords = (count.next()) ? count.getLong(1) * 2 : 0;
+				}
+				writer = new ProgressWriter(writer, listener, totalRecords);
+			}
+			
+			writer.write(String.format(INCREMENTAL_BACKUP_HEADER, sinceVersion, version));
+			writer.write('\n');
+			for (Map.Entry<String, String> trackedTable : ModificationTracker.TRACKED_TABLES.entrySet()) {
+				String tableName = trackedTable.getKey();
+				String keyColumn = trackedTable.getValue();
+				
+				// Walks the version index rather than scanning the table
+				exportRecords(tableName, String.format("SELECT %1$s.* FROM row_version CROSS JOIN %1$s "
+						+ "ON %1$s.%2$s = row_version.rowKey WHERE row_version.tableName = '%1$s' "
+						+ "AND row_version.version > %3$d AND row_version.deleted = 0", 
+						tableName, keyColumn, sinceVersion), REPLACE_COMMAND, writer, null);
+				
+				try (ResultSet deletedRows = sqlStatement.executeQuery(String.format("SELECT rowKey FROM row_version "
+						+ "WHERE tableName = '%s' AND version > %d AND deleted = 1", tableName, sinceVersion))) {
+					while (deletedRows.next()) {
+						writer.write(String.format("DELETE FROM %s WHERE %s = %d\n", 
+								tableName, keyColumn, deletedRows.getLong(1)));
+					}
+				}
+				
+				String dependentTable = ModificationTracker.DEPENDENT_TABLES.get(tableName);
+				if (dependentTable != null) {
+					// The dependent rows of every changed row are replaced as a whole
+					try (ResultSet changedRows = sqlStatement.executeQuery(String.format("SELECT rowKey FROM row_version "
+							+ "WHERE tableName = '%s' AND version > %d", tableName, sinceVersion))) {
+						while (changedRows.next()) {
+							writer.write(String.format("DELETE FROM %s WHERE %s = %d\n", 
+									dependentTable, keyColumn, changedRows.getLong(1)));
+						}
+					}
+					exportRecords(dependentTable, String.format("SELECT %1$s.* FROM row_version CROSS JOIN %1$s "
+							+ "ON %1$s.%2$s = row_version.rowKey WHERE row_version.tableName = '%3$s' "
+							+ "AND row_version.version > %4$d AND row_version.deleted = 0", 
+							dependentTable, keyColumn, tableName, sinceVersion), INSERT_COMMAND, writer, null);
+				}
+				exportRecords("row_version", String.format("SELECT * FROM row_version "
+						+ "WHERE tableName = '%s' AND version > %d", tableName, sinceVersion), 
+						REPLACE_COMMAND, writer, null);
+			}
+			writer.write(String.format("UPDATE modification_sequence SET version = %d\n", version));
+			writer.flush();
+			
+			if (listener != null)
+				listener.progressUpdated(totalRecords, totalRecords);
+			
+			return version;
+		}
+	}
+	
+	/**
+	 * Writes a binary backup with one segment per registered entity manager. 
+	 * Values keep their storage class (REAL columns are stored exactly) and 
+	 * each segment carries a CRC so a damaged backup is detected on restore. 
+	 * Binary backups are restored with DatabaseImporter.importFile. 
+	 * 
+	 * @param backupFile The file to write the backup to (replaced if it exists)
+	 * @param compressed If true each segment is gzip compressed
+	 * @param listener Notified as records are written (may be null)
+	 * @throws SQLException When a database error occurs. 
+	 * @throws IOException When an error occurs while writing the backup
+	 */
+	public void exportBinaryDatabase(File backupFile, boolean compressed, ProgressListener listener) 
+			throws SQLException, IOException {
+		// Holding a read connection for the whole export keeps every table
+		// on the same snapshot as each manager borrows this same connection
+		try (Connection snapshotConnection = getReadConnection();
+				BinaryBackupWriter backupWriter = new BinaryBackupWriter(backupFile, compressed)) {
+			if (listener != null)
+				backupWriter.setProgressListener(listener, countRecords(snapshotConnection));
+			
+			backupWriter.beginSegment(SchemaMigrator.class.getSimpleName());
+			backupWriter.writeCommand(schemaVersionCommand(snapshotConnection));
+			backupWriter.endSegment();
+			for (EntityManager manager : registeredEntityManagers) {
+				backupWriter.beginSegment(manager.getClass().getSimpleName());
+				manager.exportTable(backupWriter);
+				backupWriter.endSegment();
+			}
+			backupWriter.finish();
+		}
+	}
+	
+	/**
+	 * Builds the command restoring the schema version of the database so 
+	 * migrations newer than the backup are applied once it is restored
+	 * 
+	 * @param dbConnection The connection the export reads from
+	 * @return A PRAGMA user_version command
+	 * @throws SQLException When a database error occurs. 
+	 */
+	private static String schemaVersionCommand(Connection dbConnection) throws SQLException {
+		return "PRAGMA user_version = " + SchemaMigrator.getVersion(dbConnection);
+	}
+	
+	/**
+	 * Counts the records of every table for progress reporting
+	 * 
+	 * @param dbConnection The connection the export reads from
+	 * @return The total number of records in the database
+	 * @throws SQLException When a database error occurs. 
+	 */
+	private long countRecords(Connection dbConnection) throws SQLException {
+		long totalRecords = 0;
+		
+		try (Statement countStatement = dbConnection.createStatement()) {
+			ArrayList<String> tableNames = new ArrayList<String>();
+			try (ResultSet tables = countStatement.executeQuery(
+					"SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'")) {
+				while (tables.next()) {
+					tableNames.add(tables.getString("name"));
+				}
+			}
+			for (String tableName : tableNames) {
+				try (ResultSet count = countStatement.executeQuery("SELECT COUNT(*) FROM " + tableName)) {
+					if (count.next())
+						totalRecords += count.getLong(1);
+				}
+			}
+		}
+		
+		return totalRecords;
+	}
+	
+	/**
+	 * @return The feed of changes made to the captured tables
+	 */
+	public ChangeFeed getChangeFeed() {
+		return changeFeed;
+	}
+	
+	/**
+	 * @return The cache of consoles, accessories and games shared by their entity managers
+	 */
+	public ItemCache getItemCache() {
+		return itemCache;
+	}
+	
+	/**
+	 * @return The version of the last change made to a tracked table
+	 * @throws SQLException When a database error occurs. 
+	 */
+	public long getModificationVersion() throws SQLException {
+		try (Connection dbConnection = getReadConnection()) {
+			return modificationTracker.getVersion(dbConnection);
+		}
+	}
+	
+	/**
+	 * Copies the database into a standalone SQLite database file while the 
+	 * application keeps running. Rows are copied in small steps on a dedicated 
+	 * connection so writers are not blocked; in WAL mode the backup is a single 
+	 * consistent snapshot. The backup file can replace inventory.db directly. 
+	 * 
+	 * @param backupFile The file to write the backup to (replaced if it exists)
+	 * @param listener Notified with the pages written and the database's total pages (may be null)
+	 * @return The number of pages in the backup
+	 * @throws SQLException When a database error occurs. 
+	 * @throws IOException When the backup file cannot be written
+	 */
+	public long backupDatabase(File backupFile, ProgressListener listener) throws SQLException, IOException {
+		SnapshotBackup snapshotBackup = new SnapshotBackup(this, backupFile);
+		snapshotBackup.setProgressListener(listener);
+		return snapshotBackup.backup();
+	}
+	
 	/**
 	 * Executes an SQL statement using an existing connection
 	 * 
@@ -289,5 +851,64 @@ public class SQLiteDBManager {
 		
 		
 	}
+	
+	/**
+	 * Passes characters through to another writer counting the lines 
+	 * written and notifying a listener as each block of lines completes
+	 * 
+	 * @author Russell Yorke
+	 */
+	private static class ProgressWriter extends FilterWriter {
+		private static final int NOTIFICATION_INTERVAL = 1000; // lines
+		private final ProgressListener listener;
+		private final long total;
+		private long linesWritten = 0;
+		
+		/**
+		 * Wraps a writer reporting progress to the listener
+		 * 
+		 * @param writer The writer being wrapped
+		 * @param listener Notified after every NOTIFICATION_INTERVAL lines
+		 * @param total The expected number of lines reported to the listener
+		 */
+		public ProgressWriter(Writer writer, ProgressListener listener, long total) {
+			super(writer);
+			this.listener = listener;
+			this.total = total;
+		}
+		
+		@Override
+		public void write(int character) throws IOException {
+			super.write(character);
+			if (character == '\n')
+				lineCompleted();
+		}
+		
+		@Override
+		public void write(char[] buffer, int offset, int length) throws IOException {
+			super.write(buffer, offset, length);
+			for (int index = offset; index < offset + length; index++) {
+				if (buffer[index] == '\n')
+					lineCompleted();
+			}
+		}
+		
+		@Override
+		public void write(String text, int offset, int length) throws IOException {
+			super.write(text, offset, length);
+			for (int index = offset; index < offset + length; index++) {
+				if (text.charAt(index) == '\n')
+					lineCompleted();
+			}
+		}
+		
+		/**
+		 * Counts a line and notifies the listener at each interval. The count is
+		 * capped at the total as table commands are also lines. 
+		 */
+		private void lineCompleted() {
+			if (++linesWritten % NOTIFICATION_INTERVAL == 0)
+				listener.progressUpdated(Math.min(linesWritten, total), total);
+		}
+	}
 }
-
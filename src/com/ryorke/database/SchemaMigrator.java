@@ -0,0 +1,459 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * Brings the database schema up to date when the database is opened. The 
+ * schema version is kept in PRAGMA user_version and each migration moves the
+ * schema from the previous version to its own. Pending migrations run in a 
+ * single transaction so a failed upgrade leaves the database untouched; when 
+ * the version is current nothing but the version is read. 
+ * 
+ * A schema change is made by adding a migration with the next version number.
+ * Existing migrations must not be changed as databases may already have them.
+ * 
+ * @author Russell Yorke
+ */
+class SchemaMigrator {
+	/*
+	 * The schema of migration 1 as it was first released. These statements 
+	 * must not follow later changes to the entity managers; those are new 
+	 * migrations.
+	 */
+	private static final String[] BASELINE_TABLE_QUERIES = {
+		"CREATE TABLE IF NOT EXISTS manufacture"
+				+ "(manufactureId INTEGER PRIMARY KEY, "
+				+ "name TEXT UNIQUE NOT NULL COLLATE NOCASE)",
+		"CREATE TABLE IF NOT EXISTS item "
+				+ "(itemId INTEGER PRIMARY KEY, "
+				+ "name TEXT UNIQUE NOT NULL, "
+				+ "description TEXT NOT NULL, "
+				+ "manufactureId INTEGER NOT NULL, "
+				+ "releaseDate TEXT NOT NULL, "
+				+ "unitCost REAL DEFAULT 0.00 NOT NULL, "
+				+ "unitsInStock INTEGER DEFAULT 0 NOT NULL, "
+				+ "width REAL DEFAULT 0.000 NOT NULL, "
+				+ "height REAL DEFAULT 0.000 NOT NULL, "
+				+ "depth REAL DEFAULT 0.000 NOT NULL, "
+				+ "weight REAL DEFAULT 0.000 NOT NULL,"
+				+ "FOREIGN KEY(manufactureId) REFERENCES manufacture(manufactureId) ON DELETE RESTRICT)",
+		"CREATE TABLE IF NOT EXISTS game "
+				+ "(gameId INTEGER UNIQUE NOT NULL, "
+				+ "numberOfDiscs INTEGER NOT NULL, "
+				+ "numberOfPlayers INTEGER NOT NULL, "
+				+ "consoleId INTEGER NOT NULL, "
+				+ "esrbRating TEXT NOT NULL,"
+				+ "FOREIGN KEY(gameId) REFERENCES item(itemId) ON DELETE RESTRICT,"
+				+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE RESTRICT)",
+		"CREATE TABLE IF NOT EXISTS console "
+				+ "(consoleId INTEGER UNIQUE NOT NULL, "
+				+ "color TEXT NOT NULL, "
+				+ "controllersIncluded INTEGER NOT NULL, "
+				+ "diskSpace TEXT NOT NULL, "
+				+ "includedGameIds TEXT, "
+				+ "modelNumber TEXT NOT NULL,"
+				+ "FOREIGN KEY(consoleId) REFERENCES item(itemId) ON DELETE RESTRICT)",
+		"CREATE TABLE IF NOT EXISTS accessory "
+				+ "(accessoryId INTEGER UNIQUE NOT NULL, "
+				+ "color TEXT NOT NULL, "
+				+ "consoleId INTEGER NOT NULL, "
+				+ "modelNumber TEXT NOT NULL,"
+				+ "FOREIGN KEY(accessoryId) REFERENCES item(itemId) ON DELETE RESTRICT,"
+				+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE RESTRICT)",
+		"CREATE TABLE IF NOT EXISTS user "
+				+ "(userId INTEGER PRIMARY KEY, "
+				+ "username TEXT NOT NULL UNIQUE COLLATE NOCASE, "
+				+ "password TEXT NOT NULL, "
+				+ "firstName TEXT NOT NULL, "
+				+ "lastName TEXT NOT NULL, "
+				+ "administrator INTEGER DEFAULT 0)"
+	};
+	private static final String BASELINE_DEFAULT_USER_QUERY = "INSERT INTO user "
+			+ "(username, password, firstName, lastName, administrator) "
+			+ "VALUES ('admin', 'admin', 'Administrative', 'User', 1)";
+	private static final String BASELINE_VIEW_QUERY = "CREATE VIEW IF NOT EXISTS inventory AS "
+			+ "SELECT item.itemId AS itemId, 'Console' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, console.color AS color, "
+			+ "console.modelNumber AS modelNumber, console.diskSpace AS diskSpace, "
+			+ "console.controllersIncluded AS controllersIncluded, "
+			+ "console.includedGameIds AS includedGameIds, NULL AS platformId, "
+			+ "NULL AS numberOfDiscs, NULL AS numberOfPlayers, NULL AS esrbRating "
+			+ "FROM console JOIN item ON item.itemId = console.consoleId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId "
+			+ "UNION ALL "
+			+ "SELECT item.itemId AS itemId, 'Accessory' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, accessory.color, accessory.modelNumber, "
+			+ "NULL, NULL, NULL, accessory.consoleId, NULL, NULL, NULL "
+			+ "FROM accessory JOIN item ON item.itemId = accessory.accessoryId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId "
+			+ "UNION ALL "
+			+ "SELECT item.itemId AS itemId, 'Game' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, NULL, NULL, NULL, NULL, NULL, "
+			+ "game.consoleId, game.numberOfDiscs, game.numberOfPlayers, game.esrbRating "
+			+ "FROM game JOIN item ON item.itemId = game.gameId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId";
+	private static final String[] BASELINE_TRACKING_QUERIES = {
+		"CREATE TABLE IF NOT EXISTS modification_sequence "
+				+ "(version INTEGER NOT NULL)",
+		"INSERT INTO modification_sequence (version) "
+				+ "SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM modification_sequence)",
+		"CREATE TABLE IF NOT EXISTS row_version "
+				+ "(tableName TEXT NOT NULL, "
+				+ "rowKey INTEGER NOT NULL, "
+				+ "version INTEGER NOT NULL, "
+				+ "deleted INTEGER DEFAULT 0 NOT NULL, "
+				+ "PRIMARY KEY(tableName, rowKey))",
+		"CREATE INDEX IF NOT EXISTS row_version_version "
+				+ "ON row_version(tableName, version)",
+		"CREATE TABLE IF NOT EXISTS change_log "
+				+ "(changeId INTEGER PRIMARY KEY, "
+				+ "tableName TEXT NOT NULL, "
+				+ "rowKey INTEGER NOT NULL, "
+				+ "operation TEXT NOT NULL)",
+		"CREATE TABLE IF NOT EXISTS change_consumer "
+				+ "(consumerName TEXT PRIMARY KEY, "
+				+ "position INTEGER NOT NULL)"
+	};
+	// Table names and the INTEGER column identifying a row
+	private static final String[][] BASELINE_TRACKED_TABLES = {
+		{"manufacture", "manufactureId"}, {"item", "itemId"}, {"game", "gameId"},
+		{"console", "consoleId"}, {"accessory", "accessoryId"}, {"user", "userId"}
+	};
+	private static final String[][] BASELINE_CAPTURED_TABLES = {
+		{"item", "itemId"}, {"game", "gameId"}, {"console", "consoleId"}, {"accessory", "accessoryId"}
+	};
+	// Formatted with the table name (%1$s) and key column (%2$s)
+	private static final String[] BASELINE_VERSION_TRIGGER_QUERIES = {
+		"CREATE TRIGGER IF NOT EXISTS %1$s_version_insert AFTER INSERT ON %1$s BEGIN "
+				+ "UPDATE modification_sequence SET version = version + 1; "
+				+ "INSERT OR REPLACE INTO row_version (tableName, rowKey, version, deleted) "
+				+ "SELECT '%1$s', NEW.%2$s, version, 0 FROM modification_sequence; END",
+		"CREATE TRIGGER IF NOT EXISTS %1$s_version_update AFTER UPDATE ON %1$s BEGIN "
+				+ "UPDATE modification_sequence SET version = version + 1; "
+				+ "INSERT OR REPLACE INTO row_version (tableName, rowKey, version, deleted) "
+				+ "SELECT '%1$s', OLD.%2$s, version, 1 FROM modification_sequence "
+				+ "WHERE OLD.%2$s IS NOT NEW.%2$s; "
+				+ "INSERT OR REPLACE INTO row_version (tableName, rowKey, version, deleted) "
+				+ "SELECT '%1$s', NEW.%2$s, version, 0 FROM modification_sequence; END",
+		"CREATE TRIGGER IF NOT EXISTS %1$s_version_delete AFTER DELETE ON %1$s BEGIN "
+				+ "UPDATE modification_sequence SET version = version + 1; "
+				+ "INSERT OR REPLACE INTO row_version (tableName, rowKey, version, deleted) "
+				+ "SELECT '%1$s', OLD.%2$s, version, 1 FROM modification_sequence; END"
+	};
+	private static final String[] BASELINE_CHANGE_TRIGGER_QUERIES = {
+		"CREATE TRIGGER IF NOT EXISTS %1$s_change_insert AFTER INSERT ON %1$s BEGIN "
+				+ "INSERT INTO change_log (tableName, rowKey, operation) "
+				+ "VALUES ('%1$s', NEW.%2$s, 'INSERT'); END",
+		"CREATE TRIGGER IF NOT EXISTS %1$s_change_update AFTER UPDATE ON %1$s BEGIN "
+				+ "INSERT INTO change_log (tableName, rowKey, operation) "
+				+ "SELECT '%1$s', OLD.%2$s, 'DELETE' WHERE OLD.%2$s IS NOT NEW.%2$s; "
+				+ "INSERT INTO change_log (tableName, rowKey, operation) "
+				+ "VALUES ('%1$s', NEW.%2$s, 'UPDATE'); END",
+		"CREATE TRIGGER IF NOT EXISTS %1$s_change_delete AFTER DELETE ON %1$s BEGIN "
+				+ "INSERT INTO change_log (tableName, rowKey, operation) "
+				+ "VALUES ('%1$s', OLD.%2$s, 'DELETE'); END"
+	};
+	// The schema of migration 3, the included game table and the view without includedGameIds
+	private static final String INCLUDED_GAME_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS console_included_game "
+			+ "(consoleId INTEGER NOT NULL, "
+			+ "gameId INTEGER NOT NULL, "
+			+ "PRIMARY KEY(consoleId, gameId), "
+			+ "FOREIGN KEY(consoleId) REFERENCES console(consoleId) ON DELETE CASCADE, "
+			+ "FOREIGN KEY(gameId) REFERENCES game(gameId) ON DELETE RESTRICT)";
+	private static final String INCLUDED_GAME_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS console_included_game_gameId "
+			+ "ON console_included_game(gameId, consoleId)";
+	private static final String INCLUDED_GAME_VIEW_QUERY = "CREATE VIEW IF NOT EXISTS inventory AS "
+			+ "SELECT item.itemId AS itemId, 'Console' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, console.color AS color, "
+			+ "console.modelNumber AS modelNumber, console.diskSpace AS diskSpace, "
+			+ "console.controllersIncluded AS controllersIncluded, NULL AS platformId, "
+			+ "NULL AS numberOfDiscs, NULL AS numberOfPlayers, NULL AS esrbRating "
+			+ "FROM console JOIN item ON item.itemId = console.consoleId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId "
+			+ "UNION ALL "
+			+ "SELECT item.itemId AS itemId, 'Accessory' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, accessory.color, accessory.modelNumber, "
+			+ "NULL, NULL, accessory.consoleId, NULL, NULL, NULL "
+			+ "FROM accessory JOIN item ON item.itemId = accessory.accessoryId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId "
+			+ "UNION ALL "
+			+ "SELECT item.itemId AS itemId, 'Game' AS itemType, item.name AS name, "
+			+ "item.description AS description, manufacture.name AS manufactureName, "
+			+ "item.releaseDate AS releaseDate, item.unitCost AS unitCost, "
+			+ "item.unitsInStock AS unitsInStock, item.width AS width, item.height AS height, "
+			+ "item.depth AS depth, item.weight AS weight, NULL, NULL, NULL, NULL, "
+			+ "game.consoleId, game.numberOfDiscs, game.numberOfPlayers, game.esrbRating "
+			+ "FROM game JOIN item ON item.itemId = game.gameId "
+			+ "LEFT JOIN manufacture ON manufacture.manufactureId = item.manufactureId";
+	private final ArrayList<Migration> migrations = new ArrayList<Migration>();
+
+	/**
+	 * Creates a migrator with every migration of the schema
+	 */
+	public SchemaMigrator() {
+		migrations.add(new Migration(1, "Baseline schema") {
+			/**
+			 * Creates every table, view and trigger. Databases created before the
+			 * schema was versioned already have some of them, so every statement
+			 * is IF NOT EXISTS and the default user is only added to a new user table.
+			 */
+			@Override
+			public void apply(Statement sqlStatement) throws SQLException {
+				boolean newUserTable = !tableExists(sqlStatement, "user");
+
+				for (String tableQuery : BASELINE_TABLE_QUERIES) {
+					sqlStatement.executeUpdate(tableQuery);
+				}
+				if (newUserTable)
+					sqlStatement.executeUpdate(BASELINE_DEFAULT_USER_QUERY);
+				sqlStatement.executeUpdate(BASELINE_VIEW_QUERY);
+
+				for (String trackingQuery : BASELINE_TRACKING_QUERIES) {
+					sqlStatement.executeUpdate(trackingQuery);
+				}
+				for (String[] trackedTable : BASELINE_TRACKED_TABLES) {
+					for (String triggerQuery : BASELINE_VERSION_TRIGGER_QUERIES) {
+						sqlStatement.executeUpdate(String.format(triggerQuery, trackedTable[0], trackedTable[1]));
+					}
+				}
+				for (String[] capturedTable : BASELINE_CAPTURED_TABLES) {
+					for (String triggerQuery : BASELINE_CHANGE_TRIGGER_QUERIES) {
+						sqlStatement.executeUpdate(String.format(triggerQuery, capturedTable[0], capturedTable[1]));
+					}
+				}
+			}
+		});
+		migrations.add(new Migration(2, "Foreign key indexes") {
+			/**
+			 * Indexes the foreign key columns of item, game and accessory so 
+			 * deleting a manufacture or console and per-console queries use an 
+			 * index instead of scanning the referencing table
+			 */
+			@Override
+			public void apply(Statement sqlStatement) throws SQLException {
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS item_manufactureId ON item(manufactureId)");
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS game_consoleId ON game(consoleId)");
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS accessory_consoleId ON accessory(consoleId)");
+			}
+		});
+		migrations.add(new Migration(3, "Console included game table") {
+			/**
+			 * Moves the comma-separated console.includedGameIds column into the
+			 * indexed console_included_game table and recreates the inventory 
+			 * view without the column. The column itself is kept (always NULL)
+			 * as SQLite cannot drop a column from a referenced table in place.
+			 */
+			@Override
+			public void apply(Statement sqlStatement) throws SQLException {
+				sqlStatement.executeUpdate(INCLUDED_GAME_TABLE_QUERY);
+				sqlStatement.executeUpdate(INCLUDED_GAME_INDEX_QUERY);
+				moveIncludedGameIds(sqlStatement.getConnection());
+
+				sqlStatement.executeUpdate("DROP VIEW IF EXISTS inventory");
+				sqlStatement.executeUpdate(INCLUDED_GAME_VIEW_QUERY);
+			}
+
+			/**
+			 * Moves the game ids of the comma-separated includedGameIds column
+			 * into console_included_game and clears the column. Ids of games 
+			 * that no longer exist are dropped.
+			 * 
+			 * @param dbConnection The migration connection
+			 * @throws SQLException If a database error occurs or an id is not a number
+			 */
+			private void moveIncludedGameIds(Connection dbConnection) throws SQLException {
+				final String legacyConsolesQuery = "SELECT consoleId, includedGameIds FROM console "
+						+ "WHERE includedGameIds IS NOT NULL";
+				final String moveIncludedGameQuery = "INSERT OR IGNORE INTO console_included_game "
+						+ "(consoleId, gameId) SELECT ?, gameId FROM game WHERE gameId = ?";
+				boolean moved = false;
+
+				try (Statement sqlStatement = dbConnection.createStatement();
+						PreparedStatement moveStatement = dbConnection.prepareStatement(moveIncludedGameQuery)) {
+					try (ResultSet legacyConsoles = sqlStatement.executeQuery(legacyConsolesQuery)) {
+						while (legacyConsoles.next()) {
+							for (String gameId : legacyConsoles.getString("includedGameIds").split(",")) {
+								if (gameId.trim().isEmpty())
+									continue;
+
+								moveStatement.setInt(1, legacyConsoles.getInt("consoleId"));
+								try {
+									moveStatement.setInt(2, Integer.parseInt(gameId.trim()));
+								} catch (NumberFormatException exception) {
+									throw new SQLException(String.format("Invalid included game id \"%s\"", gameId), 
+											exception);
+								}
+								moveStatement.addBatch();
+							}
+							moved = true;
+						}
+					}
+
+					if (moved) {
+						moveStatement.executeBatch();
+						sqlStatement.executeUpdate("UPDATE console SET includedGameIds = NULL "
+								+ "WHERE includedGameIds IS NOT NULL");
+					}
+				}
+			}
+		});
+		migrations.add(new Migration(4, "Inventory sort indexes") {
+			/**
+			 * Indexes the item columns the inventory window can be sorted by
+			 * so each window is an index seek rather than a sort of every item.
+			 * The name and itemId columns are already indexed by their UNIQUE
+			 * constraint and the primary key.
+			 */
+			@Override
+			public void apply(Statement sqlStatement) throws SQLException {
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS item_unitsInStock ON item(unitsInStock)");
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS item_unitCost ON item(unitCost)");
+				sqlStatement.executeUpdate("CREATE INDEX IF NOT EXISTS item_releaseDate ON item(releaseDate)");
+			}
+		});
+	}
+
+	/**
+	 * @return The schema version the migrations lead to
+	 */
+	public int getLatestVersion() {
+		return migrations.get(migrations.size() - 1).getVersion();
+	}
+
+	/**
+	 * Applies every migration newer than the database's schema version in a 
+	 * single transaction and records the new version
+	 * 
+	 * @param databaseManager The database to migrate
+	 * @return The schema version before migrating
+	 * @throws SQLException If a migration fails (no migration is kept) or the 
+	 *                      database was created by a newer version of the application
+	 */
+	public int migrate(SQLiteDBManager databaseManager) throws SQLException {
+		try (Transaction transaction = databaseManager.beginTransaction();
+				Statement sqlStatement = transaction.getConnection().createStatement()) {
+			int version = getVersion(transaction.getConnection());
+			int latestVersion = getLatestVersion();
+			if (version > latestVersion)
+				throw new SQLException(String.format("The database schema (version %d) is newer than this "
+						+ "application supports (version %d)", version, latestVersion));
+
+			if (version < latestVersion) {
+				for (Migration migration : migrations) {
+					if (migration.getVersion() <= version)
+						continue;
+
+					try {
+						migration.apply(sqlStatement);
+					} catch (SQLException exception) {
+						throw new SQLException(String.format("Schema migration %d (%s) failed", 
+								migration.getVersion(), migration.getDescription()), exception);
+					}
+				}
+				sqlStatement.executeUpdate("PRAGMA user_version = " + latestVersion);
+			}
+			transaction.commit();
+
+			return version;
+		}
+	}
+
+	/**
+	 * @param dbConnection A connection to the database
+	 * @return The database's schema version (0 for a database created before versioning)
+	 * @throws SQLException If a database error occurs
+	 */
+	public static int getVersion(Connection dbConnection) throws SQLException {
+		try (Statement sqlStatement = dbConnection.createStatement();
+				ResultSet version = sqlStatement.executeQuery("PRAGMA user_version")) {
+			return (version.next()) ? version.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * @param sqlStatement A statement to run the query on
+	 * @param tableName A table name
+	 * @return True if the table exists
+	 * @throws SQLException If a database error occurs
+	 */
+	private static boolean tableExists(Statement sqlStatement, String tableName) throws SQLException {
+		try (ResultSet table = sqlStatement.executeQuery(
+				"SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + tableName + "'")) {
+			return table.next();
+		}
+	}
+
+	/**
+	 * A change to the schema from the previous version
+	 * 
+	 * @author Russell Yorke
+	 */
+	private static abstract class Migration {
+		private final int version;
+		private final String description;
+
+		/**
+		 * @param version The schema version after the migration is applied
+		 * @param description What the migration changes
+		 */
+		public Migration(int version, String description) {
+			this.version = version;
+			this.description = description;
+		}
+
+		/**
+		 * @return The schema version after the migration is applied
+		 */
+		public int getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return What the migration changes
+		 */
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Applies the migration within the migration transaction
+		 * 
+		 * @param sqlStatement A statement on the migration connection
+		 * @throws SQLException If the migration fails
+		 */
+		public abstract void apply(Statement sqlStatement) throws SQLException;
+	}
+}
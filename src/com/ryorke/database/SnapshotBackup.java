@@ -0,0 +1,274 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * Copies the live database into a standalone SQLite database file in small
+ * steps. The copy is made on a dedicated connection with the backup file
+ * attached, a bounded range of rows per step, and progress is reported as the
+ * number of pages written to the backup against the pages of the database.
+ * 
+ * In WAL mode all steps run in one read transaction: the copy is a single
+ * consistent snapshot and writers are never blocked as readers do not block
+ * writers. With a rollback journal a read transaction would block writers for
+ * the whole copy, so each step runs in its own short transaction instead and,
+ * like SQLite's online backup API, the copy restarts when another connection
+ * changes the database between steps. After MAXIMUM_RESTARTS the final attempt
+ * copies within a single transaction.
+ * 
+ * Indexes, views and triggers are created once the rows are copied. The backup
+ * is written to a temporary file next to the target and moved into place only
+ * when complete.
+ * 
+ * @author Russell Yorke
+ */
+class SnapshotBackup {
+	public static final int STEP_ROWS = 5000;
+	public static final int MAXIMUM_RESTARTS = 3;
+	private static final String BACKUP_SCHEMA = "snapshot_backup";
+	private final SQLiteDBManager databaseManager;
+	private final File backupFile;
+	private final File temporaryFile;
+	private ProgressListener progressListener = null;
+
+	/**
+	 * @param databaseManager The database to back up
+	 * @param backupFile The file to write the backup to (replaced if it exists)
+	 */
+	public SnapshotBackup(SQLiteDBManager databaseManager, File backupFile) {
+		this.databaseManager = databaseManager;
+		this.backupFile = backupFile.getAbsoluteFile();
+		this.temporaryFile = new File(this.backupFile.getPath() + ".partial");
+	}
+
+	/**
+	 * @param progressListener Notified with pages written and total pages after each step (may be null)
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Performs the backup
+	 * 
+	 * @return The number of pages in the backup
+	 * @throws SQLException If the database cannot be read or the backup cannot be written
+	 * @throws IOException If the backup file cannot be replaced
+	 */
+	public long backup() throws SQLException, IOException {
+		long backupPages = -1;
+
+		try (Connection dbConnection = databaseManager.openConnection()) {
+			boolean snapshotReads = databaseManager.isWriteAheadLogging();
+			for (int attempt = 0; backupPages < 0; attempt++) {
+				Files.deleteIfExists(temporaryFile.toPath());
+				backupPages = copyDatabase(dbConnection, snapshotReads || attempt >= MAXIMUM_RESTARTS);
+			}
+		} catch (SQLException | IOException exception) {
+			temporaryFile.delete();
+			throw exception;
+		}
+
+		Files.move(temporaryFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return backupPages;
+	}
+
+	/**
+	 * Makes a single attempt at copying the database to the temporary file
+	 * 
+	 * @param dbConnection A dedicated connection to the database
+	 * @param singleTransaction If true every step runs in one read transaction
+	 * @return The number of pages in the backup or -1 if the database changed and the copy must restart
+	 * @throws SQLException If a database error occurs
+	 */
+	private long copyDatabase(Connection dbConnection, boolean singleTransaction) throws SQLException {
+		ArrayList<String> deferredSchema = new ArrayList<String>();
+		boolean completed = false;
+
+		try (Statement sqlStatement = dbConnection.createStatement()) {
+			// The backup is discarded on failure so it needs no journal
+			sqlStatement.execute(String.format("ATTACH DATABASE '%s' AS %s",
+					temporaryFile.getPath().replace("'", "''"), BACKUP_SCHEMA));
+			try {
+				sqlStatement.execute("PRAGMA " + BACKUP_SCHEMA + ".journal_mode = OFF");
+				sqlStatement.execute("PRAGMA " + BACKUP_SCHEMA + ".synchronous = OFF");
+				dbConnection.setAutoCommit(false);
+
+				// The schema is read in the same transaction as the rows when copying 
+				// a snapshot so the tables match the data
+				long dataVersion = queryLong(sqlStatement, "PRAGMA main.data_version");
+				long totalPages = queryLong(sqlStatement, "PRAGMA main.page_count");
+				ArrayList<String> tableNames = createTables(sqlStatement, deferredSchema);
+				if (!singleTransaction)
+					dbConnection.commit();
+
+				for (String tableName : tableNames) {
+					if (!copyTable(dbConnection, sqlStatement, tableName, totalPages, singleTransaction, dataVersion))
+						return -1;
+				}
+				if (!singleTransaction && queryLong(sqlStatement, "PRAGMA main.data_version") != dataVersion)
+					return -1;
+				if (tableExists(sqlStatement, "sqlite_sequence")) {
+					// Replaces the counters SQLite generated while the rows were copied
+					sqlStatement.execute("DELETE FROM " + BACKUP_SCHEMA + ".sqlite_sequence");
+					sqlStatement.execute(String.format("INSERT INTO %s.sqlite_sequence SELECT * FROM main.sqlite_sequence",
+							BACKUP_SCHEMA));
+				}
+				dbConnection.commit();
+				completed = true;
+			} finally {
+				if (!completed)
+					dbConnection.rollback();
+				dbConnection.setAutoCommit(true);
+				sqlStatement.execute("DETACH DATABASE " + BACKUP_SCHEMA);
+			}
+		}
+
+		try (Connection backupConnection = DriverManager.getConnection("jdbc:sqlite:" + temporaryFile.getPath());
+				Statement backupStatement = backupConnection.createStatement()) {
+			for (String schemaCommand : deferredSchema) {
+				backupStatement.execute(schemaCommand);
+			}
+			long backupPages = queryLong(backupStatement, "PRAGMA page_count");
+			if (progressListener != null)
+				progressListener.progressUpdated(backupPages, backupPages);
+			return backupPages;
+		}
+	}
+
+	/**
+	 * Creates the database's tables in the backup file. Indexes, views and 
+	 * triggers are returned to be created once the rows have been copied. 
+	 * 
+	 * @param sqlStatement A statement on the dedicated connection
+	 * @param deferredSchema Receives the schema commands to run after the copy
+	 * @return The names of the tables whose rows must be copied
+	 * @throws SQLException If a database error occurs
+	 */
+	private ArrayList<String> createTables(Statement sqlStatement, ArrayList<String> deferredSchema) 
+			throws SQLException {
+		// Internal tables such as sqlite_sequence are created by SQLite itself
+		ArrayList<String> tableNames = new ArrayList<String>();
+		int userVersion = (int) queryLong(sqlStatement, "PRAGMA main.user_version");
+
+		try (Connection backupConnection = DriverManager.getConnection("jdbc:sqlite:" + temporaryFile.getPath());
+				Statement backupStatement = backupConnection.createStatement();
+				ResultSet schema = sqlStatement.executeQuery("SELECT type, name, sql FROM main.sqlite_master "
+						+ "WHERE sql IS NOT NULL ORDER BY type = 'table' DESC, rowid")) {
+			while (schema.next()) {
+				String name = schema.getString("name");
+				if (!"table".equals(schema.getString("type"))) {
+					deferredSchema.add(schema.getString("sql"));
+				} else if (!name.startsWith("sqlite_")) {
+					backupStatement.execute(schema.getString("sql"));
+					tableNames.add(name);
+				}
+			}
+			backupStatement.execute("PRAGMA user_version = " + userVersion);
+		}
+
+		return tableNames;
+	}
+
+	/**
+	 * Copies a table's rows in steps of at most STEP_ROWS rows in rowid order
+	 * 
+	 * @param dbConnection The dedicated connection with the backup attached
+	 * @param sqlStatement A statement on the connection
+	 * @param tableName The table to copy
+	 * @param totalPages The number of pages in the database
+	 * @param singleTransaction If false each step is committed separately
+	 * @param dataVersion The database's data_version when the copy started
+	 * @return False if the database was changed by another connection and the copy must restart
+	 * @throws SQLException If a database error occurs
+	 */
+	private boolean copyTable(Connection dbConnection, Statement sqlStatement, String tableName, long totalPages,
+			boolean singleTransaction, long dataVersion) throws SQLException {
+		String quotedName = "\"" + tableName.replace("\"", "\"\"") + "\"";
+		String stepEndQuery = String.format("SELECT max(rowid) FROM (SELECT rowid FROM main.%s "
+				+ "WHERE rowid > ? ORDER BY rowid LIMIT %d)", quotedName, STEP_ROWS);
+		String copyStepQuery = String.format("INSERT INTO %s.%s SELECT * FROM main.%s WHERE rowid > ? AND rowid <= ?",
+				BACKUP_SCHEMA, quotedName, quotedName);
+
+		try (PreparedStatement stepEnd = dbConnection.prepareStatement(stepEndQuery);
+				PreparedStatement copyStep = dbConnection.prepareStatement(copyStepQuery)) {
+			long lastRowId = Long.MIN_VALUE;
+			while (true) {
+				if (!singleTransaction && queryLong(sqlStatement, "PRAGMA main.data_version") != dataVersion)
+					return false;
+
+				stepEnd.setLong(1, lastRowId);
+				long stepLastRowId;
+				try (ResultSet result = stepEnd.executeQuery()) {
+					result.next();
+					stepLastRowId = result.getLong(1);
+					if (result.wasNull())
+						break;
+				}
+
+				copyStep.setLong(1, lastRowId);
+				copyStep.setLong(2, stepLastRowId);
+				copyStep.executeUpdate();
+				lastRowId = stepLastRowId;
+
+				if (!singleTransaction)
+					dbConnection.commit();
+				if (progressListener != null) {
+					long pagesWritten = queryLong(sqlStatement, "PRAGMA " + BACKUP_SCHEMA + ".page_count");
+					progressListener.progressUpdated(Math.min(pagesWritten, totalPages), totalPages);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param sqlStatement A statement on the dedicated connection
+	 * @param tableName A table name
+	 * @return True if the table exists in the main database
+	 * @throws SQLException If a database error occurs
+	 */
+	private static boolean tableExists(Statement sqlStatement, String tableName) throws SQLException {
+		try (ResultSet table = sqlStatement.executeQuery(
+				"SELECT 1 FROM main.sqlite_master WHERE type = 'table' AND name = '" + tableName + "'")) {
+			return table.next();
+		}
+	}
+
+	/**
+	 * @param sqlStatement A statement to run the query on
+	 * @param query A query returning a single number
+	 * @return The number returned
+	 * @throws SQLException If a database error occurs
+	 */
+	private static long queryLong(Statement sqlStatement, String query) throws SQLException {
+		try (ResultSet result = sqlStatement.executeQuery(query)) {
+			result.next();
+			return result.getLong(1);
+		}
+	}
+}
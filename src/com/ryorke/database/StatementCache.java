@@ -0,0 +1,269 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches prepared statements for a single physical connection keyed by their
+ * SQL text so repeated queries skip statement compilation. The least recently
+ * used statement is closed once the cache grows past its maximum size.
+ *
+ * Statements returned by the cache are proxies; closing one closes its open
+ * result set and clears its parameters but keeps the compiled statement for
+ * the next caller. A statement still in use when the same SQL is prepared
+ * again is not shared; the second caller receives an uncached statement.
+ *
+ * @author Russell Yorke
+ */
+public class StatementCache {
+	private final Connection connection;
+	private final LinkedHashMap<String, CachedStatement> statements;
+	private int maximumSize;
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private final AtomicLong evictionCount;
+
+	/**
+	 * Creates an empty statement cache. Hit, miss and eviction counters are
+	 * supplied by the owner so statistics can be aggregated across connections.
+	 *
+	 * @param connection The physical connection statements are prepared on
+	 * @param maximumSize The maximum number of statements kept open (0 disables caching)
+	 * @param hitCount Incremented when a cached statement is reused
+	 * @param missCount Incremented when a statement has to be compiled
+	 * @param evictionCount Incremented when a cached statement is closed to make room
+	 */
+	public StatementCache(Connection connection, int maximumSize, AtomicLong hitCount, AtomicLong missCount,
+			AtomicLong evictionCount) {
+		this.connection = connection;
+		this.maximumSize = maximumSize;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Provides a prepared statement for the SQL text, reusing a cached statement
+	 * when one is available.
+	 *
+	 * @param sql SQL text to prepare
+	 * @return A prepared statement that is returned to the cache when closed
+	 * @throws SQLException If the statement cannot be prepared
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		CachedStatement cachedStatement = statements.get(sql);
+
+		if (cachedStatement != null && !cachedStatement.inUse) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+			PreparedStatement statement = connection.prepareStatement(sql);
+
+			if (cachedStatement != null || maximumSize == 0) {
+				// Same SQL already checked out (or caching disabled); hand out a private copy
+				return statement;
+			}
+
+			cachedStatement = new CachedStatement(statement);
+			statements.put(sql, cachedStatement);
+			evictOverflow();
+		}
+
+		return cachedStatement.checkOut();
+	}
+
+	/**
+	 * Changes the maximum number of cached statements closing the least
+	 * recently used statements if necessary
+	 *
+	 * @param maximumSize The maximum number of statements kept open (0 disables caching)
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+		evictOverflow();
+	}
+
+	/**
+	 * @return The number of statements currently cached
+	 */
+	public int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Removes least recently used statements until the cache fits its maximum size.
+	 * Statements in use are closed once their current user is done with them.
+	 */
+	private void evictOverflow() {
+		Iterator<Map.Entry<String, CachedStatement>> entries = statements.entrySet().iterator();
+		while (statements.size() > maximumSize && entries.hasNext()) {
+			CachedStatement evicted = entries.next().getValue();
+			entries.remove();
+			evictionCount.incrementAndGet();
+			evicted.evict();
+		}
+	}
+
+	/**
+	 * Closes all cached statements
+	 */
+	public void close() {
+		ArrayList<CachedStatement> cachedStatements = new ArrayList<CachedStatement>(statements.values());
+		statements.clear();
+		for (CachedStatement cachedStatement : cachedStatements) {
+			cachedStatement.evict();
+		}
+	}
+
+	/**
+	 * A compiled statement held by the cache along with its checkout state
+	 *
+	 * @author Russell Yorke
+	 */
+	private static class CachedStatement {
+		private final PreparedStatement statement;
+		private boolean inUse = false;
+		private boolean evicted = false;
+
+		/**
+		 * Wraps a newly compiled statement
+		 *
+		 * @param statement A prepared statement
+		 */
+		public CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		/**
+		 * Marks the statement as in use and returns a proxy that hands it
+		 * back to the cache when closed
+		 *
+		 * @return A statement proxy
+		 */
+		public PreparedStatement checkOut() {
+			inUse = true;
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new StatementCheckout(this));
+		}
+
+		/**
+		 * Resets the statement for the next caller
+		 *
+		 * @param openResultSet A result set obtained through the checkout (may be null)
+		 * @throws SQLException If the statement cannot be reset
+		 */
+		public void checkIn(ResultSet openResultSet) throws SQLException {
+			inUse = false;
+			try {
+				if (openResultSet != null)
+					openResultSet.close();
+				if (!evicted) {
+					statement.clearParameters();
+					statement.clearBatch();
+				}
+			} finally {
+				if (evicted)
+					statement.close();
+			}
+		}
+
+		/**
+		 * Closes the statement now or, if it is checked out, when it is checked in
+		 */
+		public void evict() {
+			evicted = true;
+			if (!inUse) {
+				try {
+					statement.close();
+				} catch (SQLException exception) {
+					// Statement is being discarded
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles calls made on a checked out statement. close() returns the
+	 * statement to the cache; all other calls are passed through.
+	 *
+	 * @author Russell Yorke
+	 */
+	private static class StatementCheckout implements InvocationHandler {
+		private final CachedStatement cachedStatement;
+		private ResultSet openResultSet = null;
+		private boolean closed = false;
+
+		/**
+		 * Creates a checkout of a cached statement
+		 *
+		 * @param cachedStatement The statement checked out
+		 */
+		public StatementCheckout(CachedStatement cachedStatement) {
+			this.cachedStatement = cachedStatement;
+		}
+
+		/**
+		 * Dispatches a call made on the statement proxy
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!closed) {
+					closed = true;
+					cachedStatement.checkIn(openResultSet);
+					openResultSet = null;
+				}
+				return null;
+			case "isClosed":
+				return closed;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Cached " + cachedStatement.statement.toString();
+			}
+
+			if (closed)
+				throw new SQLException("Statement has already been closed");
+
+			Object result;
+			try {
+				result = method.invoke(cachedStatement.statement, args);
+			} catch (InvocationTargetException exception) {
+				throw exception.getCause();
+			}
+
+			if (result instanceof ResultSet)
+				openResultSet = (ResultSet) result;
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2018 Russell Yorke
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ryorke.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * A unit of work spanning several entity manager calls. All work performed
+ * with a transaction runs on one connection and is committed once. Closing a
+ * transaction that was not committed rolls the work back.
+ * 
+ * A transaction started while the calling thread already has one open joins
+ * the outer transaction; only the outermost transaction commits.
+ *
+ * Commit and rollback actions let in-memory state derived from the
+ * transaction's work (such as a cache) be updated once that work is kept or
+ * discarded.
+ * 
+ * Usage:
+ * <pre>
+ * try (Transaction transaction = databaseManager.beginTransaction()) {
+ *     gameManager.addGame(game, transaction);
+ *     consoleManager.updateConsole(console, transaction);
+ *     transaction.commit();
+ * }
+ * </pre>
+ * 
+ * @author Russell Yorke
+ */
+public class Transaction implements AutoCloseable {
+	// The outermost open transaction of each thread, which holds the actions of nested transactions
+	private static final ThreadLocal<Transaction> outermostTransaction = new ThreadLocal<Transaction>();
+	private final Connection connection;
+	private final boolean nested;
+	private final ArrayList<Runnable> commitActions = new ArrayList<Runnable>();
+	private final ArrayList<Runnable> rollbackActions = new ArrayList<Runnable>();
+	private boolean completed = false;
+
+	/**
+	 * Starts a new transaction on a writer connection. The transaction
+	 * takes ownership of the connection and closes it when done. Writer
+	 * connections begin transactions IMMEDIATE so the write lock is held
+	 * from the start and concurrent units of work wait on busy_timeout
+	 * instead of failing to upgrade a read lock.
+	 *
+	 * @param connection A connection borrowed from the SQLiteDBManager
+	 * @throws SQLException If the transaction cannot be started
+	 */
+	Transaction(Connection connection) throws SQLException {
+		this.connection = connection;
+		this.nested = !connection.getAutoCommit();
+
+		try {
+			if (!nested) {
+				connection.setAutoCommit(false);
+				outermostTransaction.set(this);
+			}
+		} catch (SQLException exception) {
+			connection.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Provides the connection work within this transaction must be performed on.
+	 * The connection must not be closed by the caller.
+	 *
+	 * @return The transaction's connection
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Registers an action to run once the work of this transaction is
+	 * committed. A nested transaction registers the action with the outer
+	 * transaction as its work is only kept once the outer transaction commits.
+	 *
+	 * @param action The action to run after the commit
+	 */
+	public void onCommit(Runnable action) {
+		getOutermostTransaction().commitActions.add(action);
+	}
+
+	/**
+	 * Registers an action to run if the work of this transaction is rolled
+	 * back. A nested transaction registers the action with the outer 
+	 * transaction as its work is only kept once the outer transaction commits.
+	 *
+	 * @param action The action to run after a rollback
+	 */
+	public void onRollback(Runnable action) {
+		getOutermostTransaction().rollbackActions.add(action);
+	}
+
+	/**
+	 * @return The transaction owning the connection's database transaction
+	 */
+	private Transaction getOutermostTransaction() {
+		Transaction outermost = (nested) ? outermostTransaction.get() : this;
+		return (outermost != null) ? outermost : this;
+	}
+
+	/**
+	 * Runs the actions registered for the outcome of the work and clears
+	 * every registered action
+	 *
+	 * @param committed True if the work was committed, false if it was rolled back
+	 */
+	private void completeActions(boolean committed) {
+		Transaction outermost = getOutermostTransaction();
+		for (Runnable action : (committed) ? outermost.commitActions : outermost.rollbackActions) {
+			action.run();
+		}
+		outermost.commitActions.clear();
+		outermost.rollbackActions.clear();
+	}
+
+	/**
+	 * Commits all work performed within this transaction
+	 *
+	 * @throws SQLException If the commit fails
+	 * @throws IllegalStateException If the transaction has already completed
+	 */
+	public void commit() throws SQLException {
+		if (completed)
+			throw new IllegalStateException("Transaction has already completed");
+
+		if (!nested) {
+			connection.commit();
+			completeActions(true);
+		}
+		completed = true;
+	}
+
+	/**
+	 * Discards all work performed within this transaction (or within the outer
+	 * transaction when nested)
+	 *
+	 * @throws SQLException If the rollback fails
+	 */
+	public void rollback() throws SQLException {
+		if (!completed) {
+			completed = true;
+			connection.rollback();
+			completeActions(false);
+		}
+	}
+
+	/**
+	 * Rolls back any uncommitted work and returns the connection
+	 *
+	 * @throws SQLException If a database error occurs
+	 */
+	@Override
+	public void close() throws SQLException {
+		try {
+			if (!completed && !nested) {
+				connection.rollback();
+				completeActions(false);
+			}
+
+			if (!nested)
+				connection.setAutoCommit(true);
+		} finally {
+			if (!nested) {
+				outermostTransaction.remove();
+				commitActions.clear();
+				rollbackActions.clear();
+			}
+			connection.close();
+		}
+	}
+}
@@ -14,6 +14,7 @@
 package com.ryorke.database;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -32,12 +33,14 @@ import com.ryorke.entity.exception.InvalidUserAttributeException;
  * @author Russell Yorke
  */
 public class UserEntityManager implements EntityManager {
-	private final static String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS user "
+	final static String CREATE_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS user "
 			+ "(userId INTEGER PRIMARY KEY, "
 			+ "username TEXT NOT NULL UNIQUE COLLATE NOCASE, " // CASE INSENSITIVE
 			+ "password TEXT NOT NULL, "
 			+ "firstName TEXT NOT NULL, lastName TEXT NOT NULL, "
 			+ "administrator INTEGER DEFAULT 0)";
+	final static String INSERT_DEFAULT_USER_QUERY = "INSERT INTO user (username, password, firstName, lastName, administrator) "
+			+ "VALUES ('admin', 'admin', 'Administrative', 'User', 1)";
 	private final static String TABLE_NAME = "user";
 	
 	private static UserEntityManager entityManager = null; 
@@ -68,7 +71,7 @@ public class UserEntityManager implements EntityManager {
 		ArrayList<User> userList = null;
 		final String query = "SELECT * FROM user";
 		
-		try (Connection connection = databaseManager.getConnection(true);
+		try (Connection connection = databaseManager.getReadConnection();
 				Statement statement = connection.createStatement();
 				ResultSet results = statement.executeQuery(query)) {
 			while (results.next()) {
@@ -91,6 +94,56 @@ public class UserEntityManager implements EntityManager {
 		
 		return userList; 
 	}
+
+	/**
+	 * Retrieves one page of users using keyset pagination (see Page)
+	 * 
+	 * @param sortKey Orders the users by user id or username (case insensitive)
+	 * @param continuationToken The token of the previous page or null for the first page
+	 * @param limit The maximum number of users in the page
+	 * @return The page of users
+	 * @throws SQLException If an error occurs while processing the database request
+	 * @throws InvalidUserAttributeException Thrown if database information has been modified with invalid data
+	 * @throws IllegalArgumentException If the limit is not positive or the token is not one of the sort key's
+	 */
+	public Page<User> getUsers(Page.SortKey sortKey, String continuationToken, int limit) 
+			throws SQLException, InvalidUserAttributeException {
+		ArrayList<User> userList = null;
+		String nextContinuationToken = null;
+		final String query = "SELECT * FROM user" + Page.keysetClause(sortKey, "userId", "username", continuationToken);
+		
+		try (Connection connection = databaseManager.getReadConnection();
+				PreparedStatement statement = connection.prepareStatement(query)) {
+			Page.bindKeyset(statement, sortKey, continuationToken, limit);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					if (userList != null && userList.size() == limit) {
+						User lastUser = userList.get(limit - 1);
+						nextContinuationToken = Page.continuationToken(sortKey, lastUser.getUserId(), 
+								lastUser.getUsername());
+						break;
+					}
+					
+					int userId = results.getInt("userId");
+					String username = results.getString("username");
+					String password = results.getString("password");
+					String firstName = results.getString("firstName");
+					String lastName = results.getString("lastName");
+					boolean isAdministrator = (results.getInt("administrator") == 1) ? true : false;
+					
+					User user = new User(userId, username, password, firstName, lastName, isAdministrator);
+					
+					if (userList == null) {
+						userList = new ArrayList<User>();
+					}
+					
+					userList.add(user);
+				}
+			}
+		}
+		
+		return new Page<User>(userList, nextContinuationToken);
+	}
 	
 	/**
 	 * Creates a new instance of the UserEntityManager registering
@@ -112,15 +165,12 @@ public class UserEntityManager implements EntityManager {
 	 */
 	@Override
 	public void createTable() throws SQLException {		
-		final String insertDefaultUserQuery = "INSERT INTO user (username, password, firstName, lastName, administrator) "
-				+ "VALUES ('admin', 'admin', 'Administrative', 'User', 1)";
-		
 		if (!databaseManager.tableExists(UserEntityManager.TABLE_NAME)) {
 			try (Connection dbConnection = databaseManager.getConnection(true);
 					Statement sqlStatement = dbConnection.createStatement();) {
 				sqlStatement.executeUpdate(UserEntityManager.CREATE_TABLE_QUERY);
 
-				int result = sqlStatement.executeUpdate(insertDefaultUserQuery);
+				int result = sqlStatement.executeUpdate(INSERT_DEFAULT_USER_QUERY);
 				
 				// User insert should always yield 1 row updated
 				assert (result == 1): "Inserting default administrative user failed";
@@ -164,7 +214,7 @@ public class UserEntityManager implements EntityManager {
 		User authenticatedUser = null;
 		String userQuery = "SELECT * FROM user WHERE username = ?";
 		
-		try (Connection dbConnection = databaseManager.getConnection(true);
+		try (Connection dbConnection = databaseManager.getReadConnection();
 				PreparedStatement sqlStatement = dbConnection.prepareStatement(userQuery)){
 			sqlStatement.setString(1, username);
 			ResultSet results = sqlStatement.executeQuery();
@@ -195,11 +245,10 @@ public class UserEntityManager implements EntityManager {
 	 */
 	public void createUser(User user) throws SQLException {
 		String insertUserQuery = "INSERT INTO user (username, password, firstName, lastName, administrator) VALUES (?, ?, ?, ?, ?)";
-		String userIdQuery = "SELECT last_insert_rowid() AS userId";
 		
 		try (Connection dbConnection = databaseManager.getConnection(true);
-				PreparedStatement insertUserStatement = dbConnection.prepareStatement(insertUserQuery);
-				Statement lastRowInsertStatement = dbConnection.createStatement()) {
+				PreparedStatement insertUserStatement = dbConnection.prepareStatement(insertUserQuery, 
+						Statement.RETURN_GENERATED_KEYS)) {
 			insertUserStatement.setString(1, user.getUsername());
 			insertUserStatement.setString(2,  user.getPassword());
 			insertUserStatement.setString(3,  user.getFirstName());
@@ -208,9 +257,10 @@ public class UserEntityManager implements EntityManager {
 			int rowsInserted = insertUserStatement.executeUpdate();
 			assert(rowsInserted == 1): "Creation of user returns an invalid number of rows. This should always be 1.";
 			
-			ResultSet result = lastRowInsertStatement.executeQuery(userIdQuery);
-			result.next();
-			user.setUserId(result.getInt(1));				
+			try (ResultSet generatedKeys = insertUserStatement.getGeneratedKeys()) {
+				generatedKeys.next();
+				user.setUserId(generatedKeys.getInt(1));
+			}
 		}
 	}
 	
@@ -255,4 +305,37 @@ public class UserEntityManager implements EntityManager {
 			assert(rowsDeleted == 1): String.format("More than one row (%d) was deleted.", rowsDeleted);			
 		}
 	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and data within the table directly to a writer. 
+	 * 
+	 * @param writer The writer to send the SQL commands to
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the commands
+	 */
+	@Override
+	public void exportTable(Writer writer) throws SQLException, IOException {
+		writer.write(String.format("DROP TABLE IF EXISTS %s\n", UserEntityManager.TABLE_NAME));
+		writer.write(UserEntityManager.CREATE_TABLE_QUERY);
+		writer.write('\n');
+		
+		databaseManager.exportRecords(UserEntityManager.TABLE_NAME, writer);
+	}
+	
+	/**
+	 * Writes the SQL statements necessary to recreate the database 
+	 * table and the data within the table to a binary backup segment. 
+	 * 
+	 * @param backupWriter The binary backup with this entity's segment open
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an error occurs while writing the records
+	 */
+	@Override
+	public void exportTable(BinaryBackupWriter backupWriter) throws SQLException, IOException {
+		backupWriter.writeCommand(String.format("DROP TABLE IF EXISTS %s", UserEntityManager.TABLE_NAME));
+		backupWriter.writeCommand(UserEntityManager.CREATE_TABLE_QUERY);
+		
+		databaseManager.exportRecords(UserEntityManager.TABLE_NAME, backupWriter);
+	}
 }